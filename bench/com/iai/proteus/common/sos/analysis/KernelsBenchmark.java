@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times the kernels of {@link Kernels}: naive scalar loops, the scalar
+ * kernels and the vector kernels (if the Vector API is available), on
+ * columns of the given sizes (by default 100 thousand, 1 million and
+ * 10 million values, a tenth of them missing)
+ *
+ * Run with the "bench" target of the build, or with:
+ *
+ *   java --add-modules jdk.incubator.vector -cp ... \
+ *     com.iai.proteus.common.sos.analysis.KernelsBenchmark [size ...]
+ *
+ * The results of the kernels are checked against the naive loops.
+ */
+public class KernelsBenchmark {
+
+	// runs before timing, at least this many and for at least this long
+	private static final int WARMUP = 10;
+	private static final long WARMUP_MILLIS = 1000;
+	private static final int RUNS = 15;
+
+	// keeps the results alive
+	private static double sink;
+
+	/**
+	 * A timed operation
+	 */
+	private interface Task {
+		double run();
+	}
+
+	public static void main(String[] args) {
+		int[] sizes = { 100000, 1000000, 10000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+
+		NumericKernels vector = Kernels.isVectorized() ? Kernels.IMPL : null;
+		System.out.println("Vector kernels: " +
+				(vector != null ? vector : "not available"));
+		System.out.println();
+
+		for (int size : sizes)
+			run(size, vector);
+
+		if (sink == 42)
+			System.out.println();
+	}
+
+	private static void run(int size, NumericKernels vector) {
+		final double[] values = new double[size];
+		Random random = new Random(size);
+		for (int i = 0; i < size; i++)
+			values[i] = random.nextInt(10) == 0 ?
+					Double.NaN : random.nextGaussian() * 10;
+		final double[] out = new double[size];
+		final long[] mask = Kernels.greaterThan(values, 0);
+
+		System.out.println(String.format(Locale.US, "%,d values", size));
+		System.out.println(String.format(Locale.US, "  %-18s %10s %10s %10s",
+				"kernel", "naive", "scalar", "vector"));
+
+		final NumericKernels scalar = Kernels.SCALAR;
+		final NumericKernels vec = vector;
+
+		/*
+		 * Filters
+		 */
+		long[] expected = naiveGreaterThan(values, 5);
+		check("greaterThan", expected, bitmap(scalar, values, 5), vec != null ?
+				bitmap(vec, values, 5) : null);
+		time("greaterThan",
+			new Task() {
+				public double run() {
+					return naiveGreaterThan(values, 5).length;
+				}
+			},
+			new Task() {
+				public double run() {
+					return bitmap(scalar, values, 5).length;
+				}
+			},
+			vec == null ? null : new Task() {
+				public double run() {
+					return bitmap(vec, values, 5).length;
+				}
+			}, size);
+
+		time("between",
+			new Task() {
+				public double run() {
+					BitSet bits = new BitSet(values.length);
+					for (int i = 0; i < values.length; i++) {
+						if (values[i] >= -5 && values[i] <= 5)
+							bits.set(i);
+					}
+					return bits.cardinality();
+				}
+			},
+			new Task() {
+				public double run() {
+					long[] bitmap = new long[(values.length + 63) >>> 6];
+					scalar.between(values, -5, 5, bitmap);
+					return bitmap.length;
+				}
+			},
+			vec == null ? null : new Task() {
+				public double run() {
+					long[] bitmap = new long[(values.length + 63) >>> 6];
+					vec.between(values, -5, 5, bitmap);
+					return bitmap.length;
+				}
+			}, size);
+
+		/*
+		 * Scaling
+		 */
+		time("scale",
+			new Task() {
+				public double run() {
+					for (int i = 0; i < values.length; i++)
+						out[i] = values[i] * 1.8 + 32;
+					return out[0];
+				}
+			},
+			new Task() {
+				public double run() {
+					scalar.scale(values, 1.8, 32, out, values.length);
+					return out[0];
+				}
+			},
+			vec == null ? null : new Task() {
+				public double run() {
+					vec.scale(values, 1.8, 32, out, values.length);
+					return out[0];
+				}
+			}, size);
+
+		/*
+		 * Reductions
+		 */
+		double sum = naiveSum(values);
+		check("sum", sum, scalar.sum(values, 0, size),
+				vec != null ? vec.sum(values, 0, size) : sum);
+		time("sum",
+			new Task() {
+				public double run() {
+					return naiveSum(values);
+				}
+			},
+			new Task() {
+				public double run() {
+					return scalar.sum(values, 0, values.length);
+				}
+			},
+			vec == null ? null : new Task() {
+				public double run() {
+					return vec.sum(values, 0, values.length);
+				}
+			}, size);
+
+		double max = naiveMax(values);
+		check("max", max, scalar.max(values, 0, size),
+				vec != null ? vec.max(values, 0, size) : max);
+		time("max",
+			new Task() {
+				public double run() {
+					return naiveMax(values);
+				}
+			},
+			new Task() {
+				public double run() {
+					return scalar.max(values, 0, values.length);
+				}
+			},
+			vec == null ? null : new Task() {
+				public double run() {
+					return vec.max(values, 0, values.length);
+				}
+			}, size);
+
+		/*
+		 * Masked aggregates
+		 */
+		double maskedSum = naiveSum(values, mask);
+		check("masked sum", maskedSum, scalar.sum(values, mask),
+				vec != null ? vec.sum(values, mask) : maskedSum);
+		time("masked sum",
+			new Task() {
+				public double run() {
+					return naiveSum(values, mask);
+				}
+			},
+			new Task() {
+				public double run() {
+					return scalar.sum(values, mask);
+				}
+			},
+			vec == null ? null : new Task() {
+				public double run() {
+					return vec.sum(values, mask);
+				}
+			}, size);
+
+		double maskedMin = naiveMin(values, mask);
+		check("masked min", maskedMin, scalar.min(values, mask),
+				vec != null ? vec.min(values, mask) : maskedMin);
+		time("masked min",
+			new Task() {
+				public double run() {
+					return naiveMin(values, mask);
+				}
+			},
+			new Task() {
+				public double run() {
+					return scalar.min(values, mask);
+				}
+			},
+			vec == null ? null : new Task() {
+				public double run() {
+					return vec.min(values, mask);
+				}
+			}, size);
+
+		System.out.println();
+	}
+
+	/*
+	 * The naive loops
+	 */
+
+	private static long[] naiveGreaterThan(double[] values, double threshold) {
+		BitSet bits = new BitSet(values.length);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] > threshold)
+				bits.set(i);
+		}
+		return Arrays.copyOf(bits.toLongArray(), (values.length + 63) >>> 6);
+	}
+
+	private static double naiveSum(double[] values) {
+		double sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (!Double.isNaN(values[i]))
+				sum += values[i];
+		}
+		return sum;
+	}
+
+	private static double naiveMax(double[] values) {
+		double max = Double.NaN;
+		for (int i = 0; i < values.length; i++) {
+			if (!Double.isNaN(values[i]))
+				max = Double.isNaN(max) ? values[i] : Math.max(max, values[i]);
+		}
+		return max;
+	}
+
+	private static double naiveSum(double[] values, long[] mask) {
+		BitSet bits = BitSet.valueOf(mask);
+		double sum = 0;
+		for (int i = bits.nextSetBit(0); i >= 0 && i < values.length;
+				i = bits.nextSetBit(i + 1))
+		{
+			if (!Double.isNaN(values[i]))
+				sum += values[i];
+		}
+		return sum;
+	}
+
+	private static double naiveMin(double[] values, long[] mask) {
+		BitSet bits = BitSet.valueOf(mask);
+		double min = Double.NaN;
+		for (int i = bits.nextSetBit(0); i >= 0 && i < values.length;
+				i = bits.nextSetBit(i + 1))
+		{
+			if (!Double.isNaN(values[i]))
+				min = Double.isNaN(min) ? values[i] : Math.min(min, values[i]);
+		}
+		return min;
+	}
+
+	private static long[] bitmap(NumericKernels kernels, double[] values,
+			double threshold)
+	{
+		long[] bitmap = new long[(values.length + 63) >>> 6];
+		kernels.greaterThan(values, threshold, bitmap);
+		return bitmap;
+	}
+
+	/*
+	 * Timing and checking
+	 */
+
+	private static void time(String name, Task naive, Task scalar,
+			Task vector, int size)
+	{
+		System.out.println(String.format(Locale.US,
+				"  %-18s %10s %10s %10s   (ms)", name,
+				format(median(naive)), format(median(scalar)),
+				vector != null ? format(median(vector)) : "-"));
+	}
+
+	private static double median(Task task) {
+		long end = System.currentTimeMillis() + WARMUP_MILLIS;
+		for (int i = 0; i < WARMUP || System.currentTimeMillis() < end; i++)
+			sink += task.run();
+		double[] times = new double[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			sink += task.run();
+			times[i] = (System.nanoTime() - start) / 1e6;
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+
+	private static String format(double millis) {
+		return String.format(Locale.US, "%.3f", millis);
+	}
+
+	private static void check(String name, long[] expected, long[] scalar,
+			long[] vector)
+	{
+		if (!Arrays.equals(expected, scalar) ||
+				(vector != null && !Arrays.equals(expected, vector)))
+			System.out.println("  " + name + ": RESULTS DIFFER");
+	}
+
+	private static void check(String name, double expected, double scalar,
+			double vector)
+	{
+		// sums are added in different orders
+		double tolerance = Math.abs(expected) * 1e-9;
+		if (!(Math.abs(expected - scalar) <= tolerance) ||
+				!(Math.abs(expected - vector) <= tolerance))
+			System.out.println("  " + name + ": RESULTS DIFFER (" +
+					expected + ", " + scalar + ", " + vector + ")");
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The kernels using the Vector API (jdk.incubator.vector)
+ *
+ * This class is compiled separately from the rest of the library, with
+ * the incubator module added, and is loaded by {@link Kernels} when the
+ * module is available at run time.
+ *
+ * Only the kernels that are faster with vectors are implemented here
+ * (see KernelsBenchmark): the range filter, the reductions and the
+ * count of present values. The single comparisons and the scaling are
+ * as fast in the scalar kernels, which the JIT compiler vectorizes or
+ * which are bound by memory, and the masked reductions are slower with
+ * vector masks built from the bits (not intrinsified before JDK 19) than
+ * visiting the set bits; these use the scalar kernels.
+ *
+ * The bitmap of the range filter is built from the comparison masks of
+ * whole vectors (the number of lanes divides 64), and the values of the
+ * last, partial word one at a time.
+ */
+final class VectorKernels implements NumericKernels {
+
+	private static final VectorSpecies<Double> SPECIES =
+			DoubleVector.SPECIES_PREFERRED;
+
+	private static final int LANES = SPECIES.length();
+
+	private static final NumericKernels SCALAR = new ScalarKernels();
+
+	/**
+	 * Constructor
+	 *
+	 * @throws UnsupportedOperationException if vectors hold fewer than
+	 * two doubles, when the scalar kernels are faster
+	 */
+	public VectorKernels() {
+		if (LANES < 2 || 64 % LANES != 0)
+			throw new UnsupportedOperationException("Unsuitable vector " +
+					"shape: " + SPECIES);
+	}
+
+	@Override
+	public void greaterThan(double[] values, double threshold, long[] bitmap) {
+		SCALAR.greaterThan(values, threshold, bitmap);
+	}
+
+	@Override
+	public void lessThan(double[] values, double threshold, long[] bitmap) {
+		SCALAR.lessThan(values, threshold, bitmap);
+	}
+
+	@Override
+	public void between(double[] values, double low, double high,
+			long[] bitmap)
+	{
+		int n = values.length;
+		int full = n >>> 6;
+		for (int w = 0; w < full; w++) {
+			int from = w << 6;
+			long word = 0;
+			for (int i = 0; i < 64; i += LANES) {
+				DoubleVector v = DoubleVector.fromArray(SPECIES, values, from + i);
+				VectorMask<Double> m = v.compare(VectorOperators.GE, low)
+						.and(v.compare(VectorOperators.LE, high));
+				word |= m.toLong() << i;
+			}
+			bitmap[w] = word;
+		}
+		if (full < bitmap.length) {
+			int from = full << 6;
+			long word = 0;
+			for (int i = from; i < n; i++) {
+				double value = values[i];
+				word |= (value >= low & value <= high ? 1L : 0L) << (i - from);
+			}
+			bitmap[full] = word;
+		}
+	}
+
+	@Override
+	public void present(double[] values, long[] bitmap) {
+		SCALAR.present(values, bitmap);
+	}
+
+	@Override
+	public void scale(double[] values, double scale, double offset,
+			double[] out, int n)
+	{
+		SCALAR.scale(values, scale, offset, out, n);
+	}
+
+	@Override
+	public double sum(double[] values, int from, int to) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int bound = from + SPECIES.loopBound(to - from);
+		int i = from;
+		for (; i < bound; i += LANES) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+			acc = acc.add(v, v.compare(VectorOperators.EQ, v));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < to; i++) {
+			double v = values[i];
+			sum += v == v ? v : 0;
+		}
+		return sum;
+	}
+
+	@Override
+	public double min(double[] values, int from, int to) {
+		DoubleVector acc = DoubleVector.broadcast(SPECIES,
+				Double.POSITIVE_INFINITY);
+		int bound = from + SPECIES.loopBound(to - from);
+		int i = from;
+		for (; i < bound; i += LANES) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+			// NaN compares false, so it is never taken
+			acc = acc.blend(v, v.compare(VectorOperators.LT, acc));
+		}
+		double min = acc.reduceLanes(VectorOperators.MIN);
+		for (; i < to; i++) {
+			double v = values[i];
+			min = v < min ? v : min;
+		}
+		if (min == Double.POSITIVE_INFINITY && !isPresent(values, from, to))
+			return Double.NaN;
+		return min;
+	}
+
+	@Override
+	public double max(double[] values, int from, int to) {
+		DoubleVector acc = DoubleVector.broadcast(SPECIES,
+				Double.NEGATIVE_INFINITY);
+		int bound = from + SPECIES.loopBound(to - from);
+		int i = from;
+		for (; i < bound; i += LANES) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+			acc = acc.blend(v, v.compare(VectorOperators.GT, acc));
+		}
+		double max = acc.reduceLanes(VectorOperators.MAX);
+		for (; i < to; i++) {
+			double v = values[i];
+			max = v > max ? v : max;
+		}
+		if (max == Double.NEGATIVE_INFINITY && !isPresent(values, from, to))
+			return Double.NaN;
+		return max;
+	}
+
+	/*
+	 * True if any value of the range is not missing (only needed when
+	 * the minimum or maximum is infinite)
+	 */
+	private static boolean isPresent(double[] values, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (values[i] == values[i])
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int countPresent(double[] values) {
+		int bound = SPECIES.loopBound(values.length);
+		int count = 0;
+		int i = 0;
+		for (; i < bound; i += LANES) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+			count += v.compare(VectorOperators.EQ, v).trueCount();
+		}
+		for (; i < values.length; i++) {
+			double v = values[i];
+			count += v == v ? 1 : 0;
+		}
+		return count;
+	}
+
+	@Override
+	public double sum(double[] values, long[] mask) {
+		return SCALAR.sum(values, mask);
+	}
+
+	@Override
+	public double min(double[] values, long[] mask) {
+		return SCALAR.min(values, mask);
+	}
+
+	@Override
+	public double max(double[] values, long[] mask) {
+		return SCALAR.max(values, mask);
+	}
+
+	@Override
+	public String toString() {
+		return "VectorKernels[" + SPECIES + "]";
+	}
+
+}
@@ -30,6 +30,11 @@ public class TimeUtils {
 	private final static String[] formats =
 		new String[] { zuluFormat, zuluFormatShort, zuluFormatLong };
 
+	/**
+	 * Returned by {@link #parseMillis(String)} for values that are not times
+	 */
+	public final static long NO_TIME = Long.MIN_VALUE;
+
 	/**
 	 * Formats the given timestamp according OGC standard
 	 *
@@ -96,6 +101,108 @@ public class TimeUtils {
 		return null;
 	}
 
+	/**
+	 * Parse a string into milliseconds since the epoch, returns NO_TIME
+	 * if the string cannot be parsed
+	 *
+	 * The standard formats are parsed directly, without going through
+	 * a date format, which makes this suitable for parsing whole columns
+	 *
+	 * @param str
+	 * @return
+	 */
+	public static long parseMillis(String str) {
+		if (str == null)
+			return NO_TIME;
+		int start = 0;
+		int end = str.length();
+		while (start < end && str.charAt(start) <= ' ')
+			start++;
+		while (end > start && str.charAt(end - 1) <= ' ')
+			end--;
+
+		long millis = parseZulu(str, start, end);
+		if (millis != NO_TIME)
+			return millis;
+
+		// anything else
+		Date date = parseDefault(str, false);
+		if (date != null)
+			return date.getTime();
+		return NO_TIME;
+	}
+
+	/**
+	 * Parses yyyy-MM-dd'T'HH:mm'Z', yyyy-MM-dd'T'HH:mm:ss'Z' and
+	 * yyyy-MM-dd'T'HH:mm:ss.SSS'Z', returns NO_TIME for anything else
+	 *
+	 * @param str
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private static long parseZulu(String str, int start, int end) {
+		int length = end - start;
+		if ((length != 17 && length != 20 && length != 24) ||
+				str.charAt(end - 1) != 'Z' ||
+				str.charAt(start + 4) != '-' || str.charAt(start + 7) != '-' ||
+				str.charAt(start + 10) != 'T' || str.charAt(start + 13) != ':')
+			return NO_TIME;
+
+		int year = digits(str, start, 4);
+		int month = digits(str, start + 5, 2);
+		int day = digits(str, start + 8, 2);
+		int hour = digits(str, start + 11, 2);
+		int minute = digits(str, start + 14, 2);
+		int second = 0;
+		int millis = 0;
+		if (length >= 20) {
+			if (str.charAt(start + 16) != ':')
+				return NO_TIME;
+			second = digits(str, start + 17, 2);
+			if (length == 24) {
+				if (str.charAt(start + 19) != '.')
+					return NO_TIME;
+				millis = digits(str, start + 20, 3);
+			}
+		}
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 ||
+				hour < 0 || hour > 23 || minute < 0 || minute > 59 ||
+				second < 0 || second > 59 || millis < 0)
+			return NO_TIME;
+
+		// days since the epoch (proleptic Gregorian calendar)
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		long days = era * 146097L + doe - 719468;
+
+		return ((days * 24 + hour) * 60 + minute) * 60000L +
+				second * 1000L + millis;
+	}
+
+	/**
+	 * Parses a fixed number of decimal digits, returns -1 if they are not
+	 * all digits
+	 *
+	 * @param str
+	 * @param from
+	 * @param count
+	 * @return
+	 */
+	private static int digits(String str, int from, int count) {
+		int value = 0;
+		for (int i = from; i < from + count; i++) {
+			char c = str.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
 	public static long msDay() {
 		return 24 * msHour();
 	}
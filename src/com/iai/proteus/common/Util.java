@@ -73,10 +73,8 @@ public class Util {
 	{
 
 		/* open a URL connection */
-		URL url = new URL(serviceAddress);
-		URLConnection urlConnection = url.openConnection();
-		urlConnection.setConnectTimeout(timeoutConnection * 1000);
-		urlConnection.setReadTimeout(timeoutRead * 1000);
+		URLConnection urlConnection = 
+				openGet(serviceAddress, timeoutConnection, timeoutRead);
 
 		BufferedReader br =
 			new BufferedReader(new InputStreamReader(
@@ -143,27 +141,31 @@ public class Util {
 			int timeoutConnection, int timeoutRead)
 					throws SocketTimeoutException, MalformedURLException
 	{
+		return post(service, writer(request), contentType, 
+				timeoutConnection, timeoutRead);
+	}
 
-		try {
-
-			HttpURLConnection urlConnection =
-				(HttpURLConnection)new URL(service).openConnection();
-
-			urlConnection.setDoInput(true);
-			urlConnection.setDoOutput(true); // triggers POST
-			urlConnection.setUseCaches(false);
-			urlConnection.setDefaultUseCaches(false);
-			urlConnection.setConnectTimeout(timeoutConnection * 1000);
-			urlConnection.setReadTimeout(timeoutRead * 1000);
+	/**
+	 * Issues a request to a service using POST, the request being written 
+	 * straight to the connection 
+	 *
+	 * @param service
+	 * @param request
+	 * @param contentType 
+	 * @param timeoutConncetion
+	 * @param timeoutRead
+	 * @return
+	 * @throws SocketTimeoutException
+	 */
+	public static String post(String service, RequestWriter request, 
+			String contentType, int timeoutConnection, int timeoutRead)
+					throws SocketTimeoutException, MalformedURLException
+	{
 
-			urlConnection.setRequestMethod("POST");
-			urlConnection.setRequestProperty("Content-Type", contentType);
-			urlConnection.setRequestProperty("Accept", "input/xml");
+		try {
 
-			// write request
-			OutputStream out = urlConnection.getOutputStream();
-			out.write(request.getBytes());
-			out.close();
+			HttpURLConnection urlConnection = openPost(service, request, 
+					contentType, timeoutConnection, timeoutRead);
 
 			// read response
 			BufferedReader br =
@@ -193,6 +195,117 @@ public class Util {
 	}
 
 
+	/**
+	 * Opens a connection for a GET request, from which the response can 
+	 * be read as a stream (the caller closes the stream, or disconnects 
+	 * an HTTP connection, when done) 
+	 *
+	 * @param serviceAddress
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 * @return
+	 * @throws MalformedURLException
+	 * @throws IOException
+	 */
+	public static URLConnection openGet(String serviceAddress,
+			int timeoutConnection, int timeoutRead)
+		throws MalformedURLException, IOException
+	{
+		URLConnection urlConnection = new URL(serviceAddress).openConnection();
+		urlConnection.setConnectTimeout(timeoutConnection * 1000);
+		urlConnection.setReadTimeout(timeoutRead * 1000);
+		return urlConnection;
+	}
+
+	/**
+	 * Opens a connection and writes a POST request, after which the 
+	 * response can be read as a stream (the caller disconnects when done) 
+	 *
+	 * @param service
+	 * @param request
+	 * @param contentType
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 * @return
+	 * @throws MalformedURLException
+	 * @throws IOException
+	 */
+	public static HttpURLConnection openPost(String service, String request, 
+			String contentType, int timeoutConnection, int timeoutRead)
+		throws MalformedURLException, IOException
+	{
+		return openPost(service, writer(request), contentType, 
+				timeoutConnection, timeoutRead);
+	}
+
+	/**
+	 * Opens a connection and writes a POST request straight to it, after 
+	 * which the response can be read as a stream (the caller disconnects 
+	 * when done) 
+	 *
+	 * @param service
+	 * @param request
+	 * @param contentType
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 * @return
+	 * @throws MalformedURLException
+	 * @throws IOException
+	 */
+	public static HttpURLConnection openPost(String service, 
+			RequestWriter request, String contentType, 
+			int timeoutConnection, int timeoutRead)
+		throws MalformedURLException, IOException
+	{
+		HttpURLConnection urlConnection =
+			(HttpURLConnection)new URL(service).openConnection();
+
+		urlConnection.setDoInput(true);
+		urlConnection.setDoOutput(true); // triggers POST
+		urlConnection.setUseCaches(false);
+		urlConnection.setDefaultUseCaches(false);
+		urlConnection.setConnectTimeout(timeoutConnection * 1000);
+		urlConnection.setReadTimeout(timeoutRead * 1000);
+
+		urlConnection.setRequestMethod("POST");
+		urlConnection.setRequestProperty("Content-Type", contentType);
+		urlConnection.setRequestProperty("Accept", "input/xml");
+
+		// write request
+		OutputStream out = urlConnection.getOutputStream();
+		request.write(out);
+		out.close();
+
+		return urlConnection;
+	}
+
+	/**
+	 * Writes the body of a POST request 
+	 *
+	 */
+	public interface RequestWriter {
+
+		/**
+		 * Writes the request to the stream (without closing it) 
+		 *
+		 * @param out
+		 * @throws IOException
+		 */
+		void write(OutputStream out) throws IOException;
+	}
+
+	/*
+	 * Writes the request in the platform encoding 
+	 */
+	private static RequestWriter writer(final String request) {
+		return new RequestWriter() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				out.write(request.getBytes());
+			}
+		};
+	}
+
 	/**
 	 * Parses the XML passed in as an argument and returns a Document object
 	 * that represents the parsed XML
@@ -5,11 +5,14 @@
  */
 package com.iai.proteus.common.sos;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 
 import com.iai.proteus.common.Util;
 import com.iai.proteus.common.sos.model.GetObservationRequest;
+import com.iai.proteus.common.sos.model.ObservationRequest;
 
 public class GetObservation {
 
@@ -28,7 +31,7 @@ public class GetObservation {
 	{
 
 		String result =
-				Util.post(service, request.getXmlRequest(),
+				Util.post(service, writer(request), "text/xml",
 						timeoutConnection, timeoutRead);
 
 		if (result != null) {
@@ -43,4 +46,34 @@ public class GetObservation {
 		return null;
 	}
 
+	/**
+	 * Returns a writer of the XML request straight to the connection
+	 *
+	 * @param request
+	 * @return
+	 */
+	public static Util.RequestWriter writer(final GetObservationRequest request) {
+		return new Util.RequestWriter() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				request.writeXmlRequest(out);
+			}
+		};
+	}
+
+	/**
+	 * Returns a writer of the XML request straight to the connection
+	 *
+	 * @param request
+	 * @return
+	 */
+	public static Util.RequestWriter writer(final ObservationRequest request) {
+		return new Util.RequestWriter() {
+			@Override
+			public void write(OutputStream out) throws IOException {
+				request.writeXmlRequest(out);
+			}
+		};
+	}
+
 }
@@ -0,0 +1,425 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+import com.iai.proteus.common.Util;
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.ObservationBatch;
+import com.iai.proteus.common.sos.data.ParseOptions;
+import com.iai.proteus.common.sos.exception.ExceptionReportException;
+import com.iai.proteus.common.sos.model.GetObservationRequest;
+
+/**
+ * Publishes the observations of a GetObservation request while the
+ * response is being read
+ *
+ * Each subscription issues the request and publishes the header batch
+ * (the fields) followed by batches of rows. Rows are only read from the
+ * connection when the subscriber has requested more batches, so a slow
+ * subscriber throttles the download rather than having rows pile up in
+ * memory. Cancelling the subscription disconnects the connection.
+ *
+ * Only CSV responses can be published; subscribing to a publisher of a
+ * request for another response format signals an error right away.
+ */
+public class ObservationPublisher implements Flow.Publisher<ObservationBatch> {
+
+	private static final Logger log =
+			Logger.getLogger(ObservationPublisher.class);
+
+	/**
+	 * The number of rows per batch by default
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private final String service;
+	private final GetObservationRequest request;
+	private final int timeoutConnection;
+	private final int timeoutRead;
+	private final ParseOptions options;
+	private final int batchSize;
+	private final Executor executor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param service
+	 * @param request
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 */
+	public ObservationPublisher(String service, GetObservationRequest request,
+			int timeoutConnection, int timeoutRead)
+	{
+		this(service, request, timeoutConnection, timeoutRead, null,
+				DEFAULT_BATCH_SIZE, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param service
+	 * @param request
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 * @param options the fields to keep, or null to keep all fields
+	 * @param batchSize the (maximum) number of rows per batch
+	 * @param executor the executor the response is read on
+	 */
+	public ObservationPublisher(String service, GetObservationRequest request,
+			int timeoutConnection, int timeoutRead, ParseOptions options,
+			int batchSize, Executor executor)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Invalid batch size: " +
+					batchSize);
+		this.service = service;
+		this.request = request;
+		this.timeoutConnection = timeoutConnection;
+		this.timeoutRead = timeoutRead;
+		this.options = options;
+		this.batchSize = batchSize;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super ObservationBatch> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("Subscriber is null");
+		if (!isCSV(request.getResponseFormat())) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+					// nothing will be published
+				}
+
+				@Override
+				public void cancel() {
+					// nothing to cancel
+				}
+			});
+			subscriber.onError(new UnsupportedOperationException(
+					"Only CSV responses can be published, not " +
+					request.getResponseFormat()));
+			return;
+		}
+		subscriber.onSubscribe(new RowSubscription(subscriber));
+	}
+
+	private static boolean isCSV(String format) {
+		try {
+			return SupportedResponseFormats.parse(format) ==
+					SupportedResponseFormats.CSV;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Opens the connection for the request
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private URLConnection connect() throws IOException {
+		if (request.getMethod().equals("POST")) {
+			log.info("Issuing a streaming POST GetObservation request");
+			return Util.openPost(service, GetObservation.writer(request),
+					"text/xml", timeoutConnection, timeoutRead);
+		}
+		String serviceAddress =	service +
+				(service.endsWith("?") ? "" : "?") +
+				request.getGetQueryString();
+		log.info("Issuing a streaming GET GetObservation request: " +
+				serviceAddress);
+		return Util.openGet(serviceAddress, timeoutConnection, timeoutRead);
+	}
+
+	/**
+	 * The subscription of one subscriber, reading one response
+	 *
+	 * Batches are read and published by a drain task on the executor,
+	 * which runs for as long as there is outstanding demand; at most one
+	 * drain task runs at a time, so the subscriber is signalled serially.
+	 * Errors of the subscription itself (an invalid request, a rejected
+	 * drain task) are signalled by the drain task too.
+	 */
+	private class RowSubscription implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super ObservationBatch> subscriber;
+
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger pending = new AtomicInteger();
+		private final AtomicReference<Throwable> error =
+				new AtomicReference<Throwable>();
+		private volatile boolean cancelled;
+		private volatile URLConnection connection;
+
+		/*
+		 * Only accessed by the drain task
+		 */
+		private boolean done;
+		private BufferedReader input;
+		private CSVReader reader;
+		private int headerLength;
+		private List<Field> fields;
+		private int[] projection;
+		private long rows;
+
+		RowSubscription(Flow.Subscriber<? super ObservationBatch> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				error.compareAndSet(null, new IllegalArgumentException(
+						"Non-positive request: " + n));
+				drain();
+				return;
+			}
+			long current, updated;
+			do {
+				current = demand.get();
+				updated = current + n;
+				// saturate on overflow
+				if (updated < 0)
+					updated = Long.MAX_VALUE;
+			} while (!demand.compareAndSet(current, updated));
+
+			drain();
+		}
+
+		/*
+		 * Schedules the drain task, unless it is already running or
+		 * scheduled
+		 */
+		private void drain() {
+			if (pending.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// no drain task runs, so the error is signalled here
+					error.compareAndSet(null, e);
+					run();
+				}
+			}
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			disconnect();
+			// to close the response
+			drain();
+		}
+
+		@Override
+		public void run() {
+			int missed = 1;
+			while (true) {
+				Throwable failure = error.get();
+				if (failure != null && !cancelled && !done) {
+					done = true;
+					disconnect();
+					subscriber.onError(failure);
+				}
+				while (!cancelled && !done && error.get() == null &&
+						demand.get() > 0)
+				{
+					ObservationBatch batch;
+					try {
+						batch = read();
+					} catch (Exception e) {
+						done = true;
+						disconnect();
+						if (!cancelled) {
+							log.error("Error reading observations: " +
+									e.getMessage());
+							subscriber.onError(e);
+						}
+						break;
+					}
+					if (batch == null) {
+						done = true;
+						disconnect();
+						if (!cancelled)
+							subscriber.onComplete();
+						break;
+					}
+					if (demand.get() != Long.MAX_VALUE)
+						demand.decrementAndGet();
+					subscriber.onNext(batch);
+				}
+				if (error.get() != null && !cancelled && !done)
+					continue;
+				if (done || cancelled)
+					close();
+				missed = pending.addAndGet(-missed);
+				if (missed == 0)
+					break;
+			}
+		}
+
+		/**
+		 * Reads the next batch, returns null at the end of the response
+		 *
+		 * @return
+		 * @throws IOException
+		 * @throws ExceptionReportException
+		 */
+		private ObservationBatch read()
+				throws IOException, ExceptionReportException
+		{
+			if (reader == null)
+				return open();
+
+			List<String[]> batch = new ArrayList<String[]>(batchSize);
+			String[] row;
+			while (batch.size() < batchSize && !cancelled &&
+					(row = reader.readNext()) != null)
+			{
+				// skip blank and incomplete lines, as when parsing
+				if (headerLength > 1 && row.length <= 1)
+					continue;
+				batch.add(project(row));
+			}
+			if (batch.isEmpty())
+				return null;
+
+			ObservationBatch result = new ObservationBatch(fields, batch, rows);
+			rows += batch.size();
+			return result;
+		}
+
+		/**
+		 * Issues the request and reads the header
+		 *
+		 * @return the header batch
+		 * @throws IOException
+		 * @throws ExceptionReportException
+		 */
+		private ObservationBatch open()
+				throws IOException, ExceptionReportException
+		{
+			connection = connect();
+			if (cancelled) {
+				disconnect();
+				throw new IOException("Cancelled");
+			}
+
+			BufferedReader br = new BufferedReader(
+					new InputStreamReader(connection.getInputStream()));
+			input = br;
+
+			// an XML response is an exception report
+			br.mark(1024);
+			int c;
+			do {
+				c = br.read();
+			} while (c != -1 && Character.isWhitespace(c));
+			br.reset();
+			if (c == '<') {
+				StringBuffer sb = new StringBuffer();
+				String input;
+				while ((input = br.readLine()) != null) {
+					sb.append(input + "\n");
+				}
+				String doc = sb.toString();
+				if (doc.contains("ExceptionReport")) {
+					log.error("Exception report: " + "===\n" + doc + "\n===\n");
+					throw new ExceptionReportException(doc);
+				}
+				throw new IOException("Expected a CSV response");
+			}
+
+			reader = new CSVReader(br);
+			String[] headers = reader.readNext();
+			if (headers == null)
+				throw new IOException("No headers found in CSV data");
+
+			List<Field> header = new ArrayList<Field>();
+			for (String name : headers) {
+				header.add(new Field(name.trim()));
+			}
+			headerLength = headers.length;
+			projection = options != null ?
+					options.resolveProjection(header) : null;
+			if (projection != null) {
+				List<Field> kept = new ArrayList<Field>();
+				for (int index : projection) {
+					kept.add(header.get(index));
+				}
+				header = kept;
+			}
+			fields = Collections.unmodifiableList(header);
+
+			return ObservationBatch.header(fields);
+		}
+
+		/**
+		 * Keeps the projected cells of the row
+		 *
+		 * @param row
+		 * @return
+		 */
+		private String[] project(String[] row) {
+			if (projection == null)
+				return row;
+			String[] kept = new String[projection.length];
+			for (int i = 0; i < projection.length; i++) {
+				int index = projection[i];
+				kept[i] = index < row.length ? row[index] : "";
+			}
+			return kept;
+		}
+
+		/*
+		 * Disconnects an HTTP connection; the stream of another connection
+		 * is closed by the drain task when it is done
+		 */
+		private void disconnect() {
+			URLConnection current = connection;
+			if (current instanceof HttpURLConnection)
+				((HttpURLConnection) current).disconnect();
+		}
+
+		/*
+		 * Closes the response, by the drain task
+		 */
+		private void close() {
+			if (input == null)
+				return;
+			try {
+				input.close();
+			} catch (IOException e) {
+				log.warn("Error closing response: " + e.getMessage());
+			}
+			input = null;
+		}
+	}
+
+}
@@ -13,9 +13,9 @@ package com.iai.proteus.common.sos;
  */
 public enum SupportedResponseFormats {
 
-	CSV("text/csv"); 
-//	XML_OM_1_0("text/xml;subtype=\"om/1.0\""), 
-//	XML_OM_1_0_0("text/xml;subtype=\"om/1.0.0\"");
+	CSV("text/csv"), 
+	XML_OM_1_0("text/xml;subtype=\"om/1.0\""), 
+	XML_OM_1_0_0("text/xml;subtype=\"om/1.0.0\"");
 	
 	private String specificiation;
 	
@@ -0,0 +1,19 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+/**
+ * Enumerates the aggregate functions of a {@link TimeAggregation} 
+ */
+public enum Aggregate {
+
+	COUNT, 
+	SUM, 
+	MIN, 
+	MAX, 
+	MEAN;
+	
+}
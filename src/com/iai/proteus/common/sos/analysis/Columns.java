@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.iai.proteus.common.TimeUtils;
+import com.iai.proteus.common.sos.data.DSVData;
+import com.iai.proteus.common.sos.data.DataCursor;
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.data.TimeTable;
+
+/**
+ * Column helpers shared by the analysis classes 
+ */
+class Columns {
+	
+	/**
+	 * Returns the index of the given field, throws an exception if it 
+	 * does not exist 
+	 * 
+	 * @param data
+	 * @param field
+	 * @return
+	 */
+	static int indexOf(SensorData data, Field field) {
+		int index;
+		if (data instanceof DSVData)
+			index = ((DSVData) data).getFieldIndex(field);
+		else
+			index = data.getFields().indexOf(field);
+		if (index == -1)
+			throw new IllegalArgumentException("No such field: " + field);
+		return index;
+	}
+	
+	/**
+	 * Returns the indexes of the given fields 
+	 * 
+	 * @param data
+	 * @param fields
+	 * @return
+	 */
+	static int[] indexesOf(SensorData data, List<Field> fields) {
+		int[] indexes = new int[fields.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = indexOf(data, fields.get(i));
+		}
+		return indexes;
+	}
+	
+	/**
+	 * Reads the given fields into a table ordered by time, skipping rows 
+	 * without a valid time stamp 
+	 * 
+	 * @param data
+	 * @param timestamp
+	 * @param fields
+	 * @param skipMissing true if rows with a missing value should also be 
+	 * skipped 
+	 * @return a table with one column per field, named after the field 
+	 */
+	static TimeTable extract(SensorData data, Field timestamp, 
+			List<Field> fields, boolean skipMissing) 
+	{
+		int timeIndex = indexOf(data, timestamp);
+		int[] valueIndexes = indexesOf(data, fields);
+		int m = valueIndexes.length;
+		
+		long[] times = new long[Math.max(16, data.size())];
+		double[][] values = new double[m][times.length];
+		int n = 0;
+		boolean sorted = true;
+		
+		DataCursor cursor = data.cursor();
+		rows: 
+		while (cursor.next()) {
+			long time = cursor.getEpochMillis(timeIndex);
+			if (time == TimeUtils.NO_TIME)
+				continue;
+			if (n == times.length) {
+				times = Arrays.copyOf(times, n * 2);
+				for (int c = 0; c < m; c++)
+					values[c] = Arrays.copyOf(values[c], n * 2);
+			}
+			for (int c = 0; c < m; c++) {
+				double value = cursor.getDouble(valueIndexes[c]);
+				if (skipMissing && Double.isNaN(value))
+					continue rows;
+				values[c][n] = value;
+			}
+			if (n > 0 && time < times[n - 1])
+				sorted = false;
+			times[n] = time;
+			n++;
+		}
+		
+		times = Arrays.copyOf(times, n);
+		for (int c = 0; c < m; c++)
+			values[c] = Arrays.copyOf(values[c], n);
+		
+		if (!sorted) {
+			// stable, so rows with equal times keep their order 
+			Integer[] order = new Integer[n];
+			for (int i = 0; i < n; i++)
+				order[i] = i;
+			final long[] unsorted = times;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(unsorted[a], unsorted[b]);
+				}
+			});
+			long[] sortedTimes = new long[n];
+			double[][] sortedValues = new double[m][n];
+			for (int i = 0; i < n; i++) {
+				sortedTimes[i] = times[order[i]];
+				for (int c = 0; c < m; c++)
+					sortedValues[c][i] = values[c][order[i]];
+			}
+			times = sortedTimes;
+			values = sortedValues;
+		}
+		
+		String[] names = new String[m];
+		for (int c = 0; c < m; c++)
+			names[c] = fields.get(c).getName();
+		
+		return new TimeTable(times, names, values);
+	}
+	
+}
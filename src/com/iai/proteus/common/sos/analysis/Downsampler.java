@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.data.TimeTable;
+
+/**
+ * Reduces long time series to the number of points that can be displayed,
+ * while keeping their visual shape
+ *
+ * Two methods are provided, both linear in the number of points in the
+ * selected time range:
+ *
+ * Largest-Triangle-Three-Buckets (LTTB) keeps the first and last points
+ * and, from each of the buckets in between, the point that forms the
+ * largest triangle with the point kept from the previous bucket and the
+ * average of the next bucket.
+ *
+ * Min/max decimation splits the time range into one bucket per pixel
+ * and keeps the minimum and the maximum point of each, so that no peak
+ * disappears from the plot.
+ *
+ * The series are {@link TimeTable}s ordered by time, see series(). Since
+ * the range to display is found by binary search, the work of a redraw
+ * is proportional to the number of points in the range, not the series.
+ */
+public class Downsampler {
+
+	/**
+	 * Returns the time series of one field, ordered by time, skipping rows
+	 * with a missing time or value
+	 *
+	 * @param data
+	 * @param timestamp
+	 * @param value
+	 * @return a table with one column, named after the value field
+	 */
+	public static TimeTable series(SensorData data, Field timestamp, Field value) {
+		return Columns.extract(data, timestamp, 
+				Collections.singletonList(value), true);
+	}
+
+	/**
+	 * Downsamples a column of the series with LTTB
+	 *
+	 * @param series
+	 * @param col
+	 * @param threshold the number of points to keep
+	 * @return
+	 */
+	public static TimeTable lttb(TimeTable series, int col, int threshold) {
+		return lttb(series, col, Long.MIN_VALUE, Long.MAX_VALUE, threshold);
+	}
+
+	/**
+	 * Downsamples a column of the series with LTTB, only keeping points in
+	 * the given time range
+	 *
+	 * @param series
+	 * @param col
+	 * @param earliest the earliest time (inclusive)
+	 * @param latest the latest time (inclusive)
+	 * @param threshold the number of points to keep
+	 * @return
+	 */
+	public static TimeTable lttb(TimeTable series, int col,
+			long earliest, long latest, int threshold)
+	{
+		long[] times = series.getTimes();
+		int from = lowerBound(times, earliest);
+		int to = upperBound(times, latest);
+		int[] kept = lttb(times, series.getColumn(col), from, to, threshold);
+		return select(series, col, kept);
+	}
+
+	/**
+	 * Downsamples a column of the series to the minimum and maximum of
+	 * each pixel
+	 *
+	 * @param series
+	 * @param col
+	 * @param pixels the number of pixels (buckets) of the time range
+	 * @return
+	 */
+	public static TimeTable minMax(TimeTable series, int col, int pixels) {
+		return minMax(series, col, Long.MIN_VALUE, Long.MAX_VALUE, pixels);
+	}
+
+	/**
+	 * Downsamples a column of the series to the minimum and maximum of
+	 * each pixel, only keeping points in the given time range
+	 *
+	 * @param series
+	 * @param col
+	 * @param earliest the earliest time (inclusive)
+	 * @param latest the latest time (inclusive)
+	 * @param pixels the number of pixels (buckets) of the time range
+	 * @return at most two points per pixel, ordered by time
+	 */
+	public static TimeTable minMax(TimeTable series, int col,
+			long earliest, long latest, int pixels)
+	{
+		long[] times = series.getTimes();
+		int from = lowerBound(times, earliest);
+		int to = upperBound(times, latest);
+		int[] kept = minMax(times, series.getColumn(col), from, to, pixels);
+		return select(series, col, kept);
+	}
+
+	/**
+	 * Returns the indexes of the points kept by LTTB
+	 *
+	 * @param times ascending times
+	 * @param values
+	 * @param from the first point
+	 * @param to the point after the last point
+	 * @param threshold
+	 * @return
+	 */
+	static int[] lttb(long[] times, double[] values, int from, int to,
+			int threshold)
+	{
+		int n = to - from;
+		if (threshold >= n || threshold < 3)
+			return range(from, to);
+
+		int[] kept = new int[threshold];
+		int k = 0;
+
+		// times relative to the first point, to keep the precision
+		long t0 = times[from];
+
+		double every = (double) (n - 2) / (threshold - 2);
+		int a = from;
+		kept[k++] = a;
+
+		for (int i = 0; i < threshold - 2; i++) {
+
+			// the average of the next bucket
+			int avgFrom = from + (int) Math.floor((i + 1) * every) + 1;
+			int avgTo = from + Math.min((int) Math.floor((i + 2) * every) + 1, n);
+			double avgX = 0;
+			double avgY = 0;
+			for (int j = avgFrom; j < avgTo; j++) {
+				avgX += times[j] - t0;
+				avgY += values[j];
+			}
+			int avgCount = avgTo - avgFrom;
+			avgX /= avgCount;
+			avgY /= avgCount;
+
+			// the point of this bucket with the largest triangle
+			int rangeFrom = from + (int) Math.floor(i * every) + 1;
+			int rangeTo = from + (int) Math.floor((i + 1) * every) + 1;
+			double ax = times[a] - t0;
+			double ay = values[a];
+			double maxArea = -1;
+			int next = rangeFrom;
+			for (int j = rangeFrom; j < rangeTo; j++) {
+				double area = Math.abs((ax - avgX) * (values[j] - ay) -
+						(ax - (times[j] - t0)) * (avgY - ay));
+				if (area > maxArea) {
+					maxArea = area;
+					next = j;
+				}
+			}
+			kept[k++] = next;
+			a = next;
+		}
+
+		kept[k++] = to - 1;
+		return kept;
+	}
+
+	/**
+	 * Returns the indexes of the minimum and maximum point of each pixel
+	 *
+	 * @param times ascending times
+	 * @param values
+	 * @param from the first point
+	 * @param to the point after the last point
+	 * @param pixels
+	 * @return
+	 */
+	static int[] minMax(long[] times, double[] values, int from, int to,
+			int pixels)
+	{
+		int n = to - from;
+		if (pixels < 1 || n <= 2 * pixels)
+			return range(from, to);
+
+		int[] kept = new int[2 * pixels];
+		int k = 0;
+
+		long t0 = times[from];
+		double scale = (double) pixels / (times[to - 1] - t0 + 1);
+
+		int bucket = -1;
+		int minIndex = -1;
+		int maxIndex = -1;
+		for (int i = from; i < to; i++) {
+			int b = (int) ((times[i] - t0) * scale);
+			if (b != bucket) {
+				k = flush(kept, k, minIndex, maxIndex);
+				bucket = b;
+				minIndex = i;
+				maxIndex = i;
+			} else {
+				if (values[i] < values[minIndex])
+					minIndex = i;
+				if (values[i] > values[maxIndex])
+					maxIndex = i;
+			}
+		}
+		k = flush(kept, k, minIndex, maxIndex);
+
+		return Arrays.copyOf(kept, k);
+	}
+
+	/*
+	 * Adds the minimum and maximum of a pixel, in time order
+	 */
+	private static int flush(int[] kept, int k, int minIndex, int maxIndex) {
+		if (minIndex == -1)
+			return k;
+		kept[k++] = Math.min(minIndex, maxIndex);
+		if (minIndex != maxIndex)
+			kept[k++] = Math.max(minIndex, maxIndex);
+		return k;
+	}
+
+	/*
+	 * Returns a table with the given points of one column
+	 */
+	private static TimeTable select(TimeTable series, int col, int[] kept) {
+		long[] times = series.getTimes();
+		double[] values = series.getColumn(col);
+		long[] keptTimes = new long[kept.length];
+		double[] keptValues = new double[kept.length];
+		for (int i = 0; i < kept.length; i++) {
+			keptTimes[i] = times[kept[i]];
+			keptValues[i] = values[kept[i]];
+		}
+		return new TimeTable(keptTimes,
+				new String[] { series.getNames().get(col) },
+				new double[][] { keptValues });
+	}
+
+	private static int[] range(int from, int to) {
+		int[] indexes = new int[Math.max(0, to - from)];
+		for (int i = 0; i < indexes.length; i++)
+			indexes[i] = from + i;
+		return indexes;
+	}
+
+	/*
+	 * The first index with a time at or after the given time
+	 */
+	private static int lowerBound(long[] times, long time) {
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/*
+	 * The first index with a time after the given time
+	 */
+	private static int upperBound(long[] times, long time) {
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+}
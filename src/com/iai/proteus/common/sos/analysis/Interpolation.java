@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+/**
+ * Enumerates how a {@link Resampler} fills the points of the grid 
+ */
+public enum Interpolation {
+
+	/**
+	 * Linear interpolation between the samples before and after 
+	 */
+	LINEAR, 
+	
+	/**
+	 * The value of the sample before 
+	 */
+	PREVIOUS, 
+	
+	/**
+	 * The value of the nearest sample 
+	 */
+	NEAREST;
+	
+}
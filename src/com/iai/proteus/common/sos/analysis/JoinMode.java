@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+/**
+ * Enumerates how a {@link TimeJoin} matches the rows of a data set to 
+ * the joined times 
+ */
+public enum JoinMode {
+
+	/**
+	 * Rows with exactly the same time 
+	 */
+	EXACT, 
+	
+	/**
+	 * The row with the nearest time, within the tolerance 
+	 */
+	NEAREST, 
+	
+	/**
+	 * The latest row at or before the time, within the tolerance 
+	 */
+	AS_OF;
+	
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import java.lang.reflect.InvocationTargetException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Numeric kernels over primitive columns, such as those of a
+ * {@link com.iai.proteus.common.sos.data.TimeTable}: threshold filters
+ * into bitmaps, scaling, and (masked) reductions
+ *
+ * Missing values are NaN: they never pass a filter and are skipped by
+ * the reductions. Bitmaps have one bit per value, value i being bit
+ * (i % 64) of word (i / 64), the same layout as {@link java.util.BitSet}
+ * (see BitSet.valueOf()).
+ *
+ * The range filter and the reductions use the Vector API
+ * (jdk.incubator.vector) where it is available: the vector kernels are
+ * compiled separately (see the build), and are used if they are on the
+ * class path and the module has been added to the JVM (with
+ * --add-modules jdk.incubator.vector). Otherwise, or if the system
+ * property "proteus.kernels.scalar" is true, the scalar kernels are
+ * used. Sums may differ in their last bits between the two, as the
+ * values are added in a different order.
+ */
+public final class Kernels {
+
+	private static final Logger log = Logger.getLogger(Kernels.class);
+
+	private static final String VECTOR_KERNELS =
+			"com.iai.proteus.common.sos.analysis.VectorKernels";
+
+	/*
+	 * The scalar kernels, and the kernels in use
+	 */
+	static final NumericKernels SCALAR = new ScalarKernels();
+	static final NumericKernels IMPL = load();
+
+	private Kernels() {
+		// static methods only
+	}
+
+	/**
+	 * Returns true if the kernels use the Vector API
+	 *
+	 * @return
+	 */
+	public static boolean isVectorized() {
+		return IMPL != SCALAR;
+	}
+
+	/*
+	 * The vector kernels if they can be used, else the scalar kernels
+	 */
+	private static NumericKernels load() {
+		if (Boolean.getBoolean("proteus.kernels.scalar"))
+			return SCALAR;
+		try {
+			NumericKernels kernels = (NumericKernels) Class.forName(VECTOR_KERNELS)
+					.getDeclaredConstructor().newInstance();
+			log.info("Using vector kernels: " + kernels);
+			return kernels;
+		} catch (ClassNotFoundException e) {
+			log.debug("Vector kernels not found, using scalar kernels");
+		} catch (LinkageError e) {
+			log.info("Vector API not available (add the module " +
+					"jdk.incubator.vector), using scalar kernels");
+		} catch (InvocationTargetException e) {
+			// e.g. vector shapes that the kernels are not suited for
+			log.info("Vector kernels not used: " +
+					e.getCause().getMessage());
+		} catch (Exception e) {
+			log.info("Vector kernels not used: " + e.getMessage());
+		}
+		return SCALAR;
+	}
+
+	/**
+	 * Returns the bitmap of the values greater than the threshold
+	 *
+	 * @param values
+	 * @param threshold
+	 * @return
+	 */
+	public static long[] greaterThan(double[] values, double threshold) {
+		long[] bitmap = new long[words(values.length)];
+		IMPL.greaterThan(values, threshold, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Returns the bitmap of the values less than the threshold
+	 *
+	 * @param values
+	 * @param threshold
+	 * @return
+	 */
+	public static long[] lessThan(double[] values, double threshold) {
+		long[] bitmap = new long[words(values.length)];
+		IMPL.lessThan(values, threshold, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Returns the bitmap of the values between the bounds, inclusive
+	 *
+	 * @param values
+	 * @param low
+	 * @param high
+	 * @return
+	 */
+	public static long[] between(double[] values, double low, double high) {
+		long[] bitmap = new long[words(values.length)];
+		IMPL.between(values, low, high, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Returns the bitmap of the values that are not missing
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static long[] present(double[] values) {
+		long[] bitmap = new long[words(values.length)];
+		IMPL.present(values, bitmap);
+		return bitmap;
+	}
+
+	/**
+	 * Returns the intersection of the bitmaps
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static long[] and(long[] a, long[] b) {
+		long[] result = new long[Math.min(a.length, b.length)];
+		for (int w = 0; w < result.length; w++)
+			result[w] = a[w] & b[w];
+		return result;
+	}
+
+	/**
+	 * Returns the union of the bitmaps
+	 *
+	 * @param a
+	 * @param b
+	 * @return
+	 */
+	public static long[] or(long[] a, long[] b) {
+		long[] longer = a.length >= b.length ? a : b;
+		long[] shorter = a.length >= b.length ? b : a;
+		long[] result = longer.clone();
+		for (int w = 0; w < shorter.length; w++)
+			result[w] |= shorter[w];
+		return result;
+	}
+
+	/**
+	 * Returns the number of set bits of the bitmap
+	 *
+	 * @param bitmap
+	 * @return
+	 */
+	public static int count(long[] bitmap) {
+		int count = 0;
+		for (int w = 0; w < bitmap.length; w++)
+			count += Long.bitCount(bitmap[w]);
+		return count;
+	}
+
+	/**
+	 * Scales the values: out[i] = values[i] * scale + offset (the output
+	 * may be the input)
+	 *
+	 * @param values
+	 * @param scale
+	 * @param offset
+	 * @param out
+	 */
+	public static void scale(double[] values, double scale, double offset,
+			double[] out)
+	{
+		IMPL.scale(values, scale, offset, out,
+				Math.min(values.length, out.length));
+	}
+
+	/**
+	 * Returns the scaled values (see scale())
+	 *
+	 * @param values
+	 * @param scale
+	 * @param offset
+	 * @return
+	 */
+	public static double[] scale(double[] values, double scale, double offset) {
+		double[] out = new double[values.length];
+		scale(values, scale, offset, out);
+		return out;
+	}
+
+	/**
+	 * Returns the sum of the values, skipping missing values
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static double sum(double[] values) {
+		return sum(values, 0, values.length);
+	}
+
+	/**
+	 * Returns the sum of the values in the given range, skipping missing
+	 * values
+	 *
+	 * @param values
+	 * @param from inclusive
+	 * @param to exclusive
+	 * @return
+	 */
+	public static double sum(double[] values, int from, int to) {
+		return IMPL.sum(values, from, to);
+	}
+
+	/**
+	 * Returns the smallest value, NaN if all values are missing
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static double min(double[] values) {
+		return min(values, 0, values.length);
+	}
+
+	/**
+	 * Returns the smallest value in the given range, NaN if all values
+	 * are missing
+	 *
+	 * @param values
+	 * @param from inclusive
+	 * @param to exclusive
+	 * @return
+	 */
+	public static double min(double[] values, int from, int to) {
+		return IMPL.min(values, from, to);
+	}
+
+	/**
+	 * Returns the largest value, NaN if all values are missing
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static double max(double[] values) {
+		return max(values, 0, values.length);
+	}
+
+	/**
+	 * Returns the largest value in the given range, NaN if all values
+	 * are missing
+	 *
+	 * @param values
+	 * @param from inclusive
+	 * @param to exclusive
+	 * @return
+	 */
+	public static double max(double[] values, int from, int to) {
+		return IMPL.max(values, from, to);
+	}
+
+	/**
+	 * Returns the number of values that are not missing
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static int countPresent(double[] values) {
+		return IMPL.countPresent(values);
+	}
+
+	/**
+	 * Returns the mean of the values, NaN if all values are missing
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static double mean(double[] values) {
+		int count = countPresent(values);
+		return count > 0 ? sum(values) / count : Double.NaN;
+	}
+
+	/**
+	 * Returns the sum of the values whose bits are set, skipping missing
+	 * values
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	public static double sum(double[] values, long[] mask) {
+		return IMPL.sum(values, mask);
+	}
+
+	/**
+	 * Returns the number of values whose bits are set that are not
+	 * missing
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	public static int count(double[] values, long[] mask) {
+		return count(and(mask, present(values)));
+	}
+
+	/**
+	 * Returns the smallest value whose bit is set, NaN if there is none
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	public static double min(double[] values, long[] mask) {
+		return IMPL.min(values, mask);
+	}
+
+	/**
+	 * Returns the largest value whose bit is set, NaN if there is none
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	public static double max(double[] values, long[] mask) {
+		return IMPL.max(values, mask);
+	}
+
+	/**
+	 * Returns the mean of the values whose bits are set, NaN if there
+	 * is none
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	public static double mean(double[] values, long[] mask) {
+		int count = count(values, mask);
+		return count > 0 ? sum(values, mask) / count : Double.NaN;
+	}
+
+	/*
+	 * The number of words of a bitmap of n values
+	 */
+	private static int words(int n) {
+		return (n + 63) >>> 6;
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+/**
+ * An implementation of the kernels of {@link Kernels}: the scalar one,
+ * or one using the Vector API where it is available
+ *
+ * Bitmaps are passed in with one word per 64 values, and are filled
+ * completely (the bits after the last value are left clear).
+ */
+interface NumericKernels {
+
+	/**
+	 * Sets the bits of the values greater than the threshold
+	 *
+	 * @param values
+	 * @param threshold
+	 * @param bitmap
+	 */
+	void greaterThan(double[] values, double threshold, long[] bitmap);
+
+	/**
+	 * Sets the bits of the values less than the threshold
+	 *
+	 * @param values
+	 * @param threshold
+	 * @param bitmap
+	 */
+	void lessThan(double[] values, double threshold, long[] bitmap);
+
+	/**
+	 * Sets the bits of the values between the bounds, inclusive
+	 *
+	 * @param values
+	 * @param low
+	 * @param high
+	 * @param bitmap
+	 */
+	void between(double[] values, double low, double high, long[] bitmap);
+
+	/**
+	 * Sets the bits of the values that are not missing
+	 *
+	 * @param values
+	 * @param bitmap
+	 */
+	void present(double[] values, long[] bitmap);
+
+	/**
+	 * Scales the first n values into the output
+	 *
+	 * @param values
+	 * @param scale
+	 * @param offset
+	 * @param out
+	 * @param n
+	 */
+	void scale(double[] values, double scale, double offset, double[] out,
+			int n);
+
+	/**
+	 * Returns the sum of the values in the range, skipping missing values
+	 *
+	 * @param values
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	double sum(double[] values, int from, int to);
+
+	/**
+	 * Returns the smallest value in the range, NaN if all are missing
+	 *
+	 * @param values
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	double min(double[] values, int from, int to);
+
+	/**
+	 * Returns the largest value in the range, NaN if all are missing
+	 *
+	 * @param values
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	double max(double[] values, int from, int to);
+
+	/**
+	 * Returns the number of values that are not missing
+	 *
+	 * @param values
+	 * @return
+	 */
+	int countPresent(double[] values);
+
+	/**
+	 * Returns the sum of the values whose bits are set, skipping missing
+	 * values
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	double sum(double[] values, long[] mask);
+
+	/**
+	 * Returns the smallest value whose bit is set, NaN if there is none
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	double min(double[] values, long[] mask);
+
+	/**
+	 * Returns the largest value whose bit is set, NaN if there is none
+	 *
+	 * @param values
+	 * @param mask
+	 * @return
+	 */
+	double max(double[] values, long[] mask);
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.data.TimeTable;
+import com.iai.proteus.common.sos.model.SensorOffering;
+
+/**
+ * Resamples irregular sensor data onto a regular time grid
+ *
+ * The grid has a fixed step, e.g. the nominal sampling interval of the
+ * offering (see forOffering()), so the result columns are fixed-stride
+ * primitive arrays: the value at grid point i is at time start + i * step.
+ * Each column is filled independently from its own (non-missing) samples
+ * with the chosen {@link Interpolation}; columns can be filled in parallel.
+ *
+ * Grid points are only filled from samples that are close enough: with
+ * linear interpolation the samples before and after must be at most the
+ * maximum gap apart, otherwise the sample used must be at most the
+ * maximum gap away. Points that cannot be filled are NaN, and values are
+ * never extrapolated beyond the first and last samples of linear
+ * interpolation.
+ */
+public class Resampler {
+
+	private final Field timestamp;
+	private final long step;
+	private final List<Field> fields;
+
+	private Interpolation interpolation;
+	private long maxGap;
+	private long start;
+	private long end;
+	private boolean ranged;
+
+	private boolean parallel;
+	private ForkJoinPool pool;
+
+	/**
+	 * Constructor
+	 *
+	 * @param timestamp the field with the time stamps
+	 * @param step the step of the grid, in milliseconds
+	 */
+	public Resampler(Field timestamp, long step) {
+		if (step <= 0)
+			throw new IllegalArgumentException("Invalid step: " + step);
+		this.timestamp = timestamp;
+		this.step = step;
+		this.fields = new ArrayList<Field>();
+		this.interpolation = Interpolation.LINEAR; // default
+		this.maxGap = Long.MAX_VALUE; // default
+		this.ranged = false; // default
+		this.parallel = false; // default
+	}
+
+	/**
+	 * Returns a resampler onto the nominal sampling interval of the offering
+	 *
+	 * @param offering
+	 * @param timestamp
+	 * @return
+	 */
+	public static Resampler forOffering(SensorOffering offering, Field timestamp) {
+		// the interval is in minutes
+		long step = Math.round(offering.getInterval() * 60 * 1000);
+		if (step <= 0)
+			throw new IllegalArgumentException("The offering has no " +
+					"sampling interval: " + offering.getGmlId());
+		return new Resampler(timestamp, step);
+	}
+
+	/**
+	 * Adds fields to resample
+	 *
+	 * @param fields
+	 */
+	public void add(Field... fields) {
+		this.fields.addAll(Arrays.asList(fields));
+	}
+
+	/**
+	 * Sets how the grid points are filled
+	 *
+	 * @param interpolation
+	 */
+	public void setInterpolation(Interpolation interpolation) {
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * Sets the largest gap (in milliseconds) that is filled
+	 *
+	 * @param maxGap
+	 */
+	public void setMaxGap(long maxGap) {
+		if (maxGap < 0)
+			throw new IllegalArgumentException("Invalid gap: " + maxGap);
+		this.maxGap = maxGap;
+	}
+
+	/**
+	 * Sets the first and last (inclusive) time of the grid
+	 *
+	 * By default the grid starts at the first multiple of the step (from
+	 * the epoch) at or after the first sample, and ends at or before the
+	 * last sample.
+	 *
+	 * @param start
+	 * @param end
+	 */
+	public void setRange(long start, long end) {
+		if (end < start)
+			throw new IllegalArgumentException("Invalid range: " +
+					start + " to " + end);
+		this.start = start;
+		this.end = end;
+		this.ranged = true;
+	}
+
+	/**
+	 * Sets whether columns should be resampled in parallel
+	 *
+	 * @param parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Sets the pool used for parallel resampling
+	 *
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the step of the grid, in milliseconds
+	 *
+	 * @return
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	/**
+	 * Resamples the data
+	 *
+	 * @param data
+	 * @return a table with one column per field, named after the field
+	 */
+	public TimeTable resample(SensorData data) {
+
+		TimeTable series = Columns.extract(data, timestamp, fields, false);
+		final long[] times = series.getTimes();
+
+		long first = start;
+		long last = end;
+		if (!ranged) {
+			if (times.length == 0)
+				return new TimeTable(new long[0], names(),
+						new double[fields.size()][0]);
+			first = Math.floorDiv(times[0] + step - 1, step) * step;
+			last = times[times.length - 1];
+		}
+		long points = last < first ? 0 : (last - first) / step + 1;
+		if (points > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("Too many grid points: " + points);
+
+		final long[] grid = new long[(int) points];
+		for (int i = 0; i < grid.length; i++)
+			grid[i] = first + i * step;
+
+		final double[][] columns = new double[fields.size()][];
+
+		if (parallel && columns.length > 1) {
+			final TimeTable source = series;
+			List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+			for (int c = 0; c < columns.length; c++) {
+				final int col = c;
+				tasks.add(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected void compute() {
+						columns[col] = fill(times, source.getColumn(col), grid);
+					}
+				});
+			}
+			final List<RecursiveAction> all = tasks;
+			ForkJoinPool executor = pool != null ? pool : ForkJoinPool.commonPool();
+			executor.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected void compute() {
+					invokeAll(all);
+				}
+			});
+		} else {
+			for (int c = 0; c < columns.length; c++)
+				columns[c] = fill(times, series.getColumn(c), grid);
+		}
+
+		return new TimeTable(grid, names(), columns);
+	}
+
+	/**
+	 * Fills the grid from the non-missing samples of one column
+	 *
+	 * @param times
+	 * @param values
+	 * @param grid
+	 * @return
+	 */
+	private double[] fill(long[] times, double[] values, long[] grid) {
+
+		double[] result = new double[grid.length];
+
+		// the last sample at or before the grid point, and the one after
+		int before = -1;
+		int after = nextSample(values, 0);
+
+		for (int i = 0; i < grid.length; i++) {
+			long time = grid[i];
+			while (after != -1 && times[after] <= time) {
+				before = after;
+				after = nextSample(values, after + 1);
+			}
+
+			double value = Double.NaN;
+			if (before != -1 && times[before] == time) {
+				value = values[before];
+			} else {
+				switch (interpolation) {
+				case LINEAR:
+					if (before != -1 && after != -1 &&
+							times[after] - times[before] <= maxGap)
+					{
+						double fraction = (double) (time - times[before]) /
+								(times[after] - times[before]);
+						value = values[before] +
+								fraction * (values[after] - values[before]);
+					}
+					break;
+				case PREVIOUS:
+					if (before != -1 && time - times[before] <= maxGap)
+						value = values[before];
+					break;
+				default:
+					long toBefore = before != -1 ?
+							time - times[before] : Long.MAX_VALUE;
+					long toAfter = after != -1 ?
+							times[after] - time : Long.MAX_VALUE;
+					if (toBefore <= toAfter) {
+						if (toBefore <= maxGap)
+							value = values[before];
+					} else if (toAfter <= maxGap) {
+						value = values[after];
+					}
+					break;
+				}
+			}
+			result[i] = value;
+		}
+
+		return result;
+	}
+
+	/*
+	 * The first non-missing sample at or after the given index, -1 if none
+	 */
+	private static int nextSample(double[] values, int from) {
+		for (int i = from; i < values.length; i++) {
+			if (!Double.isNaN(values[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	private String[] names() {
+		String[] names = new String[fields.size()];
+		for (int c = 0; c < names.length; c++)
+			names[c] = fields.get(c).getName();
+		return names;
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+/**
+ * The scalar kernels, used where the Vector API is not available
+ *
+ * The loops are simple counted loops over arrays, without calls or
+ * branches on the values; sums use several accumulators, since floating
+ * point additions are not reordered by the compiler. The masked
+ * reductions visit only the set bits of the mask. The JIT compiler
+ * vectorizes the scaling and the bitmap operations of {@link Kernels},
+ * but not the loops that build bitmaps or the reductions, which is what
+ * the vector kernels are for.
+ */
+final class ScalarKernels implements NumericKernels {
+
+	@Override
+	public void greaterThan(double[] values, double threshold, long[] bitmap) {
+		int n = values.length;
+		for (int w = 0; w < bitmap.length; w++) {
+			int from = w << 6;
+			int to = Math.min(n, from + 64);
+			long word = 0;
+			for (int i = from; i < to; i++)
+				word |= (values[i] > threshold ? 1L : 0L) << (i - from);
+			bitmap[w] = word;
+		}
+	}
+
+	@Override
+	public void lessThan(double[] values, double threshold, long[] bitmap) {
+		int n = values.length;
+		for (int w = 0; w < bitmap.length; w++) {
+			int from = w << 6;
+			int to = Math.min(n, from + 64);
+			long word = 0;
+			for (int i = from; i < to; i++)
+				word |= (values[i] < threshold ? 1L : 0L) << (i - from);
+			bitmap[w] = word;
+		}
+	}
+
+	@Override
+	public void between(double[] values, double low, double high,
+			long[] bitmap)
+	{
+		int n = values.length;
+		for (int w = 0; w < bitmap.length; w++) {
+			int from = w << 6;
+			int to = Math.min(n, from + 64);
+			long word = 0;
+			for (int i = from; i < to; i++) {
+				double value = values[i];
+				word |= (value >= low & value <= high ? 1L : 0L) << (i - from);
+			}
+			bitmap[w] = word;
+		}
+	}
+
+	@Override
+	public void present(double[] values, long[] bitmap) {
+		int n = values.length;
+		for (int w = 0; w < bitmap.length; w++) {
+			int from = w << 6;
+			int to = Math.min(n, from + 64);
+			long word = 0;
+			for (int i = from; i < to; i++) {
+				double value = values[i];
+				word |= (value == value ? 1L : 0L) << (i - from);
+			}
+			bitmap[w] = word;
+		}
+	}
+
+	@Override
+	public void scale(double[] values, double scale, double offset,
+			double[] out, int n)
+	{
+		for (int i = 0; i < n; i++)
+			out[i] = values[i] * scale + offset;
+	}
+
+	@Override
+	public double sum(double[] values, int from, int to) {
+		double s0 = 0;
+		double s1 = 0;
+		double s2 = 0;
+		double s3 = 0;
+		int i = from;
+		for (; i + 3 < to; i += 4) {
+			double v0 = values[i];
+			double v1 = values[i + 1];
+			double v2 = values[i + 2];
+			double v3 = values[i + 3];
+			s0 += v0 == v0 ? v0 : 0;
+			s1 += v1 == v1 ? v1 : 0;
+			s2 += v2 == v2 ? v2 : 0;
+			s3 += v3 == v3 ? v3 : 0;
+		}
+		for (; i < to; i++) {
+			double v = values[i];
+			s0 += v == v ? v : 0;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	@Override
+	public double min(double[] values, int from, int to) {
+		double min = Double.POSITIVE_INFINITY;
+		boolean any = false;
+		for (int i = from; i < to; i++) {
+			double v = values[i];
+			// NaN compares false, so it is never taken
+			min = v < min ? v : min;
+			any |= v == v;
+		}
+		return any ? min : Double.NaN;
+	}
+
+	@Override
+	public double max(double[] values, int from, int to) {
+		double max = Double.NEGATIVE_INFINITY;
+		boolean any = false;
+		for (int i = from; i < to; i++) {
+			double v = values[i];
+			max = v > max ? v : max;
+			any |= v == v;
+		}
+		return any ? max : Double.NaN;
+	}
+
+	@Override
+	public int countPresent(double[] values) {
+		int count = 0;
+		for (int i = 0; i < values.length; i++) {
+			double v = values[i];
+			count += v == v ? 1 : 0;
+		}
+		return count;
+	}
+
+	@Override
+	public double sum(double[] values, long[] mask) {
+		double sum = 0;
+		int words = Math.min(mask.length, (values.length + 63) >>> 6);
+		for (int w = 0; w < words; w++) {
+			long word = mask[w];
+			int from = w << 6;
+			while (word != 0) {
+				int i = from + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				if (i >= values.length)
+					break;
+				double v = values[i];
+				sum += v == v ? v : 0;
+			}
+		}
+		return sum;
+	}
+
+	@Override
+	public double min(double[] values, long[] mask) {
+		double min = Double.POSITIVE_INFINITY;
+		boolean any = false;
+		int words = Math.min(mask.length, (values.length + 63) >>> 6);
+		for (int w = 0; w < words; w++) {
+			long word = mask[w];
+			int from = w << 6;
+			while (word != 0) {
+				int i = from + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				if (i >= values.length)
+					break;
+				double v = values[i];
+				min = v < min ? v : min;
+				any |= v == v;
+			}
+		}
+		return any ? min : Double.NaN;
+	}
+
+	@Override
+	public double max(double[] values, long[] mask) {
+		double max = Double.NEGATIVE_INFINITY;
+		boolean any = false;
+		int words = Math.min(mask.length, (values.length + 63) >>> 6);
+		for (int w = 0; w < words; w++) {
+			long word = mask[w];
+			int from = w << 6;
+			while (word != 0) {
+				int i = from + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				if (i >= values.length)
+					break;
+				double v = values[i];
+				max = v > max ? v : max;
+				any |= v == v;
+			}
+		}
+		return any ? max : Double.NaN;
+	}
+
+}
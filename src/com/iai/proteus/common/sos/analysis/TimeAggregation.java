@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+import com.iai.proteus.common.TimeUtils;
+import com.iai.proteus.common.sos.data.DataCursor;
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.data.TimeTable;
+
+/**
+ * Aggregates sensor data into fixed width time buckets, e.g. hourly or
+ * daily minimum, maximum, mean and count of each observed property
+ *
+ * The data is read in a single pass over a {@link DataCursor}, keeping
+ * only running counts, sums, minimums and maximums per bucket. Large data
+ * sets can be aggregated in parallel, in which case the rows are split
+ * with the spliterator of the data and the partial buckets are merged.
+ *
+ * Buckets start at multiples of the width from the origin (by default
+ * the epoch, so that e.g. daily buckets start at midnight UTC). Missing
+ * and non-numeric values are ignored, and rows without a valid time
+ * stamp are skipped.
+ */
+public class TimeAggregation {
+
+	/*
+	 * Data sets smaller than this are not aggregated in parallel, and
+	 * parallel tasks stop splitting below this size
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	private final Field timestamp;
+	private final long width;
+	private long origin;
+
+	// the value fields, and what is computed for them
+	private final List<Field> fields;
+	private final List<Field> outputFields;
+	private final List<Aggregate> outputAggregates;
+
+	private boolean parallel;
+	private ForkJoinPool pool;
+
+	/**
+	 * Constructor
+	 *
+	 * @param timestamp the field with the time stamps
+	 * @param width the width of the buckets, in milliseconds
+	 */
+	public TimeAggregation(Field timestamp, long width) {
+		if (width <= 0)
+			throw new IllegalArgumentException("Invalid bucket width: " + width);
+		this.timestamp = timestamp;
+		this.width = width;
+		this.origin = 0; // default
+		this.fields = new ArrayList<Field>();
+		this.outputFields = new ArrayList<Field>();
+		this.outputAggregates = new ArrayList<Aggregate>();
+		this.parallel = false; // default
+	}
+
+	/**
+	 * Adds the given aggregates of a field to the result
+	 *
+	 * The result columns are named after the field and the aggregate,
+	 * e.g. "temperature_mean".
+	 *
+	 * @param field
+	 * @param aggregates
+	 */
+	public void add(Field field, Aggregate... aggregates) {
+		if (!fields.contains(field))
+			fields.add(field);
+		for (Aggregate aggregate : aggregates) {
+			outputFields.add(field);
+			outputAggregates.add(aggregate);
+		}
+	}
+
+	/**
+	 * Sets the time the buckets are aligned to
+	 *
+	 * @param origin milliseconds since the epoch
+	 */
+	public void setOrigin(long origin) {
+		this.origin = origin;
+	}
+
+	/**
+	 * Sets whether large data sets should be aggregated in parallel
+	 *
+	 * @param parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Sets the pool used for parallel aggregation
+	 *
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the name of the result column of the given aggregate
+	 *
+	 * @param field
+	 * @param aggregate
+	 * @return
+	 */
+	public static String getColumnName(Field field, Aggregate aggregate) {
+		return field.getName() + "_" + aggregate.name().toLowerCase();
+	}
+
+	/**
+	 * Aggregates the data
+	 *
+	 * @param data
+	 * @return a table with the start time of each (non-empty) bucket and
+	 * one column per added aggregate
+	 */
+	public TimeTable aggregate(SensorData data) {
+
+		int timeIndex = Columns.indexOf(data, timestamp);
+		int[] valueIndexes = Columns.indexesOf(data, fields);
+
+		Buckets buckets;
+		if (parallel && data.size() >= PARALLEL_THRESHOLD) {
+			ForkJoinPool executor = pool != null ? pool : ForkJoinPool.commonPool();
+			buckets = executor.invoke(new AggregationTask(data.spliterator(),
+					timeIndex, valueIndexes));
+		} else {
+			buckets = new Buckets(timeIndex, valueIndexes);
+			DataCursor cursor = data.cursor();
+			while (cursor.next()) {
+				buckets.accept(cursor);
+			}
+		}
+
+		return buckets.toTable();
+	}
+
+	/**
+	 * Aggregates a split of the rows, splitting further while it is large
+	 */
+	private class AggregationTask extends RecursiveTask<Buckets> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Spliterator<DataCursor> rows;
+		private final int timeIndex;
+		private final int[] valueIndexes;
+
+		AggregationTask(Spliterator<DataCursor> rows, int timeIndex,
+				int[] valueIndexes)
+		{
+			this.rows = rows;
+			this.timeIndex = timeIndex;
+			this.valueIndexes = valueIndexes;
+		}
+
+		@Override
+		protected Buckets compute() {
+			if (rows.estimateSize() > PARALLEL_THRESHOLD) {
+				Spliterator<DataCursor> split = rows.trySplit();
+				if (split != null) {
+					AggregationTask first =
+							new AggregationTask(split, timeIndex, valueIndexes);
+					first.fork();
+					Buckets second =
+							new AggregationTask(rows, timeIndex, valueIndexes).compute();
+					Buckets buckets = first.join();
+					buckets.merge(second);
+					return buckets;
+				}
+			}
+			Buckets buckets = new Buckets(timeIndex, valueIndexes);
+			rows.forEachRemaining(buckets);
+			return buckets;
+		}
+	}
+
+	/**
+	 * The running aggregates of each bucket
+	 */
+	private class Buckets implements Consumer<DataCursor> {
+
+		private final int timeIndex;
+		private final int[] valueIndexes;
+		private final int n;
+
+		private final Map<Long, Integer> slots = new HashMap<Long, Integer>();
+		private long[] keys = new long[16];
+		private int size = 0;
+
+		// per slot and value
+		private long[] count;
+		private double[] sum;
+		private double[] min;
+		private double[] max;
+
+		// the last bucket, as rows are usually ordered by time
+		private long lastKey;
+		private int lastSlot = -1;
+
+		Buckets(int timeIndex, int[] valueIndexes) {
+			this.timeIndex = timeIndex;
+			this.valueIndexes = valueIndexes;
+			this.n = valueIndexes.length;
+			count = new long[keys.length * n];
+			sum = new double[keys.length * n];
+			min = new double[keys.length * n];
+			max = new double[keys.length * n];
+		}
+
+		@Override
+		public void accept(DataCursor cursor) {
+			long time = cursor.getEpochMillis(timeIndex);
+			if (time == TimeUtils.NO_TIME)
+				return;
+			int base = slot(Math.floorDiv(time - origin, width)) * n;
+			for (int v = 0; v < n; v++) {
+				double value = cursor.getDouble(valueIndexes[v]);
+				if (Double.isNaN(value))
+					continue;
+				int i = base + v;
+				if (count[i]++ == 0) {
+					min[i] = value;
+					max[i] = value;
+				} else {
+					if (value < min[i])
+						min[i] = value;
+					if (value > max[i])
+						max[i] = value;
+				}
+				sum[i] += value;
+			}
+		}
+
+		/**
+		 * Adds the aggregates of the other buckets to these
+		 *
+		 * @param other
+		 */
+		void merge(Buckets other) {
+			for (int s = 0; s < other.size; s++) {
+				int base = slot(other.keys[s]) * n;
+				int otherBase = s * n;
+				for (int v = 0; v < n; v++) {
+					int i = base + v;
+					int j = otherBase + v;
+					if (other.count[j] == 0)
+						continue;
+					if (count[i] == 0) {
+						min[i] = other.min[j];
+						max[i] = other.max[j];
+					} else {
+						min[i] = Math.min(min[i], other.min[j]);
+						max[i] = Math.max(max[i], other.max[j]);
+					}
+					count[i] += other.count[j];
+					sum[i] += other.sum[j];
+				}
+			}
+		}
+
+		/**
+		 * Returns the slot of the given bucket, adding it if needed
+		 *
+		 * @param key
+		 * @return
+		 */
+		private int slot(long key) {
+			if (lastSlot != -1 && key == lastKey)
+				return lastSlot;
+			Integer slot = slots.get(key);
+			if (slot == null) {
+				if (size == keys.length)
+					grow();
+				slot = size++;
+				keys[slot] = key;
+				slots.put(key, slot);
+			}
+			lastKey = key;
+			lastSlot = slot;
+			return slot;
+		}
+
+		private void grow() {
+			int capacity = keys.length * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			count = Arrays.copyOf(count, capacity * n);
+			sum = Arrays.copyOf(sum, capacity * n);
+			min = Arrays.copyOf(min, capacity * n);
+			max = Arrays.copyOf(max, capacity * n);
+		}
+
+		/**
+		 * Returns the aggregates, ordered by time
+		 *
+		 * @return
+		 */
+		TimeTable toTable() {
+			long[] sorted = Arrays.copyOf(keys, size);
+			Arrays.sort(sorted);
+
+			long[] times = new long[size];
+			String[] names = new String[outputFields.size()];
+			double[][] columns = new double[names.length][size];
+
+			int[] values = new int[names.length];
+			for (int c = 0; c < names.length; c++) {
+				Field field = outputFields.get(c);
+				names[c] = getColumnName(field, outputAggregates.get(c));
+				values[c] = fields.indexOf(field);
+			}
+
+			for (int r = 0; r < size; r++) {
+				long key = sorted[r];
+				times[r] = origin + key * width;
+				int base = slots.get(key) * n;
+				for (int c = 0; c < names.length; c++) {
+					int i = base + values[c];
+					long k = count[i];
+					double value;
+					switch (outputAggregates.get(c)) {
+					case COUNT:
+						value = k;
+						break;
+					case SUM:
+						value = sum[i];
+						break;
+					case MIN:
+						value = k > 0 ? min[i] : Double.NaN;
+						break;
+					case MAX:
+						value = k > 0 ? max[i] : Double.NaN;
+						break;
+					default:
+						value = k > 0 ? sum[i] / k : Double.NaN;
+						break;
+					}
+					columns[c][r] = value;
+				}
+			}
+
+			return new TimeTable(times, names, columns);
+		}
+	}
+
+}
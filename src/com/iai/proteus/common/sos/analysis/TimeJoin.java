@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.data.TimeTable;
+
+/**
+ * Aligns several data sets, e.g. from different offerings, on their
+ * time stamps into one wide table
+ *
+ * Each data set is read once into time-ordered primitive columns. The
+ * joined times are the distinct times of all data sets, found with a
+ * k-way merge of the sorted times, and each data set is matched to the
+ * joined times by a pointer that only moves forward, so the join is
+ * linear in the total number of rows. How rows match a time depends on
+ * the {@link JoinMode}; if several rows of a data set have the same time,
+ * the last one is used.
+ *
+ * Values that have no matching row are NaN. An inner join only keeps
+ * the times at which every data set has a matching row.
+ */
+public class TimeJoin {
+
+	private final JoinMode mode;
+	private long tolerance;
+	private boolean inner;
+
+	private final List<String> names;
+	private final List<SensorData> inputs;
+	private final List<Field> timestamps;
+	private final List<List<Field>> values;
+
+	/**
+	 * Constructor
+	 *
+	 * @param mode
+	 */
+	public TimeJoin(JoinMode mode) {
+		this.mode = mode;
+		this.tolerance = Long.MAX_VALUE; // default
+		this.inner = false; // default
+		this.names = new ArrayList<String>();
+		this.inputs = new ArrayList<SensorData>();
+		this.timestamps = new ArrayList<Field>();
+		this.values = new ArrayList<List<Field>>();
+	}
+
+	/**
+	 * Adds a data set to the join
+	 *
+	 * The result columns are named after the data set and the field,
+	 * e.g. "buoy1_temperature".
+	 *
+	 * @param name the name of the data set
+	 * @param data
+	 * @param timestamp the field with the time stamps
+	 * @param fields the fields to include in the result
+	 */
+	public void add(String name, SensorData data, Field timestamp,
+			Field... fields)
+	{
+		names.add(name);
+		inputs.add(data);
+		timestamps.add(timestamp);
+		values.add(Arrays.asList(fields));
+	}
+
+	/**
+	 * Sets the largest time difference (in milliseconds) of a matching row
+	 * in the nearest and as-of modes
+	 *
+	 * @param tolerance
+	 */
+	public void setTolerance(long tolerance) {
+		if (tolerance < 0)
+			throw new IllegalArgumentException("Invalid tolerance: " + tolerance);
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Sets whether only times at which all data sets have a matching row
+	 * should be kept
+	 *
+	 * @param inner
+	 */
+	public void setInner(boolean inner) {
+		this.inner = inner;
+	}
+
+	/**
+	 * Returns the name of the result column of the given field
+	 *
+	 * @param name the name of the data set
+	 * @param field
+	 * @return
+	 */
+	public static String getColumnName(String name, Field field) {
+		return name + "_" + field.getName();
+	}
+
+	/**
+	 * Joins the data sets
+	 *
+	 * @return
+	 */
+	public TimeTable join() {
+
+		int k = inputs.size();
+		TimeTable[] series = new TimeTable[k];
+		int columnCount = 0;
+		for (int s = 0; s < k; s++) {
+			series[s] = Columns.extract(inputs.get(s), timestamps.get(s),
+					values.get(s), false);
+			columnCount += series[s].getColumnCount();
+		}
+
+		String[] columnNames = new String[columnCount];
+		int c = 0;
+		for (int s = 0; s < k; s++) {
+			for (Field field : values.get(s))
+				columnNames[c++] = getColumnName(names.get(s), field);
+		}
+
+		int capacity = 16;
+		long[] times = new long[capacity];
+		double[][] columns = new double[columnCount][capacity];
+		int n = 0;
+
+		// the next time to merge, and the last row at or before the time
+		int[] heads = new int[k];
+		int[] last = new int[k];
+		Arrays.fill(last, -1);
+		int[] matches = new int[k];
+
+		while (true) {
+
+			// the next joined time (k-way merge)
+			long time = Long.MAX_VALUE;
+			boolean more = false;
+			for (int s = 0; s < k; s++) {
+				long[] seriesTimes = series[s].getTimes();
+				if (heads[s] < seriesTimes.length) {
+					more = true;
+					time = Math.min(time, seriesTimes[heads[s]]);
+				}
+			}
+			if (!more)
+				break;
+
+			boolean all = true;
+			for (int s = 0; s < k; s++) {
+				long[] seriesTimes = series[s].getTimes();
+				while (heads[s] < seriesTimes.length &&
+						seriesTimes[heads[s]] <= time)
+					last[s] = heads[s]++;
+				matches[s] = match(seriesTimes, last[s], time);
+				if (matches[s] == -1)
+					all = false;
+			}
+			if (inner && !all)
+				continue;
+
+			if (n == capacity) {
+				capacity *= 2;
+				times = Arrays.copyOf(times, capacity);
+				for (int i = 0; i < columnCount; i++)
+					columns[i] = Arrays.copyOf(columns[i], capacity);
+			}
+			times[n] = time;
+			c = 0;
+			for (int s = 0; s < k; s++) {
+				for (int i = 0; i < series[s].getColumnCount(); i++) {
+					columns[c++][n] = matches[s] != -1 ?
+							series[s].getValue(matches[s], i) : Double.NaN;
+				}
+			}
+			n++;
+		}
+
+		times = Arrays.copyOf(times, n);
+		for (int i = 0; i < columnCount; i++)
+			columns[i] = Arrays.copyOf(columns[i], n);
+
+		return new TimeTable(times, columnNames, columns);
+	}
+
+	/**
+	 * Returns the row matching the given time, -1 if none
+	 *
+	 * @param times
+	 * @param last the last row at or before the time, -1 if none
+	 * @param time
+	 * @return
+	 */
+	private int match(long[] times, int last, long time) {
+		switch (mode) {
+		case EXACT:
+			return last != -1 && times[last] == time ? last : -1;
+		case AS_OF:
+			return last != -1 && time - times[last] <= tolerance ? last : -1;
+		default:
+			int next = last + 1;
+			long before = last != -1 ? time - times[last] : Long.MAX_VALUE;
+			long after = next < times.length ? times[next] - time : Long.MAX_VALUE;
+			if (before <= after)
+				return before <= tolerance ? last : -1;
+			return after <= tolerance ? lastWithTime(times, next) : -1;
+		}
+	}
+
+	/*
+	 * The last of the rows with the same time as the given row
+	 */
+	private static int lastWithTime(long[] times, int row) {
+		while (row + 1 < times.length && times[row + 1] == times[row])
+			row++;
+		return row;
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.cache;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.iai.proteus.common.sos.data.SensorData;
+
+/**
+ * The result of looking up a time range in the {@link ObservationCache}: 
+ * the cached observations of the range, and the parts of the range that 
+ * were not cached and still have to be fetched 
+ */
+public class CacheResult {
+	
+	private final SensorData data;
+	private final List<TimeRange> missing;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param data the cached observations, or null if nothing was cached 
+	 * @param missing
+	 */
+	CacheResult(SensorData data, List<TimeRange> missing) {
+		this.data = data;
+		this.missing = Collections.unmodifiableList(missing);
+	}
+	
+	/**
+	 * Returns the cached observations, ordered by time, or null if 
+	 * nothing was cached 
+	 * 
+	 * @return
+	 */
+	public SensorData getData() {
+		return data;
+	}
+	
+	/**
+	 * Returns the parts of the range that were not cached 
+	 * 
+	 * @return
+	 */
+	public List<TimeRange> getMissing() {
+		return missing;
+	}
+	
+	/**
+	 * Returns true if all of the range was cached 
+	 * 
+	 * @return
+	 */
+	public boolean isComplete() {
+		return missing.isEmpty();
+	}
+	
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.iai.proteus.common.TimeUtils;
+import com.iai.proteus.common.sos.data.DataCursor;
+import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.model.GetObservationRequest;
+import com.iai.proteus.common.sos.model.TimeInterval;
+
+/**
+ * Singleton for tracking which time ranges of observations have been
+ * fetched, and where the fetched data has gaps
+ *
+ * Fetched ranges are kept per {@link ObservationKey}, merged into disjoint
+ * ranges in a tree map, so the parts of a time range that are still
+ * missing are found in logarithmic time (plus the number of parts). When
+ * fetched data is recorded, its time stamps are compared to the nominal
+ * sampling interval of the offering: wherever consecutive samples (or the
+ * ends of the fetched range) are further apart than the gap factor times
+ * the interval, the data has a gap. Gaps are part of the fetched ranges,
+ * since fetching them again would not return anything, but they are
+ * reported so that they can be shown.
+ */
+public class CoverageIndex {
+
+	private static final Logger log = Logger.getLogger(CoverageIndex.class);
+
+	/**
+	 * Samples further apart than this many intervals are a gap by default
+	 */
+	public static final double DEFAULT_GAP_FACTOR = 2.0;
+
+	private final Map<ObservationKey, Coverage> coverage;
+
+	private double gapFactor;
+
+	/**
+	 * Constructor
+	 *
+	 */
+	public CoverageIndex() {
+		coverage = new HashMap<ObservationKey, Coverage>();
+		gapFactor = DEFAULT_GAP_FACTOR;
+	}
+
+	/**
+	 * Sets how many sampling intervals apart samples are when there
+	 * is a gap between them
+	 *
+	 * @param gapFactor
+	 */
+	public synchronized void setGapFactor(double gapFactor) {
+		if (gapFactor < 1)
+			throw new IllegalArgumentException("Invalid gap factor: " + gapFactor);
+		this.gapFactor = gapFactor;
+	}
+
+	/**
+	 * Records that the given range has been fetched, without looking
+	 * for gaps
+	 *
+	 * @param key
+	 * @param range
+	 */
+	public synchronized void addCoverage(ObservationKey key, TimeRange range) {
+		get(key, true).covered.add(range.getStart(), range.getEnd());
+	}
+
+	/**
+	 * Records that the given range has been fetched, and the gaps of
+	 * the fetched data
+	 *
+	 * @param key
+	 * @param range
+	 * @param data the fetched data
+	 * @param timeIndex the index of the time stamp field
+	 * @param interval the nominal sampling interval, in minutes, or
+	 * 0 if it is unknown
+	 */
+	public synchronized void addCoverage(ObservationKey key, TimeRange range,
+			SensorData data, int timeIndex, double interval)
+	{
+		Coverage entry = get(key, true);
+		long start = range.getStart();
+		long end = range.getEnd();
+		entry.covered.add(start, end);
+
+		// the new data decides the gaps of its range
+		entry.gaps.remove(start, end);
+
+		long[] times = new long[16];
+		int n = 0;
+		DataCursor cursor = data.cursor();
+		while (cursor.next()) {
+			long time = cursor.getEpochMillis(timeIndex);
+			if (time == TimeUtils.NO_TIME || time < start || time >= end)
+				continue;
+			if (n == times.length)
+				times = Arrays.copyOf(times, n * 2);
+			times[n++] = time;
+		}
+		Arrays.sort(times, 0, n);
+
+		if (n == 0) {
+			entry.gaps.add(start, end);
+			return;
+		}
+		if (interval <= 0)
+			return;
+
+		long threshold = (long) (gapFactor * interval * 60 * 1000);
+		long previous = start;
+		for (int i = 0; i < n; i++) {
+			if (times[i] - previous > threshold)
+				entry.gaps.add(previous, times[i]);
+			previous = times[i];
+		}
+		if (end - previous > threshold)
+			entry.gaps.add(previous, end);
+	}
+
+	/**
+	 * Records the data fetched for the given request
+	 *
+	 * @param service
+	 * @param request
+	 * @param data
+	 * @param timeIndex the index of the time stamp field
+	 */
+	public void addCoverage(String service, GetObservationRequest request,
+			SensorData data, int timeIndex)
+	{
+		List<TimeInterval> intervals = request.getTimeIntervals();
+		if (intervals.isEmpty()) {
+			log.warn("The request has no time interval, coverage not recorded");
+			return;
+		}
+		double interval = request.getSensorOffering() != null ?
+				request.getSensorOffering().getInterval() : 0;
+		// NOTE: requests only use the first time interval
+		addCoverage(ObservationKey.of(service, request),
+				TimeRange.fromInterval(intervals.get(0)), data, timeIndex,
+				interval);
+	}
+
+	/**
+	 * Returns the parts of the given range that have not been fetched
+	 *
+	 * @param key
+	 * @param range
+	 * @return
+	 */
+	public synchronized List<TimeRange> getMissing(ObservationKey key,
+			TimeRange range)
+	{
+		Coverage entry = get(key, false);
+		if (entry == null) {
+			List<TimeRange> missing = new ArrayList<TimeRange>();
+			if (range.getLength() > 0)
+				missing.add(range);
+			return missing;
+		}
+		return entry.covered.subtract(range.getStart(), range.getEnd());
+	}
+
+	/**
+	 * Returns the gaps of the fetched data in the given range
+	 *
+	 * @param key
+	 * @param range
+	 * @return
+	 */
+	public synchronized List<TimeRange> getGaps(ObservationKey key,
+			TimeRange range)
+	{
+		Coverage entry = get(key, false);
+		if (entry == null)
+			return new ArrayList<TimeRange>();
+		return entry.gaps.intersect(range.getStart(), range.getEnd());
+	}
+
+	/**
+	 * Returns true if all of the given range has been fetched
+	 *
+	 * @param key
+	 * @param range
+	 * @return
+	 */
+	public synchronized boolean isCovered(ObservationKey key, TimeRange range) {
+		Coverage entry = get(key, false);
+		if (entry == null)
+			return range.getLength() == 0;
+		return entry.covered.contains(range.getStart(), range.getEnd());
+	}
+
+	/**
+	 * Returns the fetched ranges
+	 *
+	 * @param key
+	 * @return
+	 */
+	public synchronized List<TimeRange> getCoverage(ObservationKey key) {
+		Coverage entry = get(key, false);
+		if (entry == null)
+			return new ArrayList<TimeRange>();
+		return entry.covered.getRanges();
+	}
+
+	/**
+	 * Forgets what has been fetched in the given range, e.g. when the
+	 * cached data of the range is evicted
+	 *
+	 * @param key
+	 * @param range
+	 */
+	public synchronized void removeCoverage(ObservationKey key, TimeRange range) {
+		Coverage entry = get(key, false);
+		if (entry == null)
+			return;
+		entry.covered.remove(range.getStart(), range.getEnd());
+		entry.gaps.remove(range.getStart(), range.getEnd());
+		if (entry.covered.size() == 0)
+			coverage.remove(key);
+	}
+
+	/**
+	 * Forgets what has been fetched
+	 *
+	 * @param key
+	 */
+	public synchronized void clear(ObservationKey key) {
+		coverage.remove(key);
+	}
+
+	/**
+	 * Forgets everything
+	 *
+	 */
+	public synchronized void clear() {
+		coverage.clear();
+	}
+
+	private Coverage get(ObservationKey key, boolean create) {
+		Coverage entry = coverage.get(key);
+		if (entry == null && create) {
+			entry = new Coverage();
+			coverage.put(key, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * The fetched ranges and the gaps of one key
+	 */
+	private static class Coverage {
+		final RangeSet covered = new RangeSet();
+		final RangeSet gaps = new RangeSet();
+	}
+
+	/**
+	 * Singleton holder
+	 *
+	 */
+	private static class SingletonHolder {
+		public static final CoverageIndex INSTANCE = new CoverageIndex();
+	}
+
+	public static CoverageIndex getInstance() {
+		return SingletonHolder.INSTANCE;
+	}
+
+}
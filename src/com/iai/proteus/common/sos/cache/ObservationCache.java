@@ -0,0 +1,528 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.iai.proteus.common.TimeUtils;
+import com.iai.proteus.common.sos.data.CSVData;
+import com.iai.proteus.common.sos.data.DataCursor;
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.FieldType;
+import com.iai.proteus.common.sos.data.SensorData;
+
+/**
+ * Singleton for caching fetched observations by time range
+ *
+ * Observations are cached per {@link ObservationKey} as segments, each
+ * holding the rows of one fetched time range ordered by time. Segments of
+ * a key never overlap (newer data replaces the overlapping part of older
+ * segments) and are kept in a tree map by start time, so a lookup finds
+ * the segments overlapping a range in logarithmic time. A lookup returns
+ * the cached rows of the range together with the parts of the range that
+ * are not cached, so that only those need to be fetched.
+ *
+ * The cache is bounded by a memory budget (an estimate of the size of
+ * the cached Strings); when it is exceeded, the least recently used
+ * segments are evicted.
+ */
+public class ObservationCache {
+
+	private static final Logger log = Logger.getLogger(ObservationCache.class);
+
+	/**
+	 * The memory budget by default, in bytes
+	 */
+	public static final long DEFAULT_BUDGET = 64L << 20;
+
+	private final Map<ObservationKey, Entry> entries;
+
+	// all segments, in least recently used order
+	private final LinkedHashMap<Segment, Segment> lru;
+
+	private long budget;
+	private long size;
+
+	/**
+	 * Constructor
+	 *
+	 */
+	public ObservationCache() {
+		this(DEFAULT_BUDGET);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param budget the memory budget, in bytes
+	 */
+	public ObservationCache(long budget) {
+		entries = new HashMap<ObservationKey, Entry>();
+		lru = new LinkedHashMap<Segment, Segment>(16, 0.75f, true);
+		this.budget = budget;
+		this.size = 0;
+	}
+
+	/**
+	 * Sets the memory budget, evicting segments if needed
+	 *
+	 * @param budget in bytes
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * Returns the (estimated) size of the cached observations, in bytes
+	 *
+	 * @return
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Caches the observations fetched for the given range, replacing
+	 * cached observations of the range
+	 *
+	 * Rows outside the range, and rows without a valid time stamp, are not
+	 * cached. If the fields differ from the fields of the observations
+	 * already cached for the key, the cached observations are dropped.
+	 *
+	 * @param key
+	 * @param range
+	 * @param data
+	 * @param timestamp the field with the time stamps, or null to use the
+	 * first time stamp field of the data
+	 */
+	public synchronized void put(ObservationKey key, TimeRange range,
+			SensorData data, Field timestamp)
+	{
+		List<Field> fields = data.getFields();
+		int timeIndex = -1;
+		if (timestamp == null) {
+			List<Field> times = data.getFields(FieldType.TIMESTAMP);
+			if (!times.isEmpty())
+				timestamp = times.get(0);
+		}
+		if (timestamp != null)
+			timeIndex = fields.indexOf(timestamp);
+		if (timeIndex == -1) {
+			log.warn("No time stamp field, observations not cached");
+			return;
+		}
+
+		Entry entry = entries.get(key);
+		if (entry != null && !entry.fields.equals(fields)) {
+			log.info("The fields of the observations changed, dropping " +
+					"cached observations of " + key);
+			clear(key);
+			entry = null;
+		}
+		if (entry == null) {
+			entry = new Entry(key, new ArrayList<Field>(fields));
+			entries.put(key, entry);
+		}
+
+		// copy the rows of the range, ordered by time
+		long start = range.getStart();
+		long end = range.getEnd();
+		int columns = fields.size();
+		List<Row> rows = new ArrayList<Row>();
+		DataCursor cursor = data.cursor();
+		while (cursor.next()) {
+			long time = cursor.getEpochMillis(timeIndex);
+			if (time == TimeUtils.NO_TIME || time < start || time >= end)
+				continue;
+			String[] values = new String[columns];
+			for (int i = 0; i < columns; i++)
+				values[i] = cursor.getString(i);
+			rows.add(new Row(time, values));
+		}
+		// stable, so rows with equal times keep their order
+		Collections.sort(rows, ROW_ORDER);
+
+		long[] times = new long[rows.size()];
+		List<String[]> values = new ArrayList<String[]>(rows.size());
+		for (int i = 0; i < times.length; i++) {
+			times[i] = rows.get(i).time;
+			values.add(rows.get(i).values);
+		}
+
+		cut(entry, start, end);
+		add(entry, new Segment(entry, range, times, values));
+		evict();
+	}
+
+	/**
+	 * Looks up the observations of the given range
+	 *
+	 * @param key
+	 * @param range
+	 * @return
+	 */
+	public synchronized CacheResult lookup(ObservationKey key, TimeRange range) {
+
+		long start = range.getStart();
+		long end = range.getEnd();
+
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			List<TimeRange> missing = new ArrayList<TimeRange>();
+			if (range.getLength() > 0)
+				missing.add(range);
+			return new CacheResult(null, missing);
+		}
+
+		List<String[]> rows = new ArrayList<String[]>();
+		List<TimeRange> missing = new ArrayList<TimeRange>();
+		long from = start;
+		for (Segment segment : overlapping(entry, start, end)) {
+			// mark as used
+			lru.get(segment);
+			if (segment.range.getStart() > from)
+				missing.add(new TimeRange(from, segment.range.getStart()));
+			from = Math.max(from, segment.range.getEnd());
+			int first = lowerBound(segment.times, start);
+			int last = lowerBound(segment.times, end);
+			rows.addAll(segment.rows.subList(first, last));
+		}
+		if (from < end)
+			missing.add(new TimeRange(from, end));
+
+		SensorData data = rows.isEmpty() && missing.size() == 1 &&
+				missing.get(0).equals(range) ? null :
+					CSVData.fromRows(entry.fields, rows);
+		return new CacheResult(data, missing);
+	}
+
+	/**
+	 * Drops the cached observations of the given key
+	 *
+	 * @param key
+	 */
+	public synchronized void clear(ObservationKey key) {
+		Entry entry = entries.remove(key);
+		if (entry == null)
+			return;
+		for (Segment segment : entry.segments.values()) {
+			lru.remove(segment);
+			size -= segment.bytes;
+		}
+	}
+
+	/**
+	 * Drops all cached observations
+	 *
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		lru.clear();
+		size = 0;
+	}
+
+	/**
+	 * Merges observations with the same fields into one data set ordered
+	 * by time, e.g. cached observations with the observations fetched for
+	 * the missing parts of a range
+	 *
+	 * @param parts
+	 * @param timestamp the field with the time stamps, or null to use the
+	 * first time stamp field
+	 * @return
+	 */
+	public static SensorData merge(List<SensorData> parts, Field timestamp) {
+		return merge(parts, null, timestamp);
+	}
+
+	/**
+	 * Merges observations with the same fields into one data set ordered
+	 * by time, keeping only the rows of the given range
+	 *
+	 * The parts may overlap at their boundaries, as the intervals the
+	 * missing parts of a range are fetched with include their ends: a
+	 * row of one part equal to a row of another part with the same time
+	 * is only kept once.
+	 *
+	 * @param parts
+	 * @param range the range of the rows to keep, or null to keep all
+	 * @param timestamp the field with the time stamps, or null to use the
+	 * first time stamp field
+	 * @return
+	 */
+	public static SensorData merge(List<SensorData> parts, TimeRange range,
+			Field timestamp)
+	{
+		if (parts.isEmpty())
+			return null;
+
+		List<Field> fields = parts.get(0).getFields();
+		if (timestamp == null) {
+			List<Field> times = parts.get(0).getFields(FieldType.TIMESTAMP);
+			if (!times.isEmpty())
+				timestamp = times.get(0);
+		}
+		int timeIndex = timestamp != null ? fields.indexOf(timestamp) : -1;
+
+		if (parts.size() == 1 && (range == null || timeIndex == -1))
+			return parts.get(0);
+
+		List<Row> rows = new ArrayList<Row>();
+		for (int part = 0; part < parts.size(); part++) {
+			DataCursor cursor = parts.get(part).cursor();
+			int columns = cursor.getColumnCount();
+			while (cursor.next()) {
+				long time = timeIndex != -1 ?
+						cursor.getEpochMillis(timeIndex) : TimeUtils.NO_TIME;
+				if (range != null && time != TimeUtils.NO_TIME &&
+						(time < range.getStart() || time >= range.getEnd()))
+					continue;
+				String[] values = new String[columns];
+				for (int i = 0; i < columns; i++)
+					values[i] = cursor.getString(i);
+				rows.add(new Row(time, values, part));
+			}
+		}
+		if (timeIndex == -1)
+			return CSVData.fromRows(fields, values(rows));
+
+		Collections.sort(rows, ROW_ORDER);
+
+		// drop rows of one part repeated in another part
+		List<Row> merged = new ArrayList<Row>(rows.size());
+		int group = 0;
+		for (Row row : rows) {
+			if (!merged.isEmpty() &&
+					merged.get(merged.size() - 1).time != row.time)
+				group = merged.size();
+			if (!isRepeated(row, merged, group))
+				merged.add(row);
+		}
+		return CSVData.fromRows(fields, values(merged));
+	}
+
+	/*
+	 * True if a row of another part with the same time and values is
+	 * among the merged rows from the given index on
+	 */
+	private static boolean isRepeated(Row row, List<Row> merged, int from) {
+		for (int i = from; i < merged.size(); i++) {
+			Row other = merged.get(i);
+			if (other.part != row.part && other.time == row.time &&
+					Arrays.equals(other.values, row.values))
+				return true;
+		}
+		return false;
+	}
+
+	private static List<String[]> values(List<Row> rows) {
+		List<String[]> values = new ArrayList<String[]>(rows.size());
+		for (Row row : rows)
+			values.add(row.values);
+		return values;
+	}
+
+	/**
+	 * Returns the segments of the entry overlapping the range, by time
+	 *
+	 * @param entry
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	private List<Segment> overlapping(Entry entry, long start, long end) {
+		List<Segment> result = new ArrayList<Segment>();
+		Map.Entry<Long, Segment> before = entry.segments.lowerEntry(start);
+		if (before != null && before.getValue().range.getEnd() > start)
+			result.add(before.getValue());
+		result.addAll(entry.segments.subMap(start, true, end, false).values());
+		return result;
+	}
+
+	/**
+	 * Removes the given range from the segments of the entry, keeping
+	 * the parts of the segments outside the range
+	 *
+	 * @param entry
+	 * @param start
+	 * @param end
+	 */
+	private void cut(Entry entry, long start, long end) {
+		for (Segment segment : overlapping(entry, start, end)) {
+			remove(segment);
+			long segmentStart = segment.range.getStart();
+			long segmentEnd = segment.range.getEnd();
+			if (segmentStart < start)
+				add(entry, segment.slice(segmentStart, start));
+			if (segmentEnd > end)
+				add(entry, segment.slice(end, segmentEnd));
+		}
+	}
+
+	private void add(Entry entry, Segment segment) {
+		entry.segments.put(segment.range.getStart(), segment);
+		lru.put(segment, segment);
+		size += segment.bytes;
+	}
+
+	private void remove(Segment segment) {
+		segment.entry.segments.remove(segment.range.getStart());
+		lru.remove(segment);
+		size -= segment.bytes;
+		if (segment.entry.segments.isEmpty())
+			entries.remove(segment.entry.key);
+	}
+
+	/**
+	 * Evicts the least recently used segments while over budget
+	 */
+	private void evict() {
+		Iterator<Segment> it = lru.keySet().iterator();
+		while (size > budget && it.hasNext()) {
+			Segment segment = it.next();
+			it.remove();
+			segment.entry.segments.remove(segment.range.getStart());
+			size -= segment.bytes;
+			if (segment.entry.segments.isEmpty())
+				entries.remove(segment.entry.key);
+			log.info("Evicted cached observations " + segment.range +
+					" of " + segment.entry.key);
+		}
+	}
+
+	/*
+	 * The first index with a time at or after the given time
+	 */
+	private static int lowerBound(long[] times, long time) {
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * The cached observations of one key
+	 */
+	private static class Entry {
+
+		final ObservationKey key;
+		final List<Field> fields;
+		final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+
+		Entry(ObservationKey key, List<Field> fields) {
+			this.key = key;
+			this.fields = fields;
+		}
+	}
+
+	/**
+	 * The rows of one time range, ordered by time
+	 */
+	private static class Segment {
+
+		final Entry entry;
+		final TimeRange range;
+		final long[] times;
+		final List<String[]> rows;
+		final long bytes;
+
+		Segment(Entry entry, TimeRange range, long[] times, List<String[]> rows) {
+			this.entry = entry;
+			this.range = range;
+			this.times = times;
+			this.rows = rows;
+			this.bytes = estimate(times, rows);
+		}
+
+		/**
+		 * Returns the part of this segment in the given range
+		 *
+		 * @param start
+		 * @param end
+		 * @return
+		 */
+		Segment slice(long start, long end) {
+			int first = lowerBound(times, start);
+			int last = lowerBound(times, end);
+			return new Segment(entry, new TimeRange(start, end),
+					Arrays.copyOfRange(times, first, last),
+					new ArrayList<String[]>(rows.subList(first, last)));
+		}
+
+		/*
+		 * An estimate of the memory used by the rows
+		 */
+		private static long estimate(long[] times, List<String[]> rows) {
+			long bytes = 8L * times.length;
+			for (String[] row : rows) {
+				bytes += 16 + 4L * row.length;
+				for (String value : row) {
+					if (value != null)
+						bytes += 40 + 2L * value.length();
+				}
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * A row and its time, while sorting
+	 */
+	private static class Row {
+
+		final long time;
+		final String[] values;
+		final int part;
+
+		Row(long time, String[] values) {
+			this(time, values, 0);
+		}
+
+		Row(long time, String[] values, int part) {
+			this.time = time;
+			this.values = values;
+			this.part = part;
+		}
+	}
+
+	private static final Comparator<Row> ROW_ORDER = new Comparator<Row>() {
+		@Override
+		public int compare(Row a, Row b) {
+			return Long.compare(a.time, b.time);
+		}
+	};
+
+	/**
+	 * Singleton holder
+	 *
+	 */
+	private static class SingletonHolder {
+		public static final ObservationCache INSTANCE = new ObservationCache();
+	}
+
+	public static ObservationCache getInstance() {
+		return SingletonHolder.INSTANCE;
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.cache;
+
+import java.io.Serializable;
+
+import com.iai.proteus.common.sos.model.GetObservationRequest;
+import com.iai.proteus.common.sos.model.ObservationRequest;
+import com.iai.proteus.common.sos.model.SensorOffering;
+
+/**
+ * Identifies the observations of one observed property of an offering, 
+ * from one service in one response format 
+ * 
+ * The offering is identified by its identifier and its name, since the 
+ * name is what is sent to the service. 
+ */
+public final class ObservationKey implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final String service;
+	private final String offering;
+	private final String offeringName;
+	private final String property;
+	private final String format;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param service the service URL 
+	 * @param offering the offering identifier 
+	 * @param property the observed property 
+	 * @param format the response format 
+	 */
+	public ObservationKey(String service, String offering, String property, 
+			String format) 
+	{
+		this(service, offering, null, property, format);
+	}
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param service the service URL 
+	 * @param offering the offering identifier 
+	 * @param offeringName the offering name 
+	 * @param property the observed property 
+	 * @param format the response format 
+	 */
+	public ObservationKey(String service, String offering, 
+			String offeringName, String property, String format) 
+	{
+		this.service = service;
+		this.offering = offering;
+		this.offeringName = offeringName;
+		this.property = property;
+		this.format = format;
+	}
+	
+	/**
+	 * Returns the key of the observations of the given request 
+	 * 
+	 * @param service
+	 * @param request
+	 * @return
+	 */
+	public static ObservationKey of(String service, 
+			GetObservationRequest request) 
+	{
+		SensorOffering offering = request.getSensorOffering();
+		return new ObservationKey(service, 
+				offering != null ? offering.getGmlId() : null, 
+				offering != null ? offering.getName() : null, 
+				request.getObservedProperty(), request.getResponseFormat());
+	}
+
+	/**
+	 * Returns the key of the observations of the given request 
+	 * 
+	 * @param service
+	 * @param request
+	 * @return
+	 */
+	public static ObservationKey of(String service, 
+			ObservationRequest request) 
+	{
+		return new ObservationKey(service, request.getOfferingId(), 
+				request.getOfferingName(), request.getObservedProperty(), 
+				request.getResponseFormat());
+	}
+
+	/**
+	 * @return the service
+	 */
+	public String getService() {
+		return service;
+	}
+
+	/**
+	 * @return the offering
+	 */
+	public String getOffering() {
+		return offering;
+	}
+
+	/**
+	 * @return the offering name
+	 */
+	public String getOfferingName() {
+		return offeringName;
+	}
+	
+	/**
+	 * @return the property
+	 */
+	public String getProperty() {
+		return property;
+	}
+
+	/**
+	 * @return the format
+	 */
+	public String getFormat() {
+		return format;
+	}
+	
+	@Override
+	public String toString() {
+		return service + " " + offering + " (" + offeringName + ") " + 
+				property + " " + format;
+	}
+	
+	/**
+	 * Returns a string that is equal for keys that are equal, and only 
+	 * for those (the values are length prefixed) 
+	 * 
+	 * @return
+	 */
+	String toCanonicalString() {
+		StringBuilder sb = new StringBuilder();
+		append(sb, service);
+		append(sb, offering);
+		append(sb, offeringName);
+		append(sb, property);
+		append(sb, format);
+		return sb.toString();
+	}
+	
+	private static void append(StringBuilder sb, String value) {
+		if (value == null)
+			sb.append('-');
+		else
+			sb.append(value.length()).append(':').append(value);
+		sb.append('|');
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((format == null) ? 0 : format.hashCode());
+		result = prime * result
+				+ ((offering == null) ? 0 : offering.hashCode());
+		result = prime * result
+				+ ((offeringName == null) ? 0 : offeringName.hashCode());
+		result = prime * result
+				+ ((property == null) ? 0 : property.hashCode());
+		result = prime * result + ((service == null) ? 0 : service.hashCode());
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ObservationKey other = (ObservationKey) obj;
+		if (format == null) {
+			if (other.format != null)
+				return false;
+		} else if (!format.equals(other.format))
+			return false;
+		if (offering == null) {
+			if (other.offering != null)
+				return false;
+		} else if (!offering.equals(other.offering))
+			return false;
+		if (offeringName == null) {
+			if (other.offeringName != null)
+				return false;
+		} else if (!offeringName.equals(other.offeringName))
+			return false;
+		if (property == null) {
+			if (other.property != null)
+				return false;
+		} else if (!property.equals(other.property))
+			return false;
+		if (service == null) {
+			if (other.service != null)
+				return false;
+		} else if (!service.equals(other.service))
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,761 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.log4j.Logger;
+
+import com.iai.proteus.common.TimeUtils;
+import com.iai.proteus.common.sos.data.CSVData;
+import com.iai.proteus.common.sos.data.DataCursor;
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.FieldType;
+import com.iai.proteus.common.sos.data.SensorData;
+
+/**
+ * A local, append-only store of fetched observations on disk, so that
+ * historical observations do not have to be fetched again
+ *
+ * Observations are partitioned by {@link ObservationKey} (one directory
+ * per key) and by year (one file per year). Each stored time range is
+ * appended to the file of its year as a segment: a header with the fields
+ * and a sparse time index, followed by blocks of rows that are compressed
+ * separately. Lookups read the headers once, and then only map and
+ * decompress the blocks whose times overlap the requested range. A range
+ * that is stored again replaces the older rows of the range, since later
+ * segments take precedence over earlier ones.
+ *
+ * Only settled observations are stored: the part of a range that is
+ * more recent than the settling age (one day by default) is not, since
+ * observations of recent times may still arrive late, and a stored range
+ * is never fetched again.
+ *
+ * A segment is written for each year of a stored range, also for a year
+ * without observations: the segment then has no blocks, and records
+ * that the range was fetched and is empty, so that it is not fetched
+ * again.
+ *
+ * Segment layout: magic, version, length of the rest of the segment,
+ * range start and end, fields (name, definition, unit, time flag),
+ * number of blocks, per block its first and last time, rows, offset and
+ * length, and then the deflated blocks. Each row of a block is its time
+ * followed by the length prefixed UTF-8 bytes of each value (-1 if null).
+ */
+public class ObservationStore {
+
+	private static final Logger log = Logger.getLogger(ObservationStore.class);
+
+	private static final int MAGIC = 0x50534547; // "PSEG"
+	private static final int VERSION = 1;
+
+	/*
+	 * Rows per compressed block, i.e. per entry of the sparse index
+	 */
+	private static final int BLOCK_ROWS = 256;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	/**
+	 * The settling age by default, in milliseconds
+	 */
+	public static final long DEFAULT_SETTLING_AGE = 24L * 60 * 60 * 1000;
+
+	private final File root;
+
+	// observations more recent than this (in milliseconds) are not stored
+	private volatile long settlingAge;
+
+	/*
+	 * Reused while reading blocks
+	 */
+	private byte[] compressed = new byte[1 << 12];
+	private final byte[] inflated = new byte[1 << 16];
+	private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+
+	// the segments of each key and year, read from the files when needed
+	private final Map<ObservationKey, Map<Integer, Partition>> partitions;
+
+	/**
+	 * Constructor
+	 *
+	 * @param root the directory of the store
+	 */
+	public ObservationStore(File root) {
+		this.root = root;
+		this.partitions = new HashMap<ObservationKey, Map<Integer, Partition>>();
+		this.settlingAge = DEFAULT_SETTLING_AGE;
+	}
+
+	/**
+	 * Sets the settling age: observations more recent than this are not
+	 * stored
+	 *
+	 * @param millis
+	 */
+	public void setSettlingAge(long millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Invalid age: " + millis);
+		settlingAge = millis;
+	}
+
+	/**
+	 * Returns the settling age, in milliseconds
+	 *
+	 * @return
+	 */
+	public long getSettlingAge() {
+		return settlingAge;
+	}
+
+	/**
+	 * Returns the directory of the store
+	 *
+	 * @return
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	/**
+	 * Stores the observations fetched for the given range
+	 *
+	 * Rows outside the range, and rows without a valid time stamp, are
+	 * not stored; neither is the part of the range that is more recent
+	 * than the settling age.
+	 *
+	 * @param key
+	 * @param range
+	 * @param data
+	 * @param timestamp the field with the time stamps, or null to use the
+	 * first time stamp field of the data
+	 * @return true if (settled) observations were stored
+	 */
+	public synchronized boolean append(ObservationKey key, TimeRange range,
+			SensorData data, Field timestamp)
+	{
+		// only the settled part
+		long settled = System.currentTimeMillis() - settlingAge;
+		if (range.getEnd() > settled) {
+			if (range.getStart() >= settled) {
+				log.debug("Not storing recent observations " + range +
+						" of " + key);
+				return false;
+			}
+			range = new TimeRange(range.getStart(), settled);
+		}
+		if (range.getLength() == 0)
+			return false;
+
+		List<Field> fields = data.getFields();
+		if (timestamp == null) {
+			List<Field> times = data.getFields(FieldType.TIMESTAMP);
+			if (!times.isEmpty())
+				timestamp = times.get(0);
+		}
+		int timeIndex = timestamp != null ? fields.indexOf(timestamp) : -1;
+		if (timeIndex == -1) {
+			log.warn("No time stamp field, observations not stored");
+			return false;
+		}
+
+		// the rows of the range, ordered by time
+		int columns = fields.size();
+		List<Row> rows = new ArrayList<Row>();
+		DataCursor cursor = data.cursor();
+		while (cursor.next()) {
+			long time = cursor.getEpochMillis(timeIndex);
+			if (time == TimeUtils.NO_TIME || time < range.getStart() ||
+					time >= range.getEnd())
+				continue;
+			String[] values = new String[columns];
+			for (int i = 0; i < columns; i++)
+				values[i] = cursor.getString(i);
+			rows.add(new Row(time, values));
+		}
+		Collections.sort(rows, ROW_ORDER);
+
+		try {
+			File directory = getDirectory(key, true);
+
+			// one segment per year of the range
+			int first = 0;
+			long start = range.getStart();
+			while (start < range.getEnd()) {
+				int year = yearOf(start);
+				long end = Math.min(range.getEnd(), startOfYear(year + 1));
+				int last = first;
+				while (last < rows.size() && rows.get(last).time < end)
+					last++;
+
+				// a year without rows still gets a segment, as a marker
+				// of its coverage
+				Partition partition = getPartition(key, year, directory);
+				appendSegment(partition, new TimeRange(start, end), fields,
+						rows.subList(first, last));
+
+				first = last;
+				start = end;
+			}
+			return true;
+
+		} catch (IOException e) {
+			log.error("Could not store observations of " + key + ": " +
+					e.getMessage());
+		}
+
+		// default
+		return false;
+	}
+
+	/**
+	 * Looks up the stored observations of the given range
+	 *
+	 * @param key
+	 * @param range
+	 * @return
+	 */
+	public synchronized CacheResult lookup(ObservationKey key, TimeRange range) {
+
+		long start = range.getStart();
+		long end = range.getEnd();
+
+		RangeSet found = new RangeSet();
+		List<Field> fields = null;
+		List<Row> rows = new ArrayList<Row>();
+
+		try {
+			File directory = getDirectory(key, false);
+			if (directory != null && range.getLength() > 0) {
+				int lastYear = yearOf(end - 1);
+				for (int year = yearOf(start); year <= lastYear; year++) {
+					Partition partition = getPartition(key, year, directory);
+					// later segments take precedence
+					for (int i = partition.segments.size() - 1; i >= 0; i--) {
+						Segment segment = partition.segments.get(i);
+						if (fields == null)
+							fields = segment.fields;
+						else if (!fields.equals(segment.fields))
+							continue;
+						long from = Math.max(start, segment.range.getStart());
+						long to = Math.min(end, segment.range.getEnd());
+						for (TimeRange part : found.subtract(from, to))
+							read(partition, segment, part, rows);
+						found.add(from, to);
+					}
+				}
+			}
+		} catch (IOException e) {
+			log.error("Could not read stored observations of " + key + ": " +
+					e.getMessage());
+			found = new RangeSet();
+			rows.clear();
+		}
+
+		List<TimeRange> missing = found.subtract(start, end);
+		if (found.size() == 0)
+			return new CacheResult(null, missing);
+
+		Collections.sort(rows, ROW_ORDER);
+		List<String[]> values = new ArrayList<String[]>(rows.size());
+		for (Row row : rows)
+			values.add(row.values);
+		return new CacheResult(CSVData.fromRows(fields, values), missing);
+	}
+
+	/**
+	 * Deletes the stored observations of the given key
+	 *
+	 * @param key
+	 */
+	public synchronized void delete(ObservationKey key) {
+		partitions.remove(key);
+		try {
+			File directory = getDirectory(key, false);
+			if (directory != null) {
+				File[] files = directory.listFiles();
+				if (files != null) {
+					for (File file : files)
+						file.delete();
+				}
+				directory.delete();
+			}
+		} catch (IOException e) {
+			log.error("Could not delete stored observations of " + key +
+					": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Appends a segment to the file of the partition
+	 *
+	 * @param partition
+	 * @param range
+	 * @param fields
+	 * @param rows
+	 * @throws IOException
+	 */
+	private void appendSegment(Partition partition, TimeRange range,
+			List<Field> fields, List<Row> rows) throws IOException
+	{
+		int n = (rows.size() + BLOCK_ROWS - 1) / BLOCK_ROWS;
+		long[] firstTimes = new long[n];
+		long[] lastTimes = new long[n];
+		int[] counts = new int[n];
+		long[] offsets = new long[n];
+		int[] lengths = new int[n];
+
+		/*
+		 * Blocks
+		 */
+		ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+		ByteArrayOutputStream block = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater();
+		byte[] buffer = new byte[1 << 16];
+		try {
+			for (int b = 0; b < n; b++) {
+				List<Row> blockRows = rows.subList(b * BLOCK_ROWS,
+						Math.min(rows.size(), (b + 1) * BLOCK_ROWS));
+				block.reset();
+				DataOutputStream out = new DataOutputStream(block);
+				for (Row row : blockRows) {
+					out.writeLong(row.time);
+					for (String value : row.values) {
+						if (value == null) {
+							out.writeInt(-1);
+						} else {
+							byte[] bytes = value.getBytes(UTF8);
+							out.writeInt(bytes.length);
+							out.write(bytes);
+						}
+					}
+				}
+				out.flush();
+
+				firstTimes[b] = blockRows.get(0).time;
+				lastTimes[b] = blockRows.get(blockRows.size() - 1).time;
+				counts[b] = blockRows.size();
+				offsets[b] = blocks.size();
+
+				deflater.reset();
+				deflater.setInput(block.toByteArray());
+				deflater.finish();
+				while (!deflater.finished()) {
+					int length = deflater.deflate(buffer);
+					blocks.write(buffer, 0, length);
+				}
+				lengths[b] = (int) (blocks.size() - offsets[b]);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		/*
+		 * Header
+		 */
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeLong(range.getStart());
+		out.writeLong(range.getEnd());
+		out.writeInt(fields.size());
+		for (Field field : fields) {
+			out.writeUTF(field.getName());
+			writeNullable(out, field.getDefinition());
+			writeNullable(out, field.getUom());
+			out.writeBoolean(field.isTimeField());
+		}
+		out.writeInt(n);
+		for (int b = 0; b < n; b++) {
+			out.writeLong(firstTimes[b]);
+			out.writeLong(lastTimes[b]);
+			out.writeInt(counts[b]);
+			out.writeLong(offsets[b]);
+			out.writeInt(lengths[b]);
+		}
+		out.flush();
+
+		ByteArrayOutputStream segment = new ByteArrayOutputStream();
+		out = new DataOutputStream(segment);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(header.size() + blocks.size());
+		header.writeTo(out);
+		blocks.writeTo(out);
+		out.flush();
+
+		long offset = partition.end;
+		if (partition.file.length() > offset) {
+			// an incomplete segment of an interrupted append
+			log.warn("Cutting off an incomplete segment of " + partition.file);
+			RandomAccessFile incomplete =
+					new RandomAccessFile(partition.file, "rw");
+			try {
+				incomplete.setLength(offset);
+			} finally {
+				incomplete.close();
+			}
+		}
+		FileOutputStream file = new FileOutputStream(partition.file, true);
+		try {
+			segment.writeTo(file);
+			file.getChannel().force(false);
+		} finally {
+			file.close();
+		}
+
+		// the segment as it would be read from the file
+		Segment appended = new Segment();
+		appended.range = range;
+		appended.fields = new ArrayList<Field>(fields);
+		appended.firstTimes = firstTimes;
+		appended.lastTimes = lastTimes;
+		appended.counts = counts;
+		appended.offsets = offsets;
+		appended.lengths = lengths;
+		appended.dataOffset = offset + 16 + header.size();
+		partition.segments.add(appended);
+		partition.end = offset + segment.size();
+	}
+
+	/**
+	 * Reads the rows of the segment in the given range
+	 *
+	 * The blocks overlapping the range (by the sparse index) are mapped
+	 * at once, and inflated one at a time into reused buffers.
+	 *
+	 * @param partition
+	 * @param segment
+	 * @param range
+	 * @param rows
+	 * @throws IOException
+	 */
+	private void read(Partition partition, Segment segment, TimeRange range,
+			List<Row> rows) throws IOException
+	{
+		// the sparse index
+		int first = -1;
+		int last = -1;
+		for (int b = 0; b < segment.counts.length; b++) {
+			if (segment.lastTimes[b] < range.getStart() ||
+					segment.firstTimes[b] >= range.getEnd())
+				continue;
+			if (first == -1)
+				first = b;
+			last = b;
+		}
+		if (first == -1)
+			return;
+
+		int columns = segment.fields.size();
+		RandomAccessFile file = new RandomAccessFile(partition.file, "r");
+		Inflater inflater = new Inflater();
+		try {
+			long base = segment.offsets[first];
+			MappedByteBuffer mapped = file.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, segment.dataOffset + base,
+					segment.offsets[last] + segment.lengths[last] - base);
+
+			for (int b = first; b <= last; b++) {
+				if (segment.lastTimes[b] < range.getStart() ||
+						segment.firstTimes[b] >= range.getEnd())
+					continue;
+
+				int length = segment.lengths[b];
+				if (compressed.length < length)
+					compressed = new byte[Math.max(length, compressed.length * 2)];
+				mapped.position((int) (segment.offsets[b] - base));
+				mapped.get(compressed, 0, length);
+
+				inflater.reset();
+				inflater.setInput(compressed, 0, length);
+				block.reset();
+				while (!inflater.finished()) {
+					int n = inflater.inflate(inflated);
+					if (n == 0 && inflater.needsInput())
+						throw new IOException("Truncated block");
+					block.write(inflated, 0, n);
+				}
+
+				DataInputStream in = new DataInputStream(
+						new ByteArrayInputStream(block.toByteArray()));
+				for (int r = 0; r < segment.counts[b]; r++) {
+					long time = in.readLong();
+					String[] values = new String[columns];
+					for (int c = 0; c < columns; c++) {
+						int size = in.readInt();
+						if (size >= 0) {
+							byte[] bytes = new byte[size];
+							in.readFully(bytes);
+							values[c] = new String(bytes, UTF8);
+						}
+					}
+					if (time >= range.getStart() && time < range.getEnd())
+						rows.add(new Row(time, values));
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt block: " + e.getMessage());
+		} finally {
+			inflater.end();
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the partition of the given year, reading its segment
+	 * headers from the file if needed
+	 *
+	 * @param key
+	 * @param year
+	 * @param directory
+	 * @return
+	 * @throws IOException
+	 */
+	private Partition getPartition(ObservationKey key, int year,
+			File directory) throws IOException
+	{
+		Map<Integer, Partition> years = partitions.get(key);
+		if (years == null) {
+			years = new TreeMap<Integer, Partition>();
+			partitions.put(key, years);
+		}
+		Partition partition = years.get(year);
+		if (partition == null) {
+			partition = new Partition(new File(directory, year + ".seg"));
+			if (partition.file.exists())
+				readHeaders(partition);
+			years.put(year, partition);
+		}
+		return partition;
+	}
+
+	/**
+	 * Reads the segment headers of the file of the partition, skipping
+	 * the blocks
+	 *
+	 * Segments of other versions of the format are skipped. An incomplete
+	 * segment at the end of the file (from an interrupted append) is
+	 * ignored, and cut off by the next append; nothing is written here.
+	 *
+	 * @param partition
+	 * @throws IOException if a segment header is corrupt
+	 */
+	private void readHeaders(Partition partition) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(partition.file, "r");
+		try {
+			long size = file.length();
+			long offset = 0;
+			while (offset + 16 <= size) {
+				file.seek(offset);
+				if (file.readInt() != MAGIC)
+					throw new IOException("Corrupt segment at offset " +
+							offset + " of " + partition.file);
+				int version = file.readInt();
+				long length = file.readLong();
+				if (length < 0)
+					throw new IOException("Corrupt segment at offset " +
+							offset + " of " + partition.file);
+				if (offset + 16 + length > size)
+					break;
+				if (version != VERSION) {
+					log.warn("Skipping a segment of version " + version +
+							" of " + partition.file);
+					offset += 16 + length;
+					continue;
+				}
+
+				Segment segment = new Segment();
+				long start = file.readLong();
+				long end = file.readLong();
+				segment.range = new TimeRange(start, end);
+				int columns = file.readInt();
+				segment.fields = new ArrayList<Field>(columns);
+				for (int c = 0; c < columns; c++) {
+					Field field = new Field(file.readUTF());
+					field.setDefinition(readNullable(file));
+					field.setUom(readNullable(file));
+					field.setTimeField(file.readBoolean());
+					segment.fields.add(field);
+				}
+				int n = file.readInt();
+				segment.firstTimes = new long[n];
+				segment.lastTimes = new long[n];
+				segment.counts = new int[n];
+				segment.offsets = new long[n];
+				segment.lengths = new int[n];
+				for (int b = 0; b < n; b++) {
+					segment.firstTimes[b] = file.readLong();
+					segment.lastTimes[b] = file.readLong();
+					segment.counts[b] = file.readInt();
+					segment.offsets[b] = file.readLong();
+					segment.lengths[b] = file.readInt();
+				}
+				segment.dataOffset = file.getFilePointer();
+				partition.segments.add(segment);
+
+				offset += 16 + length;
+			}
+			if (offset < size)
+				log.warn("Ignoring an incomplete segment at the end of " +
+						partition.file);
+			partition.end = offset;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the directory of the key, null if it does not exist and
+	 * should not be created
+	 *
+	 * @param key
+	 * @param create
+	 * @return
+	 * @throws IOException
+	 */
+	private File getDirectory(ObservationKey key, boolean create)
+			throws IOException
+	{
+		File directory = new File(root, digest(key.toCanonicalString()));
+		if (directory.isDirectory())
+			return directory;
+		if (!create)
+			return null;
+		if (!directory.mkdirs())
+			throw new IOException("Could not create " + directory);
+
+		// describes the key, for inspection
+		FileOutputStream out =
+				new FileOutputStream(new File(directory, "key.txt"));
+		try {
+			out.write((key.toString() + "\n").getBytes(UTF8));
+		} finally {
+			out.close();
+		}
+		return directory;
+	}
+
+	private static String digest(String str) throws IOException {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(
+					str.getBytes(UTF8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : hash)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static int yearOf(long time) {
+		Calendar calendar = Calendar.getInstance(UTC);
+		calendar.setTimeInMillis(time);
+		return calendar.get(Calendar.YEAR);
+	}
+
+	private static long startOfYear(int year) {
+		Calendar calendar = Calendar.getInstance(UTC);
+		calendar.clear();
+		calendar.set(year, Calendar.JANUARY, 1);
+		return calendar.getTimeInMillis();
+	}
+
+	private static void writeNullable(DataOutputStream out, String str)
+			throws IOException
+	{
+		out.writeBoolean(str != null);
+		if (str != null)
+			out.writeUTF(str);
+	}
+
+	private static String readNullable(RandomAccessFile in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * The segments of one file
+	 */
+	private static class Partition {
+
+		final File file;
+		final List<Segment> segments = new ArrayList<Segment>();
+
+		// the end of the last complete segment of the file
+		long end;
+
+		Partition(File file) {
+			this.file = file;
+		}
+	}
+
+	/**
+	 * The header of a segment: its range, fields and sparse index
+	 */
+	private static class Segment {
+
+		TimeRange range;
+		List<Field> fields;
+
+		// per block
+		long[] firstTimes;
+		long[] lastTimes;
+		int[] counts;
+		long[] offsets;
+		int[] lengths;
+
+		// the position of the first block in the file
+		long dataOffset;
+	}
+
+	/**
+	 * A row and its time, while sorting
+	 */
+	private static class Row {
+
+		final long time;
+		final String[] values;
+
+		Row(long time, String[] values) {
+			this.time = time;
+			this.values = values;
+		}
+	}
+
+	private static final Comparator<Row> ROW_ORDER = new Comparator<Row>() {
+		@Override
+		public int compare(Row a, Row b) {
+			return Long.compare(a.time, b.time);
+		}
+	};
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of disjoint time ranges, kept in a tree map from the start to 
+ * the end of each range, so that the ranges overlapping a query are 
+ * found in logarithmic time 
+ * 
+ * Overlapping and adjacent ranges are merged when added. 
+ */
+class RangeSet {
+	
+	private final TreeMap<Long, Long> ranges = new TreeMap<Long, Long>();
+	
+	/**
+	 * Adds a range 
+	 * 
+	 * @param start
+	 * @param end
+	 */
+	void add(long start, long end) {
+		if (end <= start)
+			return;
+		Map.Entry<Long, Long> before = ranges.floorEntry(start);
+		if (before != null && before.getValue() >= start) {
+			start = before.getKey();
+			end = Math.max(end, before.getValue());
+		}
+		// ranges starting inside the new range 
+		Map.Entry<Long, Long> next;
+		while ((next = ranges.ceilingEntry(start)) != null && 
+				next.getKey() <= end) 
+		{
+			end = Math.max(end, next.getValue());
+			ranges.remove(next.getKey());
+		}
+		ranges.put(start, end);
+	}
+	
+	/**
+	 * Removes a range 
+	 * 
+	 * @param start
+	 * @param end
+	 */
+	void remove(long start, long end) {
+		if (end <= start)
+			return;
+		Map.Entry<Long, Long> before = ranges.lowerEntry(start);
+		if (before != null && before.getValue() > start) {
+			ranges.put(before.getKey(), start);
+			if (before.getValue() > end)
+				ranges.put(end, before.getValue());
+		}
+		Map.Entry<Long, Long> next;
+		while ((next = ranges.ceilingEntry(start)) != null && 
+				next.getKey() < end) 
+		{
+			ranges.remove(next.getKey());
+			if (next.getValue() > end)
+				ranges.put(end, next.getValue());
+		}
+	}
+	
+	/**
+	 * Returns true if the range is contained in the set 
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	boolean contains(long start, long end) {
+		if (end <= start)
+			return true;
+		Map.Entry<Long, Long> before = ranges.floorEntry(start);
+		return before != null && before.getValue() >= end;
+	}
+	
+	/**
+	 * Returns the parts of the given range that are in the set 
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	List<TimeRange> intersect(long start, long end) {
+		List<TimeRange> result = new ArrayList<TimeRange>();
+		if (end <= start)
+			return result;
+		Map.Entry<Long, Long> before = ranges.lowerEntry(start);
+		if (before != null && before.getValue() > start)
+			result.add(new TimeRange(start, Math.min(end, before.getValue())));
+		for (Map.Entry<Long, Long> range : 
+			ranges.subMap(start, true, end, false).entrySet()) 
+		{
+			result.add(new TimeRange(range.getKey(), 
+					Math.min(end, range.getValue())));
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the parts of the given range that are not in the set 
+	 * 
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	List<TimeRange> subtract(long start, long end) {
+		List<TimeRange> result = new ArrayList<TimeRange>();
+		if (end <= start)
+			return result;
+		long from = start;
+		Map.Entry<Long, Long> before = ranges.lowerEntry(start);
+		if (before != null && before.getValue() > start)
+			from = before.getValue();
+		for (Map.Entry<Long, Long> range : 
+			ranges.subMap(start, true, end, false).entrySet()) 
+		{
+			if (range.getKey() > from)
+				result.add(new TimeRange(from, range.getKey()));
+			from = Math.max(from, range.getValue());
+		}
+		if (from < end)
+			result.add(new TimeRange(from, end));
+		return result;
+	}
+	
+	/**
+	 * Returns the number of ranges 
+	 * 
+	 * @return
+	 */
+	int size() {
+		return ranges.size();
+	}
+	
+	/**
+	 * Returns all ranges 
+	 * 
+	 * @return
+	 */
+	List<TimeRange> getRanges() {
+		List<TimeRange> result = new ArrayList<TimeRange>(ranges.size());
+		for (Map.Entry<Long, Long> range : ranges.entrySet())
+			result.add(new TimeRange(range.getKey(), range.getValue()));
+		return result;
+	}
+	
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.cache;
+
+import java.util.Date;
+import java.util.List;
+
+import com.iai.proteus.common.TimeUtils;
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.model.TimeInterval;
+
+/**
+ * An (immutable) range of time, from the start (inclusive) to the end 
+ * (exclusive), in milliseconds since the epoch 
+ */
+public final class TimeRange {
+	
+	private final long start;
+	private final long end;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param start
+	 * @param end
+	 */
+	public TimeRange(long start, long end) {
+		if (end < start)
+			throw new IllegalArgumentException("Invalid range: " + 
+					start + " to " + end);
+		this.start = start;
+		this.end = end;
+	}
+	
+	/**
+	 * Returns the range of the given interval; an open ended interval 
+	 * ends now 
+	 * 
+	 * The end of a (SOS) time interval is inclusive, so the range ends 
+	 * one millisecond after it: an interval from and to the same time 
+	 * is the range of that time, not an empty range. 
+	 * 
+	 * @param interval
+	 * @return
+	 */
+	public static TimeRange fromInterval(TimeInterval interval) {
+		long start = interval.getStart().getTime();
+		long end = interval.getEnd() != null ? 
+				interval.getEnd().getTime() : System.currentTimeMillis();
+		return new TimeRange(start, Math.max(start, end) + 1);
+	}
+
+	/**
+	 * Returns the start 
+	 * 
+	 * @return
+	 */
+	public long getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the end 
+	 * 
+	 * @return
+	 */
+	public long getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Returns the length, in milliseconds 
+	 * 
+	 * @return
+	 */
+	public long getLength() {
+		return end - start;
+	}
+	
+	/**
+	 * Returns the (inclusive) interval to request the observations of 
+	 * this range with 
+	 * 
+	 * The interval ends at the end of the range, which is not part of 
+	 * the range, so that the range is covered also when the end is 
+	 * truncated to whole seconds in the request; observations fetched 
+	 * with it should be cut to the range (see 
+	 * {@link ObservationCache#merge(List, TimeRange, Field)}). 
+	 * 
+	 * @return
+	 */
+	public TimeInterval toInterval() {
+		return new TimeInterval(new Date(start), new Date(end));
+	}
+	
+	@Override
+	public String toString() {
+		return TimeUtils.format(new Date(start)) + "/" + 
+				TimeUtils.format(new Date(end));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (end ^ (end >>> 32));
+		result = prime * result + (int) (start ^ (start >>> 32));
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		TimeRange other = (TimeRange) obj;
+		if (end != other.end)
+			return false;
+		if (start != other.start)
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.Arrays;
+
+/**
+ * A growable stream of bits in an array of longs, most significant
+ * bit first, used by the compressed columns
+ */
+class BitStream {
+
+	private long[] words;
+	private long position;
+
+	/**
+	 * Constructor
+	 *
+	 */
+	BitStream() {
+		words = new long[16];
+		position = 0;
+	}
+
+	/**
+	 * Returns the number of bits written
+	 *
+	 * @return
+	 */
+	long position() {
+		return position;
+	}
+
+	/**
+	 * Writes the lowest bits of the value
+	 *
+	 * @param value
+	 * @param bits between 1 and 64
+	 */
+	void write(long value, int bits) {
+		int word = (int) (position >>> 6);
+		if (word + 1 >= words.length)
+			words = Arrays.copyOf(words, words.length * 2);
+		if (bits < 64)
+			value &= (1L << bits) - 1;
+
+		int used = (int) (position & 63);
+		int free = 64 - used;
+		if (bits <= free) {
+			words[word] |= value << (free - bits);
+		} else {
+			words[word] |= value >>> (bits - free);
+			words[word + 1] |= value << (64 - (bits - free));
+		}
+		position += bits;
+	}
+
+	/**
+	 * Writes one bit
+	 *
+	 * @param bit
+	 */
+	void writeBit(boolean bit) {
+		write(bit ? 1 : 0, 1);
+	}
+
+	/**
+	 * Releases the unused capacity
+	 *
+	 */
+	void trim() {
+		words = Arrays.copyOf(words, (int) ((position + 63) >>> 6) + 1);
+	}
+
+	/**
+	 * Returns the size of the stream in bytes
+	 *
+	 * @return
+	 */
+	long getMemorySize() {
+		return words.length * 8L;
+	}
+
+	/**
+	 * Returns a reader of the stream, starting at the given bit
+	 *
+	 * @param from
+	 * @return
+	 */
+	Reader reader(long from) {
+		return new Reader(words, from);
+	}
+
+	/**
+	 * Reads bits from the stream
+	 */
+	static class Reader {
+
+		private final long[] words;
+		private long position;
+
+		Reader(long[] words, long position) {
+			this.words = words;
+			this.position = position;
+		}
+
+		/**
+		 * Reads the given number of bits
+		 *
+		 * @param bits between 1 and 64
+		 * @return
+		 */
+		long read(int bits) {
+			int word = (int) (position >>> 6);
+			int used = (int) (position & 63);
+			int free = 64 - used;
+			long value;
+			if (bits <= free) {
+				value = words[word] >>> (free - bits);
+			} else {
+				value = (words[word] << (bits - free)) |
+						(words[word + 1] >>> (64 - (bits - free)));
+			}
+			position += bits;
+			return bits < 64 ? value & ((1L << bits) - 1) : value;
+		}
+
+		/**
+		 * Reads one bit
+		 *
+		 * @return
+		 */
+		boolean readBit() {
+			int word = (int) (position >>> 6);
+			int shift = 63 - (int) (position & 63);
+			position++;
+			return ((words[word] >>> shift) & 1) != 0;
+		}
+	}
+
+}
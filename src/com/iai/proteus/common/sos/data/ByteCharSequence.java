@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Presents the UTF-8 encoded bytes of a buffer (typically a memory-mapped
+ * file) as a character sequence that can be tokenized without first being
+ * decoded into a String.
+ *
+ * Positions are byte positions: charAt() returns the byte at the position,
+ * which is the character itself for ASCII data, including all separators,
+ * quotes and line breaks the tokenizer looks for (these never occur inside
+ * multi-byte UTF-8 sequences). Only the cells that are extracted with
+ * subSequence() are decoded, which is why subSequence() returns a String
+ * whose length may be shorter than the byte range it was decoded from.
+ */
+final class ByteCharSequence implements CharSequence {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final int length;
+
+	/*
+	 * Shared scratch space for decoding
+	 */
+	private final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[256];
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param buffer
+	 */
+	ByteCharSequence(ByteBuffer buffer) {
+		this.buffer = buffer;
+		this.length = buffer.limit();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (buffer.get(index) & 0xff);
+	}
+
+	/**
+	 * Returns the decoded text of the given byte range
+	 */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		int n = end - start;
+		if (n == 0)
+			return "";
+
+		byte[] bytes = scratch.get();
+		if (bytes.length < n) {
+			bytes = new byte[Math.max(n, bytes.length * 2)];
+			scratch.set(bytes);
+		}
+		buffer.get(start, bytes, 0, n);
+		return new String(bytes, 0, n, UTF8);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
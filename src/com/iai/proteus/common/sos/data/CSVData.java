@@ -5,8 +5,15 @@
  */
 package com.iai.proteus.common.sos.data;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -22,6 +29,11 @@ public class CSVData extends DSVData {
 	
 	private static final Logger log = Logger.getLogger(CSVData.class);		
 	
+	/*
+	 * The size of the segments that files are mapped in 
+	 */
+	static final int SEGMENT_SIZE = 1 << 30;
+	
 	/**
 	 * Constructor 
 	 */
@@ -29,6 +41,24 @@ public class CSVData extends DSVData {
 		sepToken = ",";
 	}
 	
+	/**
+	 * Returns CSV data with the given fields and rows (the rows are 
+	 * not copied) 
+	 * 
+	 * @param fields
+	 * @param rows
+	 * @return
+	 */
+	public static CSVData fromRows(List<Field> fields, List<String[]> rows) {
+		CSVData csv = new CSVData();
+		for (Field field : fields) {
+			csv.addField(field);
+		}
+		csv.data = rows;
+		csv.rowsChanged();
+		return csv;
+	}
+	
 	/**
 	 * Parses the CSV data and returns an object containing the parsed data 
 	 * 
@@ -36,6 +66,18 @@ public class CSVData extends DSVData {
 	 * @return
 	 */
 	public static CSVData parse(String dataStr) {
+		return readAll(dataStr, null);
+	}
+	
+	/**
+	 * Parses all of the CSV data, and then ingests the rows as controlled 
+	 * by the given options (which must not be projected) 
+	 * 
+	 * @param dataStr
+	 * @param options
+	 * @return
+	 */
+	private static CSVData readAll(String dataStr, ParseOptions options) {
 		try {
 			CSVData csv = new CSVData(); 
 			CSVReader reader = new CSVReader(new StringReader(dataStr));
@@ -44,14 +86,18 @@ public class CSVData extends DSVData {
 			 * Headers
 			 */
 			String[] headers = csv.data.get(0); 
-			for (String header : headers) {
-				csv.addField(new Field(header.trim())); 
+			List<Field> header = new ArrayList<Field>();
+			for (String name : headers) {
+				header.add(new Field(name.trim())); 
 			}
+			csv.setHeader(header, options);
 
 			/*
 			 * Data (remove the headers) 
 			 */
 			csv.data.remove(0);
+			csv.rowsChanged();
+			csv.getIngest();
 			
 			return csv; 
 		} catch (IOException e) {
@@ -60,4 +106,259 @@ public class CSVData extends DSVData {
 		// default
 		return null;
 	}
+	
+	/**
+	 * Parses the CSV data and returns an object containing the parsed data, 
+	 * as controlled by the given options
+	 * 
+	 * The header is always read in full, so that the requested fields 
+	 * can be located, but cells of columns that are not requested are 
+	 * skipped over without being decoded or stored. If parallel parsing 
+	 * is requested, inputs larger than the chunk size are split at record 
+	 * boundaries and the chunks are parsed on a fork-join pool. 
+	 * 
+	 * @param dataStr
+	 * @param options
+	 * @return
+	 */
+	public static CSVData parse(String dataStr, ParseOptions options) {
+		
+		if (options == null || 
+				(!options.isProjected() && !options.isParallel()))
+			return readAll(dataStr, options);
+		
+		CSVData csv = new CSVData();
+		CSVTokenizer tokenizer = 
+				new CSVTokenizer(dataStr, csv.sepToken.charAt(0));
+		
+		/*
+		 * Headers
+		 */
+		String[] headers = tokenizer.next(null);
+		if (headers == null) {
+			log.error("No headers found in CSV data");
+			return null;
+		}
+		List<Field> header = new ArrayList<Field>();
+		for (String name : headers) {
+			header.add(new Field(name.trim()));
+		}
+		csv.setHeader(header, options);
+		
+		/*
+		 * Data 
+		 */
+		int start = tokenizer.position();
+		List<String[]> rows = null;
+		if (options.isParallel() && 
+				dataStr.length() - start > options.getChunkSize()) {
+			// null if the input cannot be split (see ParallelCSVParser) 
+			rows = new ParallelCSVParser(dataStr, csv.sepToken.charAt(0), 
+					csv.projection, headers.length, options).parse(start);
+		}
+		if (rows != null) {
+			csv.data = rows;
+			csv.rowsChanged();
+			csv.getIngest();
+		} else {
+			readRows(tokenizer, csv.projection, headers.length, csv.data, 
+					csv.getIngest());
+		}
+		
+		return csv; 
+	}
+	
+	/**
+	 * Reads the remaining rows from the tokenizer 
+	 * 
+	 * @param tokenizer
+	 * @param projection
+	 * @param headerLength
+	 * @param rows
+	 * @param ingest what is done with the rows, or null 
+	 */
+	static void readRows(CSVTokenizer tokenizer, int[] projection, 
+			int headerLength, List<String[]> rows, RowIngest ingest) 
+	{
+		String[] row;
+		while ((row = tokenizer.next(projection)) != null) {
+			// not a valid row (see getData()) 
+			if (headerLength > 1 && tokenizer.getCellCount() <= 1)
+				continue;
+			if (ingest != null)
+				ingest.add(row);
+			rows.add(row);
+		}
+	}
+
+	/**
+	 * Parses the CSV data stored in the given file 
+	 * 
+	 * @param file
+	 * @return
+	 */
+	public static CSVData parse(File file) {
+		return parse(file, null);
+	}
+	
+	/**
+	 * Parses the CSV data stored in the given file, as controlled by the 
+	 * given options (see {@link #parse(String, ParseOptions)})
+	 * 
+	 * The file is memory-mapped and tokenized directly over the mapped 
+	 * bytes (which must be UTF-8 encoded), so that only the cells that are 
+	 * kept are ever decoded. Files larger than the segment size (1 GB) 
+	 * are mapped and parsed one segment at a time. 
+	 * 
+	 * @param file
+	 * @param options
+	 * @return
+	 */
+	public static CSVData parse(File file, ParseOptions options) {
+		RandomAccessFile raf = null; 
+		try {
+			raf = new RandomAccessFile(file, "r");
+			return parse(raf.getChannel(), options, SEGMENT_SIZE);
+		} catch (IOException e) {
+			log.error("IO Exception while reading CSV data from file: " + 
+					e.getMessage());
+		} finally {
+			if (raf != null) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					log.warn("Could not close file: " + e.getMessage());
+				}
+			}
+		}
+		// default
+		return null;
+	}
+	
+	/**
+	 * Parses the CSV data in the given channel, mapping it in segments 
+	 * of (at most) the given size 
+	 * 
+	 * @param channel
+	 * @param options
+	 * @param segmentSize
+	 * @return
+	 * @throws IOException
+	 */
+	static CSVData parse(FileChannel channel, ParseOptions options, 
+			int segmentSize) throws IOException 
+	{
+		CSVData csv = new CSVData();
+		char sep = csv.sepToken.charAt(0);
+		
+		long size = channel.size();
+		long offset = 0;
+		int headerLength = -1;
+		
+		while (offset < size) {
+			
+			long remaining = size - offset;
+			boolean last = remaining <= segmentSize;
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 
+					offset, Math.min(remaining, segmentSize));
+			ByteCharSequence input = new ByteCharSequence(buffer);
+			
+			int start = 0;
+			int consumed = 0;
+			
+			/*
+			 * Headers (from the first segment) 
+			 */
+			if (headerLength == -1) {
+				CSVTokenizer tokenizer = new CSVTokenizer(input, sep);
+				String[] headers = tokenizer.next(null);
+				if (headers != null && (last || tokenizer.isTerminated())) {
+					List<Field> header = new ArrayList<Field>();
+					for (String name : headers) {
+						header.add(new Field(name.trim()));
+					}
+					csv.setHeader(header, options);
+					headerLength = headers.length;
+					start = consumed = tokenizer.position();
+				} else if (last) {
+					log.error("No headers found in CSV data");
+					return null;
+				}
+			}
+			
+			/*
+			 * Data (up to the last complete record of the segment) 
+			 */
+			if (headerLength != -1) {
+				List<String[]> rows = null;
+				ParallelCSVParser parser = null;
+				if (options != null && options.isParallel() && 
+						input.length() - start > options.getChunkSize()) {
+					parser = new ParallelCSVParser(input, sep, 
+							csv.projection, headerLength, options);
+					// null if the segment cannot be split 
+					rows = parser.parse(start, !last);
+				}
+				if (rows != null) {
+					csv.data.addAll(rows);
+					consumed = parser.getParsedEnd();
+					csv.getIngest();
+				} else {
+					consumed = readSegment(
+							new CSVTokenizer(input, sep, start, input.length()), 
+							csv.projection, headerLength, last, csv.data, 
+							csv.getIngest());
+				}
+			}
+			
+			if (last) 
+				break;
+			
+			if (consumed == 0) {
+				// a record larger than the segment, try a larger segment 
+				if (segmentSize == Integer.MAX_VALUE)
+					throw new IOException("Record too large");
+				segmentSize = (int) Math.min(2L * segmentSize, Integer.MAX_VALUE);
+			}
+			
+			offset += consumed;
+		}
+		
+		return csv;
+	}
+	
+	/**
+	 * Reads the complete rows of a segment, returns the position after 
+	 * the last complete row 
+	 * 
+	 * @param tokenizer
+	 * @param projection
+	 * @param headerLength
+	 * @param last true if this is the last segment 
+	 * @param rows
+	 * @param ingest what is done with the rows, or null 
+	 * @return
+	 */
+	private static int readSegment(CSVTokenizer tokenizer, int[] projection, 
+			int headerLength, boolean last, List<String[]> rows, 
+			RowIngest ingest) 
+	{
+		int consumed = tokenizer.position();
+		String[] row;
+		while ((row = tokenizer.next(projection)) != null) {
+			// the last record of a segment may continue in the next one 
+			if (!last && !tokenizer.isTerminated())
+				break;
+			consumed = tokenizer.position();
+			// not a valid row (see getData()) 
+			if (headerLength > 1 && tokenizer.getCellCount() <= 1)
+				continue;
+			if (ingest != null)
+				ingest.add(row);
+			rows.add(row);
+		}
+		if (last)
+			consumed = tokenizer.position();
+		return consumed;
+	}
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tokenizes delimiter separated records from a character sequence.
+ *
+ * Unlike a general purpose CSV reader, the tokenizer can be given the
+ * indexes of the cells to keep, in which case all other cells are only
+ * scanned past and never turned into Strings. Quoted cells may contain
+ * separators and line breaks, and a quote inside a quoted cell is escaped
+ * by doubling it. Blank lines are skipped.
+ */
+final class CSVTokenizer {
+
+	private static final char QUOTE = '"';
+
+	private final CharSequence input;
+	private final char separator;
+	private final int end;
+
+	private int pos;
+	private int cellCount;
+	private boolean blankCell;
+	private boolean terminated;
+
+	private final StringBuilder sb = new StringBuilder();
+	private final List<String> cells = new ArrayList<String>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param input
+	 * @param separator
+	 */
+	CSVTokenizer(CharSequence input, char separator) {
+		this(input, separator, 0, input.length());
+	}
+
+	/**
+	 * Constructor, tokenizing only the given range of the input
+	 *
+	 * @param input
+	 * @param separator
+	 * @param start the position of the first record
+	 * @param end the position after the last record
+	 */
+	CSVTokenizer(CharSequence input, char separator, int start, int end) {
+		this.input = input;
+		this.separator = separator;
+		this.pos = start;
+		this.end = end;
+	}
+
+	/**
+	 * Returns the current position in the input
+	 *
+	 * @return
+	 */
+	int position() {
+		return pos;
+	}
+
+	/**
+	 * Returns the number of cells the last returned record had in the
+	 * input (regardless of how many of them were kept)
+	 *
+	 * @return
+	 */
+	int getCellCount() {
+		return cellCount;
+	}
+
+	/**
+	 * Returns true if the last returned record ended with a line break,
+	 * false if it ended at the end of the input (and may be incomplete
+	 * if the input is a segment of a larger input)
+	 *
+	 * @return
+	 */
+	boolean isTerminated() {
+		return terminated;
+	}
+
+	/**
+	 * Returns the next record, or null if there are no more records
+	 *
+	 * @param projection the ascending indexes of the cells to keep,
+	 * or null to keep all cells
+	 * @return
+	 */
+	String[] next(int[] projection) {
+		while (pos < end) {
+			String[] record = readRecord(projection);
+			if (record != null)
+				return record;
+		}
+		return null;
+	}
+
+	/**
+	 * Reads one record, returns null if it was a blank line
+	 *
+	 * @param projection
+	 * @return
+	 */
+	private String[] readRecord(int[] projection) {
+		String[] kept = projection != null ? new String[projection.length] : null;
+		cells.clear();
+
+		int col = 0;
+		int wanted = 0;
+		boolean endOfRecord = false;
+
+		while (!endOfRecord) {
+
+			boolean keep = projection == null ||
+					(wanted < projection.length && projection[wanted] == col);
+
+			String value = readCell(keep);
+
+			if (keep) {
+				if (projection == null)
+					cells.add(value);
+				else
+					kept[wanted++] = value;
+			}
+			col++;
+
+			// what follows the cell
+			if (pos >= end) {
+				terminated = false;
+				endOfRecord = true;
+			} else {
+				char c = input.charAt(pos++);
+				if (c == '\r') {
+					if (pos < end && input.charAt(pos) == '\n')
+						pos++;
+					terminated = true;
+					endOfRecord = true;
+				} else if (c == '\n') {
+					terminated = true;
+					endOfRecord = true;
+				}
+			}
+		}
+
+		cellCount = col;
+
+		// blank line
+		if (col == 1 && blankCell)
+			return null;
+
+		if (projection == null)
+			return cells.toArray(new String[cells.size()]);
+
+		// cells missing from short records
+		for (int i = wanted; i < kept.length; i++)
+			kept[i] = "";
+
+		return kept;
+	}
+
+	/**
+	 * Reads one cell, stopping at the following separator or line break
+	 *
+	 * @param keep true if the value of the cell should be returned
+	 * @return the value of the cell, or null if it was not kept
+	 */
+	private String readCell(boolean keep) {
+
+		if (pos < end && input.charAt(pos) == QUOTE) {
+
+			blankCell = false;
+			pos++;
+
+			/*
+			 * Runs of characters are decoded through subSequence(), never
+			 * one character at a time, so that inputs that are not plain
+			 * character data (see ByteCharSequence) are decoded properly
+			 */
+			int run = pos;
+			boolean escaped = false;
+			String value = null;
+			while (pos < end) {
+				char c = input.charAt(pos++);
+				if (c == QUOTE) {
+					if (pos < end && input.charAt(pos) == QUOTE) {
+						// escaped quote
+						if (keep) {
+							if (!escaped)
+								sb.setLength(0);
+							sb.append(cell(run, pos));
+						}
+						escaped = true;
+						run = ++pos;
+					} else {
+						break;
+					}
+				}
+			}
+			int closed = input.charAt(pos - 1) == QUOTE && pos - 1 >= run ?
+					pos - 1 : pos;
+			if (keep) {
+				if (escaped) {
+					sb.append(cell(run, closed));
+					value = sb.toString();
+				} else {
+					value = cell(run, closed);
+				}
+			}
+
+			// anything between the closing quote and the separator
+			int trailing = pos;
+			while (pos < end) {
+				char c = input.charAt(pos);
+				if (c == separator || c == '\n' || c == '\r')
+					break;
+				pos++;
+			}
+			if (keep && pos > trailing)
+				value = value + cell(trailing, pos);
+			return value;
+		}
+
+		int start = pos;
+		while (pos < end) {
+			char c = input.charAt(pos);
+			if (c == separator || c == '\n' || c == '\r')
+				break;
+			pos++;
+		}
+		blankCell = pos == start;
+		return keep ? cell(start, pos) : null;
+	}
+
+	/**
+	 * Returns the text of the given range of the input
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	private String cell(int from, int to) {
+		return input.subSequence(from, to).toString();
+	}
+}
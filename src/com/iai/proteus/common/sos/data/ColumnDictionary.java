@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dictionary of a column with few distinct values, such as station
+ * identifiers, positions and units, built while the column is parsed
+ *
+ * Each distinct value has an integer code (in order of appearance), and
+ * every row has the code of its value, or {@link #NULL_CODE} if the row
+ * has no value. The rows of the data share one String instance per
+ * distinct value, which is what {@link #getValue(int)} returns.
+ */
+public class ColumnDictionary {
+
+	/**
+	 * Columns with more distinct values than this are not encoded by default
+	 */
+	public static final int DEFAULT_MAX_CARDINALITY = 1 << 10;
+
+	/**
+	 * The code of rows without a value
+	 */
+	public static final int NULL_CODE = -1;
+
+	private final List<String> values;
+	private final Map<String, Integer> codes;
+	private int[] rowCodes;
+	private int rows;
+
+	/**
+	 * Constructor
+	 *
+	 */
+	ColumnDictionary() {
+		values = new ArrayList<String>();
+		codes = new HashMap<String, Integer>();
+		rowCodes = new int[64];
+		rows = 0;
+	}
+
+	/**
+	 * Adds the value of the next row, returns its code
+	 *
+	 * @param value
+	 * @return
+	 */
+	int add(String value) {
+		int code = NULL_CODE;
+		if (value != null) {
+			Integer existing = codes.get(value);
+			if (existing == null) {
+				code = values.size();
+				values.add(value);
+				codes.put(value, code);
+			} else {
+				code = existing;
+			}
+		}
+		if (rows == rowCodes.length)
+			rowCodes = Arrays.copyOf(rowCodes, rows * 2);
+		rowCodes[rows++] = code;
+		return code;
+	}
+
+	/**
+	 * Returns the number of rows
+	 *
+	 * @return
+	 */
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * Returns the number of distinct values
+	 *
+	 * @return
+	 */
+	public int getCardinality() {
+		return values.size();
+	}
+
+	/**
+	 * Returns the value with the given code
+	 *
+	 * @param code
+	 * @return
+	 */
+	public String getValue(int code) {
+		return code == NULL_CODE ? null : values.get(code);
+	}
+
+	/**
+	 * Returns the code of the given value, or {@link #NULL_CODE} if the
+	 * column does not have the value
+	 *
+	 * @param value
+	 * @return
+	 */
+	public int getCode(String value) {
+		Integer code = value != null ? codes.get(value) : null;
+		return code != null ? code : NULL_CODE;
+	}
+
+	/**
+	 * Returns the code of the value of the given row
+	 *
+	 * @param row
+	 * @return
+	 */
+	public int getRowCode(int row) {
+		if (row >= rows)
+			throw new IndexOutOfBoundsException("Row: " + row);
+		return rowCodes[row];
+	}
+
+	/**
+	 * Returns the codes of all rows
+	 *
+	 * @return
+	 */
+	public int[] getCodes() {
+		return Arrays.copyOf(rowCodes, rows);
+	}
+
+	/**
+	 * Returns the rows that have the given value
+	 *
+	 * @param value
+	 * @return
+	 */
+	public BitSet equalTo(String value) {
+		BitSet result = new BitSet(rows);
+		int code = getCode(value);
+		if (code == NULL_CODE)
+			return result;
+		for (int row = 0; row < rows; row++) {
+			if (rowCodes[row] == code)
+				result.set(row);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of rows of each value, by code
+	 *
+	 * @return
+	 */
+	public int[] getCounts() {
+		int[] counts = new int[values.size()];
+		for (int row = 0; row < rows; row++) {
+			int code = rowCodes[row];
+			if (code != NULL_CODE)
+				counts[code]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * Groups the rows by value: returns the (ascending) rows of each
+	 * value, by code
+	 *
+	 * @return
+	 */
+	public int[][] groupRows() {
+		int[] counts = getCounts();
+		int[][] groups = new int[counts.length][];
+		for (int code = 0; code < counts.length; code++)
+			groups[code] = new int[counts[code]];
+		int[] filled = new int[counts.length];
+		for (int row = 0; row < rows; row++) {
+			int code = rowCodes[row];
+			if (code != NULL_CODE)
+				groups[code][filled[code]++] = row;
+		}
+		return groups;
+	}
+
+}
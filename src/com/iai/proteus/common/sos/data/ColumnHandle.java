@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.List;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * A resolved column of a {@link DSVData} data set, giving direct access 
+ * to the values of the column without looking up the field again 
+ * 
+ * Row numbers are positions in {@link DSVData#getData()}. 
+ */
+public final class ColumnHandle {
+
+	private final DSVData data;
+	private final Field field;
+	private final int index;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param data
+	 * @param field
+	 * @param index
+	 */
+	ColumnHandle(DSVData data, Field field, int index) {
+		this.data = data;
+		this.field = field;
+		this.index = index;
+	}
+	
+	/**
+	 * Returns the field of the column 
+	 * 
+	 * @return
+	 */
+	public Field getField() {
+		return field;
+	}
+	
+	/**
+	 * Returns the index of the column 
+	 * 
+	 * @return
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Returns the number of rows 
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return data.data.size();
+	}
+	
+	/**
+	 * Returns the value of the given row 
+	 * 
+	 * @param row
+	 * @return
+	 */
+	public String get(int row) {
+		String[] values = data.data.get(row);
+		return index < values.length ? values[index] : null;
+	}
+	
+	/**
+	 * Returns the value of the given row as a double, NaN if it is not 
+	 * a number 
+	 * 
+	 * @param row
+	 * @return
+	 */
+	public double getDouble(int row) {
+		String value = get(row);
+		if (value != null) {
+			try {
+				return Double.parseDouble(value.trim());
+			} catch (NumberFormatException e) {
+				// not a number 
+			}
+		}
+		return Double.NaN;
+	}
+	
+	/**
+	 * Returns the value of the given row as milliseconds since the epoch, 
+	 * {@link TimeUtils#NO_TIME} if it is not a time 
+	 * 
+	 * @param row
+	 * @return
+	 */
+	public long getMillis(int row) {
+		return TimeUtils.parseMillis(get(row));
+	}
+	
+	/**
+	 * Returns the values of the column (for valid rows only, like 
+	 * {@link DSVData#getData(Field)})
+	 * 
+	 * @return
+	 */
+	public String[] getColumn() {
+		List<String[]> rows = data.data;
+		String[] column = new String[rows.size()];
+		int count = 0;
+		for (String[] row : rows) {
+			if (data.isValidRow(row))
+				column[count++] = row[index];
+		}
+		if (count == column.length)
+			return column;
+		String[] valid = new String[count];
+		System.arraycopy(column, 0, valid, 0, count);
+		return valid;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+/**
+ * Summary statistics of the values of a column: count, minimum, maximum,
+ * mean and variance, and approximate quantiles from a {@link QuantileSketch}
+ *
+ * Statistics are updated one value at a time (the mean and variance with
+ * Welford's method), and the statistics of different parts of the data,
+ * e.g. time chunks or offerings, can be merged. Time stamp columns have
+ * statistics of their times, in milliseconds since the epoch.
+ */
+public class ColumnStatistics {
+
+	private long count;
+	private long missing;
+	private double min;
+	private double max;
+	private double mean;
+	private double m2;
+
+	private final QuantileSketch sketch;
+
+	/**
+	 * Constructor
+	 *
+	 */
+	public ColumnStatistics() {
+		this(new QuantileSketch());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param sketch the (empty) sketch of the quantiles
+	 */
+	public ColumnStatistics(QuantileSketch sketch) {
+		this.sketch = sketch;
+		this.min = Double.NaN;
+		this.max = Double.NaN;
+	}
+
+	/**
+	 * Adds a value; NaN is counted as missing
+	 *
+	 * @param value
+	 */
+	public void add(double value) {
+		if (Double.isNaN(value)) {
+			missing++;
+			return;
+		}
+		count++;
+		if (count == 1) {
+			min = max = value;
+		} else {
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+		}
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		sketch.add(value);
+	}
+
+	/**
+	 * Counts a missing (or invalid) value
+	 *
+	 */
+	public void addMissing() {
+		missing++;
+	}
+
+	/**
+	 * Merges the other statistics into these statistics
+	 *
+	 * @param other
+	 */
+	public void merge(ColumnStatistics other) {
+		missing += other.missing;
+		if (other.count == 0)
+			return;
+		if (count == 0) {
+			min = other.min;
+			max = other.max;
+		} else {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+		count = total;
+		sketch.merge(other.sketch);
+	}
+
+	/**
+	 * Returns a copy of these statistics
+	 *
+	 * @return
+	 */
+	public ColumnStatistics copy() {
+		ColumnStatistics copy =
+				new ColumnStatistics(new QuantileSketch(sketch.getK()));
+		copy.merge(this);
+		return copy;
+	}
+
+	/**
+	 * Returns the merged statistics of the given statistics
+	 *
+	 * @param statistics
+	 * @return
+	 */
+	public static ColumnStatistics merge(ColumnStatistics... statistics) {
+		ColumnStatistics merged = null;
+		for (ColumnStatistics s : statistics) {
+			if (merged == null)
+				merged = s.copy();
+			else
+				merged.merge(s);
+		}
+		return merged != null ? merged : new ColumnStatistics();
+	}
+
+	/**
+	 * Returns the number of (non-missing) values
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of missing (or invalid) values
+	 *
+	 * @return
+	 */
+	public long getMissingCount() {
+		return missing;
+	}
+
+	/**
+	 * Returns the smallest value, NaN if there are no values
+	 *
+	 * @return
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest value, NaN if there are no values
+	 *
+	 * @return
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the mean, NaN if there are no values
+	 *
+	 * @return
+	 */
+	public double getMean() {
+		return count > 0 ? mean : Double.NaN;
+	}
+
+	/**
+	 * Returns the (population) variance, NaN if there are no values
+	 *
+	 * @return
+	 */
+	public double getVariance() {
+		return count > 0 ? m2 / count : Double.NaN;
+	}
+
+	/**
+	 * Returns the (population) standard deviation, NaN if there are
+	 * no values
+	 *
+	 * @return
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * Returns the approximate value at the given quantile, e.g. 0.95 for
+	 * the 95th percentile
+	 *
+	 * @param q
+	 * @return
+	 */
+	public double getQuantile(double q) {
+		return sketch.getQuantile(q);
+	}
+
+	/**
+	 * Returns the sketch of the quantiles
+	 *
+	 * @return
+	 */
+	public QuantileSketch getSketch() {
+		return sketch;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", missing=" + missing + ", min=" + min +
+				", max=" + max + ", mean=" + getMean() +
+				", median=" + getQuantile(0.5);
+	}
+
+}
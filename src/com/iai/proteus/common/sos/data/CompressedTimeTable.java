@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.List;
+
+/**
+ * A {@link TimeTable} in compressed columns, for keeping series in memory
+ * for a long time
+ *
+ * The times are encoded with delta-of-delta ({@link TimeColumn}) and the
+ * values with XOR ({@link DoubleColumn}), in blocks of the same rows, so
+ * a range of times is decoded block by block from the first block that
+ * can hold the start of the range.
+ */
+public class CompressedTimeTable {
+
+	private final TimeColumn times;
+	private final List<String> names;
+	private final DoubleColumn[] columns;
+
+	/**
+	 * Constructor
+	 *
+	 * @param table
+	 */
+	public CompressedTimeTable(TimeTable table) {
+		this.times = TimeColumn.encode(table.getTimes());
+		this.names = table.getNames();
+		this.columns = new DoubleColumn[table.getColumnCount()];
+		for (int c = 0; c < columns.length; c++)
+			columns[c] = DoubleColumn.encode(table.getColumn(c));
+	}
+
+	/**
+	 * Returns the number of rows (times)
+	 *
+	 * @return
+	 */
+	public int size() {
+		return times.size();
+	}
+
+	/**
+	 * Returns the number of columns
+	 *
+	 * @return
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/**
+	 * Returns the names of the columns
+	 *
+	 * @return
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * Returns the index of the column with the given name, -1 if there
+	 * is no such column
+	 *
+	 * @param name
+	 * @return
+	 */
+	public int getColumnIndex(String name) {
+		return names.indexOf(name);
+	}
+
+	/**
+	 * Returns the times
+	 *
+	 * @return
+	 */
+	public TimeColumn getTimes() {
+		return times;
+	}
+
+	/**
+	 * Returns the values of the given column
+	 *
+	 * @param col
+	 * @return
+	 */
+	public DoubleColumn getColumn(int col) {
+		return columns[col];
+	}
+
+	/**
+	 * Returns the approximate size of the table in bytes
+	 *
+	 * @return
+	 */
+	public long getMemorySize() {
+		long size = times.getMemorySize();
+		for (DoubleColumn column : columns)
+			size += column.getMemorySize();
+		return size;
+	}
+
+	/**
+	 * Decompresses the table
+	 *
+	 * @return
+	 */
+	public TimeTable decompress() {
+		double[][] values = new double[columns.length][];
+		for (int c = 0; c < columns.length; c++)
+			values[c] = columns[c].decode();
+		return new TimeTable(times.decode(), names.toArray(new String[0]),
+				values);
+	}
+
+	/**
+	 * Decompresses the rows in the given range
+	 *
+	 * @param start the first time (inclusive)
+	 * @param end the last time (exclusive)
+	 * @return
+	 */
+	public TimeTable decompress(long start, long end) {
+
+		// the rows of the range
+		int first = -1;
+		int last = -1;
+		TimeColumn.Blocks blocks = times.blocks(times.findBlock(start));
+		while (blocks.next()) {
+			long[] values = blocks.getValues();
+			int count = blocks.getCount();
+			if (values[0] >= end)
+				break;
+			for (int i = 0; i < count && values[i] < end; i++) {
+				if (values[i] >= start) {
+					if (first == -1)
+						first = blocks.getFirstRow() + i;
+					last = blocks.getFirstRow() + i;
+				}
+			}
+		}
+
+		int n = first == -1 ? 0 : last - first + 1;
+		long[] rangeTimes = new long[n];
+		double[][] rangeValues = new double[columns.length][n];
+		if (n > 0) {
+			int block = first / TimeColumn.BLOCK_SIZE;
+			int lastBlock = last / TimeColumn.BLOCK_SIZE;
+			copy(times.blocks(block), lastBlock, first, rangeTimes);
+			for (int c = 0; c < columns.length; c++)
+				copy(columns[c].blocks(block), lastBlock, first,
+						rangeValues[c]);
+		}
+
+		return new TimeTable(rangeTimes, names.toArray(new String[0]),
+				rangeValues);
+	}
+
+	private static void copy(TimeColumn.Blocks blocks, int lastBlock,
+			int first, long[] out)
+	{
+		while (blocks.next() && blocks.getBlock() <= lastBlock) {
+			int from = Math.max(first, blocks.getFirstRow());
+			int to = Math.min(first + out.length,
+					blocks.getFirstRow() + blocks.getCount());
+			System.arraycopy(blocks.getValues(), from - blocks.getFirstRow(),
+					out, from - first, to - from);
+		}
+	}
+
+	private static void copy(DoubleColumn.Blocks blocks, int lastBlock,
+			int first, double[] out)
+	{
+		while (blocks.next() && blocks.getBlock() <= lastBlock) {
+			int from = Math.max(first, blocks.getFirstRow());
+			int to = Math.min(first + out.length,
+					blocks.getFirstRow() + blocks.getCount());
+			System.arraycopy(blocks.getValues(), from - blocks.getFirstRow(),
+					out, from - first, to - from);
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * Converts the String values read by cursors into the primitive values
+ * of {@link DataCursor}
+ */
+final class CursorValues {
+
+	private CursorValues() {
+		// static methods only
+	}
+
+	/**
+	 * Returns the value as a double, NaN if it is missing or not a number
+	 *
+	 * @param value
+	 * @return
+	 */
+	static double toDouble(String value) {
+		if (value == null || value.length() == 0)
+			return Double.NaN;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Returns the value as milliseconds since the epoch,
+	 * {@link TimeUtils#NO_TIME} if it is missing or not a time
+	 *
+	 * @param value
+	 * @return
+	 */
+	static long toEpochMillis(String value) {
+		if (value == null || value.length() == 0)
+			return TimeUtils.NO_TIME;
+		return TimeUtils.parseMillis(value.trim());
+	}
+
+	/**
+	 * Returns true if the value is missing
+	 *
+	 * @param value
+	 * @return
+	 */
+	static boolean isNull(String value) {
+		return value == null || value.trim().length() == 0;
+	}
+
+}
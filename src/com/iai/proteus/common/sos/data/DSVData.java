@@ -7,9 +7,10 @@ package com.iai.proteus.common.sos.data;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
 
 import org.apache.log4j.Logger;
 
@@ -31,6 +32,27 @@ public abstract class DSVData implements SensorData {
 	
 	protected List<Field> fields; 
 	protected List<String[]> data; 
+	
+	/*
+	 * The (ascending) indexes of the source columns that are kept when 
+	 * parsing, or null if all columns are kept 
+	 */
+	protected int[] projection; 
+	
+	/*
+	 * Maps (trimmed) field names to their indexes, built when first needed
+	 */
+	private Map<String, Integer> fieldIndexes; 
+	
+	/*
+	 * The dictionaries and statistics of the columns, built while the 
+	 * rows are parsed; the largest number of distinct values of an 
+	 * encoded column (0 if columns should not be encoded), and whether 
+	 * statistics should be collected 
+	 */
+	private volatile RowIngest ingest;
+	protected int dictionaryLimit = ColumnDictionary.DEFAULT_MAX_CARDINALITY;
+	protected boolean collectStatistics = true;
  
 	/**
 	 * Constructor 
@@ -45,28 +67,69 @@ public abstract class DSVData implements SensorData {
 	
 	public void addField(Field field) {
 		fields.add(field);
+		fieldIndexes = null;
+		schema = null;
+		rowsChanged();
+	}
+	
+	/**
+	 * Sets the fields from a parsed header, keeping only the fields 
+	 * requested by the given parse options (if any) 
+	 * 
+	 * @param header
+	 * @param options
+	 */
+	protected void setHeader(List<Field> header, ParseOptions options) {
+		projection = 
+				options != null ? options.resolveProjection(header) : null;
+		fields = new ArrayList<Field>();
+		if (projection == null) {
+			fields.addAll(header);
+		} else {
+			for (int index : projection)
+				fields.add(header.get(index));
+		}
+		fieldIndexes = null;
+		schema = null;
+		rowsChanged();
+		if (options != null) {
+			schemaSampleRows = options.getSchemaSampleRows();
+			dictionaryLimit = options.getDictionaryLimit();
+			collectStatistics = options.isCollectStatistics();
+		}
 	}
 	
 	
-	private boolean fields_initialized = false;
+	/*
+	 * The inferred schema, and how many rows to infer it from 
+	 */
+	private Schema schema;
+	private int schemaDataSize;
+	protected int schemaSampleRows = Schema.DEFAULT_SAMPLE_ROWS;
 	
-	private void initializeFields()
-	{
-		if (!fields_initialized)
+	/**
+	 * Returns the schema of this data, which is inferred (from a sample 
+	 * of the rows) the first time it is needed 
+	 * 
+	 * @return
+	 */
+	public Schema getSchema() {
+		Schema current = schema;
+		// infer again if more rows have arrived since a partial sample 
+		if (current == null || 
+				(current.getSampledRows() < schemaSampleRows && 
+						schemaDataSize != data.size())) 
 		{
-			fields_initialized = true;
-			for (Field field : fields) 
-			{
-				if (field.getName().contains("date"))
-				{
-					System.err.println();
-				}
-				if (isColumnType(field, FieldType.TIMESTAMP)) 
-				{
-					field.timeField();
-				} 
+			current = Schema.infer(this, schemaSampleRows);
+			schema = current;
+			schemaDataSize = data.size();
+			// mark the time fields 
+			for (int i = 0; i < fields.size(); i++) {
+				if (current.getType(i) == FieldType.TIMESTAMP)
+					fields.get(i).timeField();
 			}
 		}
+		return current;
 	}
 	
 	/**
@@ -75,7 +138,7 @@ public abstract class DSVData implements SensorData {
 	 * @return
 	 */
 	public List<Field> getFields() {
-		initializeFields();
+		getSchema();
 		return fields; 
 	}
 	
@@ -86,13 +149,7 @@ public abstract class DSVData implements SensorData {
 	 * @return
 	 */
 	public List<Field> getFields(FieldType type) {
-		List<Field> matchingFields = new ArrayList<Field>();
-		for (Field field : getFields()) {
-			if (isColumnType(field, type)) {
-				matchingFields.add(field);
-			} 
-		}
-		return matchingFields; 
+		return new ArrayList<Field>(getSchema().getFields(type)); 
 	}	
 	
 	public List<String[]> getData() {
@@ -118,16 +175,12 @@ public abstract class DSVData implements SensorData {
 	 * @return
 	 */
 	public String[] getData(Field variable) {
-		List<Field> list = new ArrayList<Field>();
-		list.add(variable);
-		List<String[]> data = getData(list);
-		String[] output = new String[data.size()];
-		int i = 0;
-		for (String[] s : data)
-		{
-			output[i++] = s[0];
+		Integer index = getFieldIndexMap().get(variable.getName().trim());
+		if (index == null) {
+			log.warn("Not all wanted headers were found");
+			return new String[0];
 		}
-		return output;
+		return new ColumnHandle(this, fields.get(index), index).getColumn();
 	}
 	
 	
@@ -188,7 +241,7 @@ public abstract class DSVData implements SensorData {
 		List<String[]> data = getData();
 		
 		if (data != null) {
-			int index = getFieldIndex(timestamp, getFields());
+			int index = getFieldIndex(timestamp);
 			if (index != -1) {
 				List<String[]> filtered = new ArrayList<String[]>();
 				for (String[] row : data) {
@@ -221,9 +274,9 @@ public abstract class DSVData implements SensorData {
 	 */
 	public List<String[]> getData(List<Field> wantedFields, int n) {
 		List<String[]> filteredData = new ArrayList<String[]>();
-		Map<String, Integer> headerIndexes = getFieldIndexes(wantedFields);
+		int[] indexes = getFieldIndexes(wantedFields);
 		// we need to have found at least one header 
-		if (headerIndexes.size() > 0) {
+		if (indexes.length > 0) {
 			int count = 0; 
 			for (String[] row : data) {
 				
@@ -233,18 +286,15 @@ public abstract class DSVData implements SensorData {
 				if (n != -1 && count >= n)
 					break; 
 				
-				if (row.length <=1)
+				if (!isValidRow(row))
 				{
 					// this is not a valid row
 					continue;
 				}
 				
-				String[] filteredRow = new String[headerIndexes.size()];
-				int i = 0; 
-				for (String headerWithIndex : headerIndexes.keySet()) {
-					int index = headerIndexes.get(headerWithIndex);
-					filteredRow[i] = row[index];
-					i++; 
+				String[] filteredRow = new String[indexes.length];
+				for (int i = 0; i < indexes.length; i++) {
+					filteredRow[i] = row[indexes[i]];
 				}
 				filteredData.add(filteredRow);
 				
@@ -255,37 +305,83 @@ public abstract class DSVData implements SensorData {
 	}	
 	
 	/**
-	 * Returns the indexes that the given headers are located at
+	 * Returns true if the row holds a valid data point 
+	 * 
+	 * @param row
+	 * @return
+	 */
+	protected boolean isValidRow(String[] row) {
+		if (fields.size() > 1)
+			return row.length > 1;
+		// single column data (e.g. after pruning): skip blank lines only 
+		return row.length == 1 && row[0] != null && row[0].length() > 0;
+	}
+	
+	/**
+	 * Returns the indexes that the given headers are located at (each 
+	 * header at most once, in the order given) 
 	 * 
 	 * @param wantedFields
 	 * @return
 	 */
-	private Map<String, Integer> getFieldIndexes(List<Field> wantedFields) {
-		// NOTE: the LinkedHashMap should keep things in order 
-		Map<String, Integer> indexes = new LinkedHashMap<String, Integer>();
-		List<Field> allFields = getFields();
+	private int[] getFieldIndexes(List<Field> wantedFields) {
+		int[] indexes = new int[wantedFields.size()];
+		int count = 0; 
 		for (Field wantedField : wantedFields) {
-			int index = 0; 
-			for (Field field : allFields) {
-				String wanted = wantedField.getName().trim();
-				if (wanted.equals(field.getName().trim())) {
-					indexes.put(wanted, index);
-				}
-				index++; 
+			Integer index = 
+					getFieldIndexMap().get(wantedField.getName().trim());
+			if (index != null && !contains(indexes, count, index)) {
+				indexes[count++] = index;
 			}
-//			
-//			for (int i = 0; i < headers.length; i++) {
-//				String wanted = wantedField.trim();
-//				if (wanted.equals(headers[i].trim()))
-//					indexes.put(wanted, i); 
-//			}
 		}
-		if (indexes.size() != wantedFields.size()) {
+		if (count != wantedFields.size()) {
 			log.warn("Not all wanted headers were found");
+			int[] found = new int[count];
+			System.arraycopy(indexes, 0, found, 0, count);
+			return found;
 		}
 		return indexes; 
 	}
 	
+	private static boolean contains(int[] values, int n, int value) {
+		for (int i = 0; i < n; i++) {
+			if (values[i] == value)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the map from (trimmed) field names to field indexes 
+	 * 
+	 * @return
+	 */
+	private Map<String, Integer> getFieldIndexMap() {
+		if (fieldIndexes == null) {
+			Map<String, Integer> indexes = new HashMap<String, Integer>();
+			List<Field> allFields = getFields();
+			for (int i = 0; i < allFields.size(); i++) {
+				// NOTE: later fields with the same name take precedence 
+				indexes.put(allFields.get(i).getName().trim(), i);
+			}
+			fieldIndexes = indexes;
+		}
+		return fieldIndexes;
+	}
+	
+	/**
+	 * Returns the index of the given field if it exists, -1 otherwise 
+	 * 
+	 * @param field
+	 * @return
+	 */
+	public int getFieldIndex(Field field) {
+		Integer index = getFieldIndexMap().get(field.getName().trim());
+		if (index != null && fields.get(index).equals(field))
+			return index;
+		return getFieldIndex(field, fields);
+	}
+	
 	/**
 	 * Returns the index of the given field it if exists, -1 otherwise 
 	 * 
@@ -304,6 +400,114 @@ public abstract class DSVData implements SensorData {
 		return -1;
 	}
 	
+	/**
+	 * Returns a handle for the column of the given field, or null if there 
+	 * is no such field 
+	 * 
+	 * The field is resolved once, after which the handle gives direct 
+	 * access to the values of the column. A handle is only valid as long 
+	 * as the fields of this data do not change. 
+	 * 
+	 * @param field
+	 * @return
+	 */
+	public ColumnHandle getColumnHandle(Field field) {
+		int index = getFieldIndex(field);
+		if (index == -1)
+			return null;
+		return new ColumnHandle(this, fields.get(index), index);
+	}
+	
+	/**
+	 * Returns the dictionary of the column of the given field, or null if 
+	 * there is no such field or the column has too many distinct values 
+	 * 
+	 * Columns are normally encoded while the rows are parsed; rows that 
+	 * have been added since are encoded first, and all rows are encoded 
+	 * again after rowsChanged(). 
+	 * 
+	 * @param field
+	 * @return
+	 */
+	public ColumnDictionary getDictionary(Field field) {
+		int index = getFieldIndex(field);
+		if (index == -1)
+			return null;
+		DictionaryEncoder encoder = getCurrentIngest().getEncoder();
+		return encoder != null ? encoder.getDictionary(index) : null;
+	}
+	
+	/**
+	 * Returns the statistics of the column of the given field, or null if 
+	 * there is no such field or the column is not numeric (or time stamps) 
+	 * 
+	 * The statistics are collected while the rows are parsed; rows that 
+	 * have been added since are included first, and all rows are 
+	 * collected again after rowsChanged(). Otherwise the collected 
+	 * statistics are returned as they are. The statistics should not be 
+	 * modified, use copy() to merge them with others. 
+	 * 
+	 * @param field
+	 * @return
+	 */
+	public ColumnStatistics getStatistics(Field field) {
+		int index = getFieldIndex(field);
+		if (index == -1)
+			return null;
+		StatisticsCollector statistics = getCurrentIngest().getStatistics();
+		return statistics != null ? statistics.getStatistics(index) : null;
+	}
+	
+	/**
+	 * Tells this data set that rows returned by getData() have been 
+	 * removed, replaced, reordered or modified, so that the dictionaries 
+	 * and statistics are built again from all rows when next needed 
+	 * (rows that are only added at the end are ingested without this) 
+	 */
+	public synchronized void rowsChanged() {
+		ingest = null;
+	}
+	
+	/**
+	 * Returns the ingest as it is if all rows have been ingested, without 
+	 * locking, else getIngest() 
+	 * 
+	 * @return
+	 */
+	private RowIngest getCurrentIngest() {
+		RowIngest current = ingest;
+		if (current != null && current.getRowCount() == data.size())
+			return current;
+		return getIngest();
+	}
+	
+	/**
+	 * Returns what is done with parsed rows, after ingesting any rows 
+	 * that have been added since the last call 
+	 * 
+	 * The ingest is reset when the header, the fields or the rows are 
+	 * replaced, and by rowsChanged(); it is not checked against the rows 
+	 * otherwise. Calls are synchronized, so that readers of the 
+	 * dictionaries and statistics see one ingest; rows must not be 
+	 * added while they are read. 
+	 * 
+	 * @return
+	 */
+	synchronized RowIngest getIngest() {
+		// start over if rows have been removed 
+		if (ingest == null || ingest.getRowCount() > data.size()) {
+			ingest = new RowIngest(
+					dictionaryLimit > 0 ? 
+							new DictionaryEncoder(fields.size(), dictionaryLimit) : 
+								null, 
+					collectStatistics ? 
+							new StatisticsCollector(fields.size()) : null);
+		}
+		if (ingest.getRowCount() < data.size())
+			ingest.add(data.subList(ingest.getRowCount(), data.size()));
+		return ingest;
+	}
+	
 	/**
 	 * Returns true if the column seems to contain values of the given type,
 	 * false otherwise
@@ -313,56 +517,17 @@ public abstract class DSVData implements SensorData {
 	 * @return
 	 */
 	public boolean isColumnType(Field field, FieldType type) {
-		String value = getFirstDatapoint(field);
 		
-		if (type == FieldType.TIMESTAMP)
-		{
-			/*
-			 * Approach: 
-			 * 
-			 * 1. Check if it is known to be a time
-			 * 2. Try to parse it 
-			 * 3. Check if the field name contains "date"
-			 */
-			if (field.isTimeField())
-			{
-				return true; 
-			}
-			else if (field.getName().contains("date"))
-			{
-				return true;
-			}
-			else 
-			{ 
-				Date date = TimeUtils.parseDefault(value, false);
-				return  (date != null);
-			}
-		}
-		
-		if (value != null) {
-			value = value.trim();
-			switch(type) {
-			case INTEGER: 
-				try {
-					// try to parse as integer
-					Integer.parseInt(value);
-					return true; 
-				} catch (NumberFormatException e) {
-				}
-				break;
-			case DOUBLE:
-				try {
-					// try to parse as double
-					Double.parseDouble(value);
-					return true; 
-				} catch (NumberFormatException e) {
-				}
-				break;
+		if (type == FieldType.TIMESTAMP && field.isTimeField())
+			return true;
 		
-			}
+		int index = getFieldIndex(field);
+		if (index == -1) {
+			// default 
+			return type == FieldType.TIMESTAMP && 
+					field.getName().contains("date");
 		}
-		// default 
-		return false; 
+		return getSchema().isType(index, type);
 	}	
 	
 	/**
@@ -411,23 +576,44 @@ public abstract class DSVData implements SensorData {
 		return null;
 	}
 	
-	private String[] getNDataPoints(final Field field, int n) {
-		List<String[]> filtered = 
-			getData(new ArrayList<Field>() {
-				private static final long serialVersionUID = 1L;
-				{ 
-					add(field); 
-				}
-			}, n); 
-		/*
-		 * Since we only have one header the list will contain 1-arrays
-		 */
-		String[] result = new String[filtered.size()];
-		int i = 0; 
-		for (String[] strs : filtered) {
-			result[i++] = strs[0].trim();
+	private String[] getNDataPoints(Field field, int n) {
+		Integer index = getFieldIndexMap().get(field.getName().trim());
+		if (index == null)
+			return new String[0];
+		List<String> values = new ArrayList<String>(n);
+		for (String[] row : data) {
+			if (values.size() >= n)
+				break;
+			if (isValidRow(row))
+				values.add(row[index].trim());
 		}
-		return result; 
+		return values.toArray(new String[values.size()]);
+	}
+	
+	/**
+	 * Returns a view of all the data, from which lazily evaluated 
+	 * selections of columns and rows can be made without copying 
+	 * 
+	 * @return
+	 */
+	public DataView view() {
+		return new DataView(this);
+	}
+	
+	/**
+	 * Implements {@link SensorData} 
+	 * 
+	 * Invalid rows are skipped. 
+	 */
+	public DataCursor cursor() {
+		return new RowCursor(0, data.size());
+	}
+	
+	/**
+	 * Implements {@link SensorData} 
+	 */
+	public Spliterator<DataCursor> spliterator() {
+		return new RowSpliterator(new RowCursor(0, data.size()), false);
 	}
 	
 	/**
@@ -436,4 +622,38 @@ public abstract class DSVData implements SensorData {
 	public int size() {
 		return data.size();
 	}
+	/**
+	 * Cursor over the (valid) rows 
+	 */
+	private class RowCursor extends RangeCursor {
+		
+		private final int columns = fields.size();
+		private String[] current;
+		
+		RowCursor(int from, int to) {
+			super(from, to);
+		}
+		
+		@Override
+		boolean load(int row) {
+			current = data.get(row);
+			return isValidRow(current);
+		}
+		
+		@Override
+		RangeCursor copy(int from, int to) {
+			return new RowCursor(from, to);
+		}
+
+		@Override
+		public int getColumnCount() {
+			return columns;
+		}
+
+		@Override
+		public String getString(int col) {
+			return col < current.length ? current[col] : null;
+		}
+	}
+	
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+/**
+ * Iterates the rows of sensor data one row at a time 
+ * 
+ * The cursor is positioned before the first row; each call to next() 
+ * moves it to the next row. Values of the current row are read through 
+ * the primitive accessors, so iterating does not create objects per row. 
+ * The cursor itself is reused for every row and should not be kept by 
+ * consumers after the row; {@link SensorData#spliterator()} passes a 
+ * separate cursor for each row instead. 
+ */
+public interface DataCursor {
+
+	/**
+	 * Moves to the next row, returns false if there are no more rows 
+	 * 
+	 * @return
+	 */
+	public boolean next();
+	
+	/**
+	 * Returns the number of columns 
+	 * 
+	 * @return
+	 */
+	public int getColumnCount();
+	
+	/**
+	 * Returns the index of the current row in the data 
+	 * 
+	 * @return
+	 */
+	public int getRowIndex();
+	
+	/**
+	 * Returns the value of the given column, null if it is missing 
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public String getString(int col);
+	
+	/**
+	 * Returns the value of the given column as a double, NaN if it is 
+	 * missing or not a number 
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public double getDouble(int col);
+	
+	/**
+	 * Returns the value of the given column as milliseconds since the 
+	 * epoch, {@link com.iai.proteus.common.TimeUtils#NO_TIME} if it is 
+	 * missing or not a time 
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public long getEpochMillis(int col);
+	
+	/**
+	 * Returns true if the value of the given column is missing 
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public boolean isNull(int col);
+	
+}
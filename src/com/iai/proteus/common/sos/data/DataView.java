@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * A lazily evaluated view of a {@link SensorData} data set 
+ * 
+ * Views select columns, ranges of rows and rows matching filters without 
+ * copying anything: each operation returns a new view that shares the 
+ * rows of the underlying data, and the operations are only applied when 
+ * the view is iterated with a {@link ViewCursor}. Rows are only copied 
+ * when the view is explicitly materialized. 
+ * 
+ * The rows of a {@link DSVData} set are shared as they are stored, and 
+ * its invalid rows are skipped. Other data sets are read once, through 
+ * {@link SensorData#getData()}, by {@link SensorData#view()}, and the 
+ * views derived from that view share the rows read. 
+ * 
+ * Operations apply in the order they are chained. Positions, as used by 
+ * {@link #range(int, int)}, are always those of the rows of the view at 
+ * that point: invalid rows are never counted, and a range taken after a 
+ * filter counts the rows that passed the filter. 
+ */
+public final class DataView {
+	
+	private final SensorData data;
+	
+	// the underlying rows, and the data set whose invalid rows are skipped 
+	private final List<String[]> rows;
+	private final DSVData validated;
+	
+	// the underlying indexes of the selected columns 
+	private final int[] columns; 
+	private final List<Field> fields;
+	
+	private final Stage[] stages;
+	
+	/**
+	 * Constructor, for a view of all the data 
+	 * 
+	 * @param data
+	 */
+	DataView(SensorData data) {
+		this.data = data;
+		if (data instanceof DSVData) {
+			this.validated = (DSVData) data;
+			this.rows = validated.data;
+		} else {
+			this.validated = null;
+			this.rows = data.getData();
+		}
+		List<Field> all = data.getFields();
+		this.fields = Collections.unmodifiableList(new ArrayList<Field>(all));
+		this.columns = new int[all.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = i;
+		}
+		this.stages = new Stage[0];
+	}
+	
+	private DataView(DataView view, int[] columns, List<Field> fields, 
+			Stage[] stages) 
+	{
+		this.data = view.data;
+		this.rows = view.rows;
+		this.validated = view.validated;
+		this.columns = columns;
+		this.fields = fields;
+		this.stages = stages;
+	}
+	
+	/**
+	 * Returns the fields of the view 
+	 * 
+	 * @return
+	 */
+	public List<Field> getFields() {
+		return fields;
+	}
+	
+	/**
+	 * Returns a view with only the given fields, in the given order 
+	 * 
+	 * Fields that do not exist in the underlying data are ignored. 
+	 * 
+	 * @param selected
+	 * @return
+	 */
+	public DataView select(List<Field> selected) {
+		int[] indexes = new int[selected.size()];
+		List<Field> found = new ArrayList<Field>();
+		for (Field field : selected) {
+			int index = indexOf(field);
+			if (index != -1) {
+				indexes[found.size()] = index;
+				found.add(data.getFields().get(index));
+			}
+		}
+		int[] selectedColumns = new int[found.size()];
+		System.arraycopy(indexes, 0, selectedColumns, 0, found.size());
+		return new DataView(this, selectedColumns, 
+				Collections.unmodifiableList(found), stages);
+	}
+	
+	/**
+	 * Returns a view with only the rows from the given (inclusive) position 
+	 * to the given (exclusive) position of this view 
+	 * 
+	 * Positions count the rows of this view, i.e. the valid rows that 
+	 * passed the filters so far, whether or not there are any filters. 
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public DataView range(int from, int to) {
+		if (from < 0 || to < from)
+			throw new IllegalArgumentException("Invalid range: " + 
+					from + " to " + to);
+		return append(new Stage(null, from, to - from));
+	}
+	
+	/**
+	 * Returns a view with only the rows that are accepted by the filter 
+	 * 
+	 * @param filter
+	 * @return
+	 */
+	public DataView filter(RowFilter filter) {
+		return append(new Stage(filter, 0, 0));
+	}
+	
+	/**
+	 * Returns a view with only the rows whose time stamp (read from the 
+	 * given field) is between the earliest and latest time stamps, 
+	 * inclusive 
+	 * 
+	 * @param timestamp
+	 * @param earliest
+	 * @param latest
+	 * @return
+	 */
+	public DataView between(Field timestamp, Date earliest, Date latest) {
+		final int index = indexOf(timestamp);
+		if (index == -1)
+			throw new IllegalArgumentException("No such field: " + timestamp);
+		final long from = earliest.getTime();
+		final long to = latest.getTime();
+		return filter(new RowFilter() {
+			@Override
+			public boolean accept(String[] row) {
+				if (index >= row.length)
+					return false;
+				long time = TimeUtils.parseMillis(row[index]);
+				return time != TimeUtils.NO_TIME && time >= from && time <= to;
+			}
+		});
+	}
+	
+	/**
+	 * Returns a view of the rows of this view that have the given value 
+	 * in the column of the given field 
+	 * 
+	 * If the column is dictionary encoded, rows are matched against the 
+	 * shared instance of the value, so that the values of the (encoded) 
+	 * rows are equal by identity and need not be compared. 
+	 * 
+	 * @param field
+	 * @param value
+	 * @return
+	 */
+	public DataView equalTo(Field field, final String value) {
+		final int index = indexOf(field);
+		if (index == -1)
+			throw new IllegalArgumentException("No such field: " + field);
+		String shared = null;
+		ColumnDictionary dictionary = 
+				validated != null ? validated.getDictionary(field) : null;
+		if (dictionary != null && value != null)
+			shared = dictionary.getValue(dictionary.getCode(value));
+		final String match = shared != null ? shared : value;
+		return filter(new RowFilter() {
+			@Override
+			public boolean accept(String[] row) {
+				return index < row.length && match != null &&
+						match.equals(row[index]);
+			}
+		});
+	}
+	
+	/**
+	 * Returns a cursor over the rows of this view 
+	 * 
+	 * @return
+	 */
+	public ViewCursor cursor() {
+		return new ViewCursor(this);
+	}
+	
+	/**
+	 * Returns the number of rows in this view (by iterating the view) 
+	 * 
+	 * @return
+	 */
+	public int count() {
+		ViewCursor cursor = cursor();
+		int count = 0;
+		while (cursor.next())
+			count++;
+		return count;
+	}
+	
+	/**
+	 * Copies the rows of this view 
+	 * 
+	 * @return
+	 */
+	public List<String[]> materialize() {
+		List<String[]> rows = new ArrayList<String[]>();
+		ViewCursor cursor = cursor();
+		while (cursor.next()) {
+			String[] row = new String[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				row[i] = cursor.get(i);
+			}
+			rows.add(row);
+		}
+		return rows;
+	}
+	
+	/**
+	 * Copies the values of one column of this view 
+	 * 
+	 * @param col the column of this view 
+	 * @return
+	 */
+	public String[] materialize(int col) {
+		List<String> values = new ArrayList<String>();
+		ViewCursor cursor = cursor();
+		while (cursor.next()) {
+			values.add(cursor.get(col));
+		}
+		return values.toArray(new String[values.size()]);
+	}
+	
+	private DataView append(Stage stage) {
+		Stage[] appended = new Stage[stages.length + 1];
+		System.arraycopy(stages, 0, appended, 0, stages.length);
+		appended[stages.length] = stage;
+		return new DataView(this, columns, fields, appended);
+	}
+	
+	/**
+	 * Returns the index of the given field in the underlying data, -1 
+	 * if it does not exist 
+	 * 
+	 * @param field
+	 * @return
+	 */
+	private int indexOf(Field field) {
+		if (validated != null)
+			return validated.getFieldIndex(field);
+		return data.getFields().indexOf(field);
+	}
+	
+	/*
+	 * Accessed by the cursor 
+	 */
+	
+	List<String[]> getRows() {
+		return rows;
+	}
+	
+	boolean isValidRow(String[] row) {
+		return validated == null || validated.isValidRow(row);
+	}
+	
+	int[] getColumns() {
+		return columns;
+	}
+	
+	Stage[] getStages() {
+		return stages;
+	}
+	
+	/**
+	 * A filter, or a range (skip and limit) of the rows that reach it 
+	 */
+	static final class Stage {
+		
+		final RowFilter filter;
+		final int skip;
+		final int limit;
+		
+		Stage(RowFilter filter, int skip, int limit) {
+			this.filter = filter;
+			this.skip = skip;
+			this.limit = limit;
+		}
+	}
+}
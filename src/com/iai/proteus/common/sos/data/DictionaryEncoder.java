@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+/**
+ * Builds the dictionaries of the columns of parsed rows, row by row
+ *
+ * Every column starts out encoded. A column stops being encoded (and its
+ * dictionary is dropped) as soon as it has more distinct values than the
+ * limit, or once it has been seen to have more distinct values than half
+ * its rows. The cells of encoded columns are replaced by the shared value
+ * of the dictionary, so that repeated values are only stored once.
+ */
+final class DictionaryEncoder {
+
+	/*
+	 * The number of rows before the ratio of distinct values is checked
+	 */
+	private static final int MIN_ROWS = 64;
+
+	private final ColumnDictionary[] dictionaries;
+	private final int limit;
+	private int rows;
+
+	/**
+	 * Constructor
+	 *
+	 * @param columns
+	 * @param limit the largest number of distinct values of an encoded column
+	 */
+	DictionaryEncoder(int columns, int limit) {
+		this.dictionaries = new ColumnDictionary[columns];
+		for (int c = 0; c < columns; c++)
+			dictionaries[c] = new ColumnDictionary();
+		this.limit = limit;
+		this.rows = 0;
+	}
+
+	/**
+	 * Encodes the next row, in place
+	 *
+	 * @param row
+	 */
+	void encode(String[] row) {
+		rows++;
+		for (int c = 0; c < dictionaries.length; c++) {
+			ColumnDictionary dictionary = dictionaries[c];
+			if (dictionary == null)
+				continue;
+			String value = c < row.length ? row[c] : null;
+			int code = dictionary.add(value);
+			int cardinality = dictionary.getCardinality();
+			if (cardinality > limit ||
+					(rows >= MIN_ROWS && cardinality * 2 > rows)) {
+				dictionaries[c] = null;
+				continue;
+			}
+			if (value != null)
+				row[c] = dictionary.getValue(code);
+		}
+	}
+
+	/**
+	 * Returns the dictionary of the given column, null if the column
+	 * is not encoded
+	 *
+	 * @param col
+	 * @return
+	 */
+	ColumnDictionary getDictionary(int col) {
+		return col < dictionaries.length ? dictionaries[col] : null;
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+/**
+ * A compressed column of double values
+ *
+ * Each value is encoded as the XOR of its bits with the bits of the
+ * previous value: slowly changing values share the sign, exponent and
+ * high mantissa bits, so the XOR has many leading (and often trailing)
+ * zeros and only the bits in between are stored. Repeated values take one
+ * bit. The column is encoded in blocks of {@link #BLOCK_SIZE} values that
+ * are decoded independently, each starting with its first value in full.
+ *
+ * Encoding of a XOR: '0' if zero; '10' and the meaningful bits if they
+ * fit in the window of leading and trailing zeros of the previous XOR;
+ * otherwise '11', 5 bits of leading zeros, 6 bits of length minus one
+ * and the meaningful bits. NaN (missing) values are encoded like any
+ * other value.
+ */
+public class DoubleColumn {
+
+	/**
+	 * The number of values per block
+	 */
+	public static final int BLOCK_SIZE = TimeColumn.BLOCK_SIZE;
+
+	private final BitStream bits;
+	private final long[] offsets;
+	private final int size;
+
+	/**
+	 * Constructor
+	 *
+	 * @param bits
+	 * @param offsets
+	 * @param size
+	 */
+	private DoubleColumn(BitStream bits, long[] offsets, int size) {
+		this.bits = bits;
+		this.offsets = offsets;
+		this.size = size;
+	}
+
+	/**
+	 * Encodes the given values
+	 *
+	 * @param values
+	 * @return
+	 */
+	public static DoubleColumn encode(double[] values) {
+		int n = values.length;
+		int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		long[] offsets = new long[blocks];
+		BitStream bits = new BitStream();
+
+		for (int b = 0; b < blocks; b++) {
+			int from = b * BLOCK_SIZE;
+			int to = Math.min(n, from + BLOCK_SIZE);
+			offsets[b] = bits.position();
+
+			long previous = Double.doubleToRawLongBits(values[from]);
+			bits.write(previous, 64);
+
+			// the window of the previous XOR, none yet
+			int leading = Integer.MAX_VALUE;
+			int trailing = 0;
+			for (int i = from + 1; i < to; i++) {
+				long value = Double.doubleToRawLongBits(values[i]);
+				long xor = value ^ previous;
+				previous = value;
+				if (xor == 0) {
+					bits.write(0, 1);
+					continue;
+				}
+				int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+				int trail = Long.numberOfTrailingZeros(xor);
+				if (lead >= leading && trail >= trailing) {
+					bits.write(0x2, 2);
+					bits.write(xor >>> trailing, 64 - leading - trailing);
+				} else {
+					int length = 64 - lead - trail;
+					bits.write(0x3, 2);
+					bits.write(lead, 5);
+					bits.write(length - 1, 6);
+					bits.write(xor >>> trail, length);
+					leading = lead;
+					trailing = trail;
+				}
+			}
+		}
+		bits.trim();
+
+		return new DoubleColumn(bits, offsets, n);
+	}
+
+	/**
+	 * Returns the number of values
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of blocks
+	 *
+	 * @return
+	 */
+	public int getBlockCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * Decodes the given block
+	 *
+	 * @param block
+	 * @param out an array of at least {@link #BLOCK_SIZE} values
+	 * @return the number of values decoded
+	 */
+	public int decode(int block, double[] out) {
+		int count = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+		BitStream.Reader reader = bits.reader(offsets[block]);
+
+		long value = reader.read(64);
+		out[0] = Double.longBitsToDouble(value);
+		int leading = 0;
+		int trailing = 0;
+		for (int i = 1; i < count; i++) {
+			if (reader.readBit()) {
+				if (reader.readBit()) {
+					leading = (int) reader.read(5);
+					int length = (int) reader.read(6) + 1;
+					trailing = 64 - leading - length;
+				}
+				value ^= reader.read(64 - leading - trailing) << trailing;
+			}
+			out[i] = Double.longBitsToDouble(value);
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes all values
+	 *
+	 * @return
+	 */
+	public double[] decode() {
+		double[] values = new double[size];
+		double[] buffer = new double[BLOCK_SIZE];
+		for (int b = 0; b < offsets.length; b++) {
+			int count = decode(b, buffer);
+			System.arraycopy(buffer, 0, values, b * BLOCK_SIZE, count);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns an iterator over the decoded blocks, starting at the given
+	 * block
+	 *
+	 * @param block
+	 * @return
+	 */
+	public Blocks blocks(int block) {
+		return new Blocks(block);
+	}
+
+	/**
+	 * Returns the approximate size of the column in bytes
+	 *
+	 * @return
+	 */
+	public long getMemorySize() {
+		return bits.getMemorySize() + offsets.length * 8L;
+	}
+
+	/**
+	 * Decodes one block at a time into a reused buffer
+	 */
+	public class Blocks {
+
+		private final double[] values;
+		private int block;
+		private int count;
+
+		private Blocks(int block) {
+			this.values = new double[BLOCK_SIZE];
+			this.block = block - 1;
+		}
+
+		/**
+		 * Decodes the next block
+		 *
+		 * @return false if there are no more blocks
+		 */
+		public boolean next() {
+			if (block + 1 >= offsets.length)
+				return false;
+			count = decode(++block, values);
+			return true;
+		}
+
+		/**
+		 * Returns the index of the current block
+		 *
+		 * @return
+		 */
+		public int getBlock() {
+			return block;
+		}
+
+		/**
+		 * Returns the row of the first value of the current block
+		 *
+		 * @return
+		 */
+		public int getFirstRow() {
+			return block * BLOCK_SIZE;
+		}
+
+		/**
+		 * Returns the number of values of the current block
+		 *
+		 * @return
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the values of the current block; only the first count
+		 * values are valid, and the array is reused by next()
+		 *
+		 * @return
+		 */
+		public double[] getValues() {
+			return values;
+		}
+	}
+
+}
@@ -9,5 +9,6 @@ public enum FieldType {
 
 	INTEGER,
 	DOUBLE, 
-	TIMESTAMP
+	TIMESTAMP,
+	STRING
 }
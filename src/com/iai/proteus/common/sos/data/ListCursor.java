@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.List;
+
+/**
+ * A cursor over a list of rows, used by the default methods of
+ * {@link SensorData}
+ */
+final class ListCursor extends RangeCursor {
+
+	private final List<String[]> rows;
+	private final int columns;
+	private String[] current;
+
+	/**
+	 * Constructor
+	 *
+	 * @param rows
+	 * @param columns
+	 */
+	ListCursor(List<String[]> rows, int columns) {
+		this(rows, columns, 0, rows.size());
+	}
+
+	private ListCursor(List<String[]> rows, int columns, int from, int to) {
+		super(from, to);
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	@Override
+	boolean load(int row) {
+		current = rows.get(row);
+		return true;
+	}
+
+	@Override
+	RangeCursor copy(int from, int to) {
+		return new ListCursor(rows, columns, from, to);
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columns;
+	}
+
+	@Override
+	public String getString(int col) {
+		return col < current.length ? current[col] : null;
+	}
+
+}
@@ -19,6 +19,11 @@ public class OMData extends DSVData {
 	private String sepBlock;
 	private String sepDecimal;
 	
+	private ParseOptions options;
+	private boolean projectionResolved;
+	
+	private ValuesDecoder decoder;
+	
 	/**
 	 * Constructor 
 	 * 
@@ -36,17 +41,108 @@ public class OMData extends DSVData {
 	 * @param values
 	 */
 	public void parseAndAddValues(String values) {
-		String[] parts = values.split(sepToken);
+		
+		resolveProjection();
+		
+		String[] parts;
+		if (projection == null) {
+			parts = values.split(sepToken);
+		} else {
+			parts = splitProjected(values);
+		}
+		getIngest().add(parts);
 		data.add(parts);
 	}
 	
+	/**
+	 * Decodes the next chunk of the text of a swe:values element, which 
+	 * may hold any number of (partial) blocks separated by the block 
+	 * separator, and adds the decoded blocks to this data set 
+	 * 
+	 * The separators must be set before the first chunk; the last block 
+	 * is added by endValues(). 
+	 * 
+	 * @param ch
+	 * @param start
+	 * @param length
+	 */
+	public void addValues(char[] ch, int start, int length) {
+		if (decoder == null) {
+			resolveProjection();
+			decoder = new ValuesDecoder(sepToken, sepBlock, sepDecimal, 
+					projection, fields.size(), data, getIngest());
+		}
+		decoder.add(ch, start, length);
+	}
+	
+	/**
+	 * Ends the text of a swe:values element 
+	 * 
+	 */
+	public void endValues() {
+		if (decoder != null) {
+			decoder.finish();
+			decoder = null;
+		}
+	}
+	
+	/*
+	 * The fields are known once the values start arriving 
+	 */
+	private void resolveProjection() {
+		if (!projectionResolved) {
+			if (options != null)
+				setHeader(new ArrayList<Field>(fields), options);
+			projectionResolved = true;
+		}
+	}
+	
+	/**
+	 * Splits the values, only extracting the tokens of the projected 
+	 * columns 
+	 * 
+	 * @param values
+	 * @return
+	 */
+	private String[] splitProjected(String values) {
+		String[] parts = new String[projection.length];
+		int col = 0;
+		int wanted = 0;
+		int start = 0;
+		while (wanted < projection.length) {
+			int next = values.indexOf(sepToken, start);
+			if (projection[wanted] == col) {
+				parts[wanted++] = next == -1 ? 
+						values.substring(start) : values.substring(start, next);
+			}
+			if (next == -1)
+				break;
+			start = next + sepToken.length();
+			col++;
+		}
+		// tokens missing from short blocks 
+		for (int i = wanted; i < parts.length; i++)
+			parts[i] = "";
+		return parts;
+	}
+	
+	/**
+	 * Sets the parse options, which must be done after the fields have 
+	 * been added but before any values are parsed 
+	 * 
+	 * @param options
+	 */
+	public void setParseOptions(ParseOptions options) {
+		this.options = options;
+	}
+	
 	/**
 	 * Adds a field 
 	 * 
 	 * @param field
 	 */
 	public void addField(Field field) {
-		fields.add(field);
+		super.addField(field);
 	}
 	
 	/**
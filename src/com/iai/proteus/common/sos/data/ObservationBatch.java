@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of observation rows, as published while a response is read 
+ * 
+ * The first batch of a response is the header batch, which has the 
+ * fields and no rows; all following batches share the same fields. 
+ */
+public class ObservationBatch {
+
+	private final List<Field> fields;
+	private final List<String[]> rows;
+	private final long firstRow;
+	private final boolean header;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param fields
+	 * @param rows
+	 * @param firstRow the index of the first row of the batch in the response 
+	 */
+	public ObservationBatch(List<Field> fields, List<String[]> rows, 
+			long firstRow) 
+	{
+		this(fields, rows, firstRow, false);
+	}
+	
+	private ObservationBatch(List<Field> fields, List<String[]> rows, 
+			long firstRow, boolean header) 
+	{
+		this.fields = fields;
+		this.rows = rows;
+		this.firstRow = firstRow;
+		this.header = header;
+	}
+	
+	/**
+	 * Returns the header batch for the given fields 
+	 * 
+	 * @param fields
+	 * @return
+	 */
+	public static ObservationBatch header(List<Field> fields) {
+		return new ObservationBatch(fields, 
+				Collections.<String[]>emptyList(), 0, true);
+	}
+
+	/**
+	 * Returns the fields 
+	 * 
+	 * @return
+	 */
+	public List<Field> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Returns the rows, with values in the order of the fields 
+	 * 
+	 * @return
+	 */
+	public List<String[]> getRows() {
+		return rows;
+	}
+	
+	/**
+	 * Returns the index of the first row of the batch in the response 
+	 * 
+	 * @return
+	 */
+	public long getFirstRow() {
+		return firstRow;
+	}
+	
+	/**
+	 * Returns true if this is the header batch 
+	 * 
+	 * @return
+	 */
+	public boolean isHeader() {
+		return header;
+	}
+	
+}
@@ -0,0 +1,759 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Spliterator;
+
+import org.apache.log4j.Logger;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * Sensor data stored column by column outside of the Java heap.
+ *
+ * Each column is stored in blocks of direct buffers: integer and time
+ * columns as longs (times as milliseconds since the epoch), decimal
+ * columns as doubles and all other columns as UTF-8 text in a shared
+ * off-heap text area. The typed accessors read values without creating
+ * any objects; the {@link SensorData} methods materialize Strings.
+ *
+ * Closing the data drops its buffers, after which it can no longer be
+ * used; the memory itself is released by the collector, once no cursor
+ * or reader still holds a buffer, so that closing the data while it is
+ * being read can never make a reader read released memory.
+ */
+public class OffHeapData implements SensorData, Closeable {
+
+	private static final Logger log = Logger.getLogger(OffHeapData.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/*
+	 * Rows per block, and bytes per block of text
+	 */
+	private static final int BLOCK_SHIFT = 16;
+	private static final int BLOCK_ROWS = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_ROWS - 1;
+	private static final int TEXT_BLOCK_SIZE = 1 << 22;
+
+	/*
+	 * Stored in place of missing values
+	 */
+	private static final long NULL_LONG = Long.MIN_VALUE;
+	private static final long NULL_TEXT = -1L;
+
+	/**
+	 * How a column is stored
+	 */
+	private enum Kind {
+		LONG,
+		DOUBLE,
+		TIME,
+		TEXT
+	}
+
+	private final List<Field> fields;
+	private final Kind[] kinds;
+
+	/*
+	 * Blocks per column, and the text area
+	 */
+	private final List<List<ByteBuffer>> columns;
+	private final List<ByteBuffer> text;
+
+	private int size;
+	private volatile boolean closed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fields
+	 * @param types the type of each field, null for text
+	 */
+	public OffHeapData(List<Field> fields, FieldType[] types) {
+		if (fields.size() != types.length)
+			throw new IllegalArgumentException("Expected one type per field");
+
+		this.fields = Collections.unmodifiableList(new ArrayList<Field>(fields));
+		kinds = new Kind[types.length];
+		for (int i = 0; i < types.length; i++) {
+			kinds[i] = kindOf(types[i]);
+		}
+
+		columns = new ArrayList<List<ByteBuffer>>(types.length);
+		for (int i = 0; i < types.length; i++) {
+			columns.add(new ArrayList<ByteBuffer>());
+		}
+		text = new ArrayList<ByteBuffer>();
+		size = 0;
+		closed = false;
+	}
+
+	/**
+	 * Returns an off-heap copy of the given data
+	 *
+	 * The type of each column is taken from the given data, but columns
+	 * with values that cannot be parsed as their type (the type of a
+	 * column may have been detected from a sample of its values) are
+	 * stored as text, so that no value is lost
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static OffHeapData copyOf(SensorData data) {
+		List<Field> fields = data.getFields();
+		List<Field> times = data.getFields(FieldType.TIMESTAMP);
+		List<Field> integers = data.getFields(FieldType.INTEGER);
+		List<Field> doubles = data.getFields(FieldType.DOUBLE);
+
+		FieldType[] types = new FieldType[fields.size()];
+		for (int i = 0; i < types.length; i++) {
+			Field field = fields.get(i);
+			if (times.contains(field))
+				types[i] = FieldType.TIMESTAMP;
+			else if (integers.contains(field))
+				types[i] = FieldType.INTEGER;
+			else if (doubles.contains(field))
+				types[i] = FieldType.DOUBLE;
+		}
+
+		// check all values of the typed columns
+		DataCursor cursor = data.cursor();
+		while (cursor.next()) {
+			for (int i = 0; i < types.length; i++) {
+				if (types[i] != null &&
+						!parses(kindOf(types[i]), cursor.getString(i)))
+				{
+					log.info("Storing " + fields.get(i) + " as text, " +
+							"not all of its values are of type " + types[i]);
+					types[i] = null;
+				}
+			}
+		}
+
+		OffHeapData copy = new OffHeapData(fields, types);
+		copy.append(data);
+		return copy;
+	}
+
+	/**
+	 * Appends all rows of the given data, whose fields must include the
+	 * fields of this data
+	 *
+	 * The rows are read with a cursor, so they are not materialized on
+	 * the heap.
+	 *
+	 * @param data
+	 * @throws IllegalArgumentException if the data lacks a field, or if a
+	 * value cannot be parsed as the type of its column (the rows before
+	 * it have then been added)
+	 */
+	public void append(SensorData data) {
+		checkOpen();
+		List<Field> source = data.getFields();
+		int[] sources = new int[fields.size()];
+		for (int col = 0; col < sources.length; col++) {
+			sources[col] = source.indexOf(fields.get(col));
+			if (sources[col] == -1)
+				throw new IllegalArgumentException("No such field in the " +
+						"appended data: " + fields.get(col));
+		}
+		DataCursor cursor = data.cursor();
+		while (cursor.next()) {
+			for (int col = 0; col < sources.length; col++)
+				checkValue(col, cursor.getString(sources[col]));
+			for (int col = 0; col < sources.length; col++)
+				putValue(col, cursor.getString(sources[col]));
+			size++;
+		}
+	}
+
+	/**
+	 * Adds a row, with one value per field
+	 *
+	 * Empty values are stored as missing values
+	 *
+	 * @param row
+	 * @throws IllegalArgumentException if a value cannot be parsed as
+	 * the type of its column (the row is then not added)
+	 */
+	public void addRow(String[] row) {
+		checkOpen();
+		// check all values before anything is stored
+		for (int col = 0; col < kinds.length; col++)
+			checkValue(col, col < row.length ? row[col] : null);
+		for (int col = 0; col < kinds.length; col++)
+			putValue(col, col < row.length ? row[col] : null);
+		size++;
+	}
+
+	private void checkValue(int col, String value) {
+		if (!parses(kinds[col], value))
+			throw new IllegalArgumentException("Not a valid " +
+					kinds[col].name().toLowerCase() + " value of " +
+					fields.get(col) + ": '" + value + "'");
+	}
+
+	/*
+	 * Stores the value of the given column of the next row (at size)
+	 */
+	private void putValue(int col, String value) {
+		int block = size >>> BLOCK_SHIFT;
+		int offset = (size & BLOCK_MASK) << 3;
+		List<ByteBuffer> blocks = columns.get(col);
+		if (block == blocks.size())
+			blocks.add(allocate(BLOCK_ROWS << 3));
+		ByteBuffer buffer = blocks.get(block);
+		switch (kinds[col]) {
+		case LONG:
+			buffer.putLong(offset, parseLong(value));
+			break;
+		case DOUBLE:
+			buffer.putDouble(offset, parseDouble(value));
+			break;
+		case TIME:
+			buffer.putLong(offset, TimeUtils.parseMillis(value));
+			break;
+		case TEXT:
+			buffer.putLong(offset, putText(value));
+			break;
+		}
+	}
+
+	/**
+	 * Returns the value of a decimal or integer column as a double,
+	 * NaN if it is missing
+	 *
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public double getDouble(int row, int col) {
+		switch (kinds[col]) {
+		case DOUBLE:
+			return slot(row, col).getDouble(offset(row));
+		case LONG:
+			long value = slot(row, col).getLong(offset(row));
+			return value == NULL_LONG ? Double.NaN : value;
+		default:
+			throw new IllegalArgumentException("Not a numeric column: " +
+					fields.get(col));
+		}
+	}
+
+	/**
+	 * Returns the value of an integer or time column as a long
+	 * (milliseconds since the epoch for times), Long.MIN_VALUE if
+	 * it is missing
+	 *
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public long getLong(int row, int col) {
+		if (kinds[col] != Kind.LONG && kinds[col] != Kind.TIME)
+			throw new IllegalArgumentException("Not an integer or time " +
+					"column: " + fields.get(col));
+		return slot(row, col).getLong(offset(row));
+	}
+
+	/**
+	 * Returns true if the value is missing
+	 *
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public boolean isNull(int row, int col) {
+		ByteBuffer buffer = slot(row, col);
+		switch (kinds[col]) {
+		case DOUBLE:
+			return Double.isNaN(buffer.getDouble(offset(row)));
+		case TEXT:
+			return buffer.getLong(offset(row)) == NULL_TEXT;
+		default:
+			return buffer.getLong(offset(row)) == NULL_LONG;
+		}
+	}
+
+	/**
+	 * Returns the value as a String, null if it is missing
+	 *
+	 * Times are formatted in the standard format, and decimals as
+	 * by Double.toString()
+	 *
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public String getString(int row, int col) {
+		if (isNull(row, col))
+			return null;
+		ByteBuffer buffer = slot(row, col);
+		int offset = offset(row);
+		switch (kinds[col]) {
+		case LONG:
+			return Long.toString(buffer.getLong(offset));
+		case DOUBLE:
+			return Double.toString(buffer.getDouble(offset));
+		case TIME:
+			return TimeUtils.format(new Date(buffer.getLong(offset)));
+		default:
+			return getText(buffer.getLong(offset));
+		}
+	}
+
+	/**
+	 * Copies a range of a numeric column into the given array, missing
+	 * values as NaN
+	 *
+	 * Decimal columns are copied in bulk, block by block.
+	 *
+	 * @param col
+	 * @param from the first row
+	 * @param dst
+	 * @param dstOffset
+	 * @param length
+	 */
+	public void getDoubles(int col, int from, double[] dst, int dstOffset,
+			int length)
+	{
+		if (kinds[col] != Kind.DOUBLE && kinds[col] != Kind.LONG)
+			throw new IllegalArgumentException("Not a numeric column: " +
+					fields.get(col));
+		checkRange(from, length);
+		int row = from;
+		int end = from + length;
+		while (row < end) {
+			int count = Math.min(end - row, BLOCK_ROWS - (row & BLOCK_MASK));
+			ByteBuffer block = columns.get(col).get(row >>> BLOCK_SHIFT);
+			ByteBuffer view = block.duplicate().order(block.order());
+			view.position(offset(row));
+			if (kinds[col] == Kind.DOUBLE) {
+				view.asDoubleBuffer().get(dst, dstOffset, count);
+			} else {
+				LongBuffer longs = view.asLongBuffer();
+				for (int i = 0; i < count; i++) {
+					long value = longs.get(i);
+					dst[dstOffset + i] = value == NULL_LONG ? Double.NaN : value;
+				}
+			}
+			row += count;
+			dstOffset += count;
+		}
+	}
+
+	/**
+	 * Copies a range of an integer or time column into the given array,
+	 * in bulk, block by block; missing values as Long.MIN_VALUE
+	 *
+	 * @param col
+	 * @param from the first row
+	 * @param dst
+	 * @param dstOffset
+	 * @param length
+	 */
+	public void getLongs(int col, int from, long[] dst, int dstOffset,
+			int length)
+	{
+		if (kinds[col] != Kind.LONG && kinds[col] != Kind.TIME)
+			throw new IllegalArgumentException("Not an integer or time " +
+					"column: " + fields.get(col));
+		checkRange(from, length);
+		int row = from;
+		int end = from + length;
+		while (row < end) {
+			int count = Math.min(end - row, BLOCK_ROWS - (row & BLOCK_MASK));
+			ByteBuffer block = columns.get(col).get(row >>> BLOCK_SHIFT);
+			ByteBuffer view = block.duplicate().order(block.order());
+			view.position(offset(row));
+			view.asLongBuffer().get(dst, dstOffset, count);
+			row += count;
+			dstOffset += count;
+		}
+	}
+
+	/**
+	 * Returns the index of the given field, -1 if it does not exist
+	 *
+	 * @param field
+	 * @return
+	 */
+	public int getFieldIndex(Field field) {
+		return fields.indexOf(field);
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public List<Field> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public List<Field> getFields(FieldType type) {
+		List<Field> matching =
+				new ArrayList<Field>();
+		for (int i = 0; i < kinds.length; i++) {
+			boolean matches = false;
+			switch (type) {
+			case INTEGER:
+				matches = kinds[i] == Kind.LONG;
+				break;
+			case DOUBLE:
+				// integers are also decimals
+				matches = kinds[i] == Kind.LONG || kinds[i] == Kind.DOUBLE;
+				break;
+			case TIMESTAMP:
+				matches = kinds[i] == Kind.TIME;
+				break;
+			case STRING:
+				matches = kinds[i] == Kind.TEXT;
+				break;
+			}
+			if (matches)
+				matching.add(fields.get(i));
+		}
+		return matching;
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public String[] getData(Field variable) {
+		checkOpen();
+		int col = indexOf(variable);
+		String[] values = new String[size];
+		for (int row = 0; row < size; row++) {
+			values[row] = getCell(row, col);
+		}
+		return values;
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public List<String[]> getData() {
+		return getData(fields);
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public List<String[]> getData(List<Field> variables) {
+		return getRows(indexesOf(variables), -1, 0, 0);
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public List<String[]> getData(List<Field> variables,
+			Date earliest, Date latest, Field timestamp)
+	{
+		return getRows(indexesOf(variables), timeIndexOf(timestamp),
+				earliest.getTime(), latest.getTime());
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public List<String[]> getData(Date earliest, Date latest,
+			Field timestamp)
+	{
+		return getData(fields, earliest, latest, timestamp);
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public DataCursor cursor() {
+		return new OffHeapCursor(0, size);
+	}
+
+	/**
+	 * Implements {@link SensorData}
+	 */
+	@Override
+	public Spliterator<DataCursor> spliterator() {
+		return new RowSpliterator(new OffHeapCursor(0, size), true);
+	}
+
+	/**
+	 * Drops the off-heap buffers, whose memory is released by the
+	 * collector once they are no longer in use
+	 */
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		size = 0;
+		for (List<ByteBuffer> blocks : columns)
+			blocks.clear();
+		text.clear();
+	}
+
+	/**
+	 * Returns true if the data has been closed
+	 *
+	 * @return
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns the rows with the given columns, optionally restricted to
+	 * rows whose time (in the given column) is within the given range
+	 *
+	 * @param cols
+	 * @param timeCol the time column, -1 for all rows
+	 * @param earliest
+	 * @param latest
+	 * @return
+	 */
+	private List<String[]> getRows(int[] cols, int timeCol, long earliest,
+			long latest)
+	{
+		checkOpen();
+		List<String[]> rows = new ArrayList<String[]>();
+		for (int row = 0; row < size; row++) {
+			if (timeCol != -1) {
+				long time = getLong(row, timeCol);
+				if (time == NULL_LONG || time < earliest || time > latest)
+					continue;
+			}
+			String[] values = new String[cols.length];
+			for (int i = 0; i < cols.length; i++) {
+				values[i] = getCell(row, cols[i]);
+			}
+			rows.add(values);
+		}
+		return rows;
+	}
+
+	/*
+	 * Materialized rows hold empty strings for missing values, like 
+	 * parsed rows do 
+	 */
+	private String getCell(int row, int col) {
+		String value = getString(row, col);
+		return value != null ? value : "";
+	}
+
+	private int indexOf(Field field) {
+		int col = fields.indexOf(field);
+		if (col == -1)
+			throw new IllegalArgumentException("No such field: " + field);
+		return col;
+	}
+
+	private int[] indexesOf(List<Field> variables) {
+		int[] cols = new int[variables.size()];
+		for (int i = 0; i < cols.length; i++) {
+			cols[i] = indexOf(variables.get(i));
+		}
+		return cols;
+	}
+
+	private int timeIndexOf(Field field) {
+		int col = indexOf(field);
+		if (kinds[col] != Kind.TIME)
+			throw new IllegalArgumentException("Not a time field: " + field);
+		return col;
+	}
+
+	private ByteBuffer slot(int row, int col) {
+		checkOpen();
+		if (row < 0 || row >= size)
+			throw new IndexOutOfBoundsException("Row: " + row);
+		return columns.get(col).get(row >>> BLOCK_SHIFT);
+	}
+
+	private static int offset(int row) {
+		return (row & BLOCK_MASK) << 3;
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException("The data has been closed");
+	}
+
+	private void checkRange(int from, int length) {
+		checkOpen();
+		if (from < 0 || length < 0 || from + length > size)
+			throw new IndexOutOfBoundsException("Rows: " + from + " to " +
+					(from + length));
+	}
+
+	private static Kind kindOf(FieldType type) {
+		if (type == FieldType.INTEGER)
+			return Kind.LONG;
+		else if (type == FieldType.DOUBLE)
+			return Kind.DOUBLE;
+		else if (type == FieldType.TIMESTAMP)
+			return Kind.TIME;
+		return Kind.TEXT;
+	}
+
+	/*
+	 * True if the value is missing (null or empty) or can be stored as
+	 * the given kind
+	 */
+	private static boolean parses(Kind kind, String value) {
+		if (kind == Kind.TEXT || value == null || value.trim().isEmpty())
+			return true;
+		switch (kind) {
+		case LONG:
+			return parseLong(value) != NULL_LONG;
+		case DOUBLE:
+			return !Double.isNaN(parseDouble(value)) ||
+					value.trim().equals("NaN");
+		default:
+			return TimeUtils.parseMillis(value) != TimeUtils.NO_TIME;
+		}
+	}
+
+	/**
+	 * Stores text in the text area, returns its address (block and offset)
+	 *
+	 * @param value
+	 * @return
+	 */
+	private long putText(String value) {
+		if (value == null)
+			return NULL_TEXT;
+		byte[] bytes = value.getBytes(UTF8);
+		int needed = bytes.length + 4;
+
+		ByteBuffer block = text.isEmpty() ? null : text.get(text.size() - 1);
+		if (block == null || block.remaining() < needed) {
+			block = allocate(Math.max(TEXT_BLOCK_SIZE, needed));
+			text.add(block);
+		}
+		int offset = block.position();
+		block.putInt(bytes.length);
+		block.put(bytes);
+		return ((long) (text.size() - 1) << 32) | offset;
+	}
+
+	/**
+	 * Returns the text stored at the given address
+	 *
+	 * @param address
+	 * @return
+	 */
+	private String getText(long address) {
+		ByteBuffer block = text.get((int) (address >>> 32));
+		int offset = (int) address;
+		int length = block.getInt(offset);
+		byte[] bytes = new byte[length];
+		block.get(offset + 4, bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static long parseLong(String value) {
+		if (value != null) {
+			try {
+				return Long.parseLong(value.trim());
+			} catch (NumberFormatException e) {
+				// missing
+			}
+		}
+		return NULL_LONG;
+	}
+
+	private static double parseDouble(String value) {
+		if (value != null) {
+			try {
+				return Double.parseDouble(value.trim());
+			} catch (NumberFormatException e) {
+				// missing
+			}
+		}
+		return Double.NaN;
+	}
+
+	private static ByteBuffer allocate(int capacity) {
+		return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Cursor reading the typed values directly
+	 */
+	private class OffHeapCursor extends RangeCursor {
+
+		OffHeapCursor(int from, int to) {
+			super(from, to);
+		}
+
+		@Override
+		boolean load(int row) {
+			return true;
+		}
+
+		@Override
+		RangeCursor copy(int from, int to) {
+			return new OffHeapCursor(from, to);
+		}
+
+		@Override
+		public int getColumnCount() {
+			return kinds.length;
+		}
+
+		@Override
+		public String getString(int col) {
+			return OffHeapData.this.getString(row, col);
+		}
+
+		@Override
+		public double getDouble(int col) {
+			if (kinds[col] == Kind.DOUBLE || kinds[col] == Kind.LONG)
+				return OffHeapData.this.getDouble(row, col);
+			return super.getDouble(col);
+		}
+
+		@Override
+		public long getEpochMillis(int col) {
+			if (kinds[col] == Kind.TIME)
+				return getLong(row, col);
+			return super.getEpochMillis(col);
+		}
+
+		@Override
+		public boolean isNull(int col) {
+			return OffHeapData.this.isNull(row, col);
+		}
+	}
+}
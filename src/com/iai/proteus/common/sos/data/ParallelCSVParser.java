@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses the records of large CSV inputs in parallel.
+ *
+ * The input is split into chunks at nominal positions. Since a line break
+ * inside a quoted cell does not end a record, the number of quotes in
+ * each chunk is first counted in parallel, which tells whether a nominal
+ * position is inside a quoted cell. Each chunk then moves its start and end
+ * forward to the next record boundary outside quotes, tokenizes its records
+ * and the per-chunk rows are concatenated in input order.
+ *
+ * Counting quotes assumes that quotes only occur in quoted cells (where
+ * they are doubled). A bare quote inside an unquoted cell, which the
+ * tokenizer takes literally, flips the count, so that boundaries may be
+ * found inside records. Each chunk therefore tokenizes on past its end
+ * to the record boundary that follows it, and checks that this is the
+ * start of the next chunk (or the end); if not, the input cannot be
+ * split, and parse() returns null for the caller to parse sequentially.
+ */
+final class ParallelCSVParser {
+
+	private final CharSequence input;
+	private final char separator;
+	private final int[] projection;
+	private final int headerLength;
+	private final int chunkSize;
+	private final ForkJoinPool pool;
+
+	private int parsedEnd;
+
+	/**
+	 * Constructor
+	 *
+	 * @param input
+	 * @param separator
+	 * @param projection the cells to keep, null for all
+	 * @param headerLength the number of columns in the header
+	 * @param options
+	 */
+	ParallelCSVParser(CharSequence input, char separator, int[] projection,
+			int headerLength, ParseOptions options)
+	{
+		this.input = input;
+		this.separator = separator;
+		this.projection = projection;
+		this.headerLength = headerLength;
+		this.chunkSize = options.getChunkSize();
+		this.pool = options.getPool();
+	}
+
+	/**
+	 * Parses all records from the given position (which must be at the
+	 * start of a record) to the end of the input
+	 *
+	 * @param start
+	 * @return the rows, or null if the input could not be split into
+	 * chunks (see above)
+	 */
+	List<String[]> parse(int start) {
+		return parse(start, false);
+	}
+
+	/**
+	 * Parses the records from the given position (which must be at the
+	 * start of a record) to the end of the input
+	 *
+	 * @param start
+	 * @param partial true if the input is a segment of a larger input,
+	 * in which case the last record may be incomplete and is not parsed
+	 * (see getParsedEnd())
+	 * @return the rows, or null if the input could not be split into
+	 * chunks (see above)
+	 */
+	List<String[]> parse(int start, boolean partial) {
+
+		int end = input.length();
+		int length = end - start;
+		int n = Math.max(1, (int) ((length + (long) chunkSize - 1) / chunkSize));
+
+		int[] nominal = new int[n + 1];
+		for (int i = 0; i <= n; i++) {
+			nominal[i] = start + (int) ((long) length * i / n);
+		}
+
+		/*
+		 * Count the quotes in each chunk
+		 */
+		List<QuoteCountTask> counts = new ArrayList<QuoteCountTask>(n);
+		for (int i = 0; i < n; i++) {
+			QuoteCountTask task = new QuoteCountTask(nominal[i], nominal[i + 1]);
+			pool.execute(task);
+			counts.add(task);
+		}
+
+		// whether each nominal position is inside a quoted cell
+		boolean[] quoted = new boolean[n + 1];
+		long total = 0;
+		for (int i = 0; i < n; i++) {
+			quoted[i] = (total & 1) == 1;
+			total += counts.get(i).join();
+		}
+		quoted[n] = (total & 1) == 1;
+
+		// stop after the last complete record of a segment
+		if (partial) {
+			end = start;
+			for (int i = n - 1; i >= 0 && end == start; i--) {
+				end = lastRecordEnd(nominal[i], quoted[i], nominal[i + 1], start);
+			}
+		}
+		parsedEnd = end;
+		if (end == start)
+			return new ArrayList<String[]>();
+
+		/*
+		 * Parse the chunks
+		 */
+		List<ChunkTask> chunks = new ArrayList<ChunkTask>(n);
+		for (int i = 0; i < n; i++) {
+			ChunkTask task = new ChunkTask(
+					i == 0 ? -1 : nominal[i], quoted[i], start,
+					i == n - 1 ? -1 : nominal[i + 1], quoted[i + 1], end);
+			pool.execute(task);
+			chunks.add(task);
+		}
+
+		List<List<String[]>> segments = new ArrayList<List<String[]>>(n);
+		int rows = 0;
+		boolean split = true;
+		for (ChunkTask task : chunks) {
+			List<String[]> segment = task.join();
+			if (segment == null) {
+				split = false;
+				continue;
+			}
+			segments.add(segment);
+			rows += segment.size();
+		}
+		if (!split)
+			return null;
+
+		List<String[]> result = new ArrayList<String[]>(rows);
+		for (List<String[]> segment : segments) {
+			result.addAll(segment);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the position after the last parsed record
+	 *
+	 * @return
+	 */
+	int getParsedEnd() {
+		return parsedEnd;
+	}
+
+	/**
+	 * Returns the position after the last line break (outside quotes)
+	 * in the given range, or the given default if there is none
+	 *
+	 * @param from
+	 * @param inQuote true if the start position is inside a quoted cell
+	 * @param to
+	 * @param none
+	 * @return
+	 */
+	private int lastRecordEnd(int from, boolean inQuote, int to, int none) {
+		int last = none;
+		int pos = from;
+		while (pos < to) {
+			char c = input.charAt(pos++);
+			if (c == '"')
+				inQuote = !inQuote;
+			else if (!inQuote && (c == '\n' ||
+					(c == '\r' && (pos >= to || input.charAt(pos) != '\n'))))
+				last = pos;
+		}
+		return last;
+	}
+
+	/**
+	 * Returns the position of the first record that starts after the given
+	 * position
+	 *
+	 * @param from
+	 * @param inQuote true if the position is inside a quoted cell
+	 * @return
+	 */
+	private int nextRecordStart(int from, boolean inQuote) {
+		int end = input.length();
+		int pos = from;
+		while (pos < end) {
+			char c = input.charAt(pos++);
+			if (c == '"') {
+				inQuote = !inQuote;
+			} else if (!inQuote && (c == '\n' || c == '\r')) {
+				if (c == '\r' && pos < end && input.charAt(pos) == '\n')
+					pos++;
+				return pos;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Counts the quote characters in a range of the input
+	 */
+	private class QuoteCountTask extends RecursiveTask<Integer> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		QuoteCountTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Integer compute() {
+			int count = 0;
+			for (int i = from; i < to; i++) {
+				if (input.charAt(i) == '"')
+					count++;
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Tokenizes the records of one chunk, returns null if its records do
+	 * not end at the start of the next chunk
+	 */
+	private class ChunkTask extends RecursiveTask<List<String[]>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final boolean fromQuoted;
+		private final int start;
+		private final int to;
+		private final boolean toQuoted;
+		private final int end;
+
+		/**
+		 * Constructor
+		 *
+		 * @param from the nominal start, or -1 if the chunk starts at start
+		 * @param fromQuoted
+		 * @param start
+		 * @param to the nominal end, or -1 if the chunk ends at end
+		 * @param toQuoted
+		 * @param end
+		 */
+		ChunkTask(int from, boolean fromQuoted, int start,
+				int to, boolean toQuoted, int end)
+		{
+			this.from = from;
+			this.fromQuoted = fromQuoted;
+			this.start = start;
+			this.to = to;
+			this.toQuoted = toQuoted;
+			this.end = end;
+		}
+
+		@Override
+		protected List<String[]> compute() {
+			int first = from == -1 ? start :
+				Math.min(nextRecordStart(from, fromQuoted), end);
+			int last = to == -1 ? end :
+				Math.min(nextRecordStart(to, toQuoted), end);
+
+			List<String[]> rows = new ArrayList<String[]>();
+			if (first < last) {
+				// not bounded by the end of the chunk, to check that a
+				// record ends there
+				CSVTokenizer tokenizer = new CSVTokenizer(input, separator,
+						first, input.length());
+				String[] row;
+				while (tokenizer.position() < last &&
+						(row = tokenizer.next(projection)) != null)
+				{
+					// not a valid row (see getData())
+					if (headerLength > 1 && tokenizer.getCellCount() <= 1)
+						continue;
+					rows.add(row);
+				}
+				if (tokenizer.position() != last)
+					return null;
+			}
+			return rows;
+		}
+	}
+}
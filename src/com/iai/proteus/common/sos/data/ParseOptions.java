@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Options controlling how observation data is parsed.
+ *
+ * Callers that only need a few of the columns of a response can declare
+ * the fields they want before parsing, in which case all other columns
+ * are skipped by the parsers and never stored.
+ */
+public class ParseOptions {
+
+	private static final Logger log = Logger.getLogger(ParseOptions.class);
+
+	/*
+	 * The fields to keep, null if all fields should be kept
+	 */
+	private List<Field> fields;
+
+	/*
+	 * Parallel parsing of large inputs
+	 */
+	private boolean parallel;
+	private int chunkSize;
+	private ForkJoinPool pool;
+
+	/*
+	 * The number of rows the schema is inferred from
+	 */
+	private int schemaSampleRows;
+
+	/*
+	 * The largest number of distinct values of a dictionary encoded column
+	 */
+	private int dictionaryLimit;
+
+	/*
+	 * Whether column statistics are collected while parsing
+	 */
+	private boolean collectStatistics;
+
+	/**
+	 * Default constructor (keeps all fields)
+	 *
+	 */
+	public ParseOptions() {
+		fields = null;
+		// defaults
+		parallel = false;
+		chunkSize = 1 << 20;
+		pool = null;
+		schemaSampleRows = Schema.DEFAULT_SAMPLE_ROWS;
+		dictionaryLimit = ColumnDictionary.DEFAULT_MAX_CARDINALITY;
+		collectStatistics = true;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param fields the fields to keep
+	 */
+	public ParseOptions(List<Field> fields) {
+		this();
+		setFields(fields);
+	}
+
+	/**
+	 * Adds a field that should be kept when parsing
+	 *
+	 * @param field
+	 */
+	public void addField(Field field) {
+		if (fields == null)
+			fields = new ArrayList<Field>();
+		fields.add(field);
+	}
+
+	/**
+	 * Sets the fields that should be kept when parsing, null to keep
+	 * all fields
+	 *
+	 * @param fields
+	 */
+	public void setFields(List<Field> fields) {
+		if (fields != null)
+			this.fields = new ArrayList<Field>(fields);
+		else
+			this.fields = null;
+	}
+
+	/**
+	 * Returns the fields that should be kept, or null if all fields
+	 * should be kept
+	 *
+	 * @return
+	 */
+	public List<Field> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Returns true if only some of the fields should be kept
+	 *
+	 * @return
+	 */
+	public boolean isProjected() {
+		return fields != null;
+	}
+
+	/**
+	 * Sets whether large inputs should be split into chunks that are
+	 * parsed in parallel
+	 *
+	 * Inputs that cannot be split at the chunk boundaries found by
+	 * counting quotes (e.g. with a bare quote inside an unquoted cell)
+	 * are parsed sequentially instead, with the same result.
+	 *
+	 * @param parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Returns true if large inputs should be parsed in parallel
+	 *
+	 * @return
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Sets the approximate size (in characters) of the chunks that are
+	 * parsed in parallel; inputs smaller than this are parsed sequentially
+	 *
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive");
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Returns the approximate size (in characters) of parallel chunks
+	 *
+	 * @return
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the pool used for parallel parsing, null for the common pool
+	 *
+	 * @param pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the pool used for parallel parsing
+	 *
+	 * @return
+	 */
+	public ForkJoinPool getPool() {
+		if (pool == null)
+			return ForkJoinPool.commonPool();
+		return pool;
+	}
+
+	/**
+	 * Sets the number of rows the schema of the parsed data is
+	 * inferred from
+	 *
+	 * @param rows
+	 */
+	public void setSchemaSampleRows(int rows) {
+		if (rows <= 0)
+			throw new IllegalArgumentException("Sample must not be empty");
+		this.schemaSampleRows = rows;
+	}
+
+	/**
+	 * Returns the number of rows the schema is inferred from
+	 *
+	 * @return
+	 */
+	public int getSchemaSampleRows() {
+		return schemaSampleRows;
+	}
+
+	/**
+	 * Sets the largest number of distinct values of a column that is
+	 * dictionary encoded while parsing, 0 to not encode any columns
+	 *
+	 * @param limit
+	 */
+	public void setDictionaryLimit(int limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Invalid limit: " + limit);
+		this.dictionaryLimit = limit;
+	}
+
+	/**
+	 * Returns the largest number of distinct values of a dictionary
+	 * encoded column
+	 *
+	 * @return
+	 */
+	public int getDictionaryLimit() {
+		return dictionaryLimit;
+	}
+
+	/**
+	 * Sets whether the statistics of the columns should be collected
+	 * while parsing
+	 *
+	 * @param collectStatistics
+	 */
+	public void setCollectStatistics(boolean collectStatistics) {
+		this.collectStatistics = collectStatistics;
+	}
+
+	/**
+	 * Returns true if the statistics of the columns should be collected
+	 * while parsing
+	 *
+	 * @return
+	 */
+	public boolean isCollectStatistics() {
+		return collectStatistics;
+	}
+
+	/**
+	 * Returns the indexes (in ascending order) of the header fields that
+	 * should be kept, or null if all of them should be kept
+	 *
+	 * @param header
+	 * @return
+	 */
+	public int[] resolveProjection(List<Field> header) {
+		if (!isProjected())
+			return null;
+
+		Set<String> wanted = new HashSet<String>();
+		for (Field field : fields) {
+			wanted.add(field.getName().trim());
+		}
+
+		int[] indexes = new int[header.size()];
+		int count = 0;
+		for (int i = 0; i < header.size(); i++) {
+			if (wanted.contains(header.get(i).getName().trim()))
+				indexes[count++] = i;
+		}
+
+		if (count != wanted.size()) {
+			log.warn("Not all wanted fields were found");
+		}
+
+		// no need to project if every column is kept
+		if (count == header.size())
+			return null;
+
+		int[] projection = new int[count];
+		System.arraycopy(indexes, 0, projection, 0, count);
+		return projection;
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable sketch of the distribution of a stream of values, from
+ * which approximate quantiles (e.g. percentiles) are read (KLL sketch)
+ *
+ * Values are kept in levels, where a value at level h stands for 2^h
+ * values of the stream. When a level is full it is sorted and every other
+ * value (starting at a random offset) is promoted to the next level, the
+ * others are dropped. Lower levels have smaller capacities, geometrically
+ * decreasing by 2/3, so the sketch keeps O(k) values; with the default k
+ * the rank error of a quantile is typically well below 1%. Sketches
+ * built with the same k can be merged, e.g. to combine sketches of time
+ * chunks or offerings.
+ *
+ * NaN values are ignored.
+ */
+public class QuantileSketch {
+
+	/**
+	 * The default accuracy parameter
+	 */
+	public static final int DEFAULT_K = 200;
+
+	/*
+	 * The smallest capacity of a level
+	 */
+	private static final int MIN_CAPACITY = 8;
+
+	private final int k;
+
+	private double[][] levels;
+	private int[] sizes;
+	private int retained;
+	private int capacity;
+
+	private long count;
+	private double min;
+	private double max;
+
+	// for the coin flips when compacting
+	private long seed;
+
+	/**
+	 * Constructor, with the default accuracy
+	 *
+	 */
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param k the accuracy parameter: larger values keep more values
+	 * and give more accurate quantiles
+	 */
+	public QuantileSketch(int k) {
+		if (k < MIN_CAPACITY)
+			throw new IllegalArgumentException("Invalid k: " + k);
+		this.k = k;
+		this.levels = new double[0][];
+		this.sizes = new int[0];
+		this.retained = 0;
+		this.count = 0;
+		this.min = Double.NaN;
+		this.max = Double.NaN;
+		this.seed = 0x9e3779b97f4a7c15L;
+		addLevel();
+	}
+
+	/**
+	 * Adds a value
+	 *
+	 * @param value
+	 */
+	public void add(double value) {
+		if (Double.isNaN(value))
+			return;
+		if (count == 0) {
+			min = max = value;
+		} else {
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+		}
+		count++;
+		append(0, value);
+		if (retained >= capacity)
+			compress();
+	}
+
+	/**
+	 * Merges the values of the other sketch into this sketch
+	 *
+	 * @param other a sketch with the same k
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.k != k)
+			throw new IllegalArgumentException("Cannot merge sketches with k " +
+					k + " and " + other.k);
+		if (other.count == 0)
+			return;
+		if (count == 0) {
+			min = other.min;
+			max = other.max;
+		} else {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+		count += other.count;
+		for (int h = 0; h < other.levels.length; h++) {
+			while (levels.length <= h)
+				addLevel();
+			for (int i = 0; i < other.sizes[h]; i++)
+				append(h, other.levels[h][i]);
+		}
+		while (retained >= capacity)
+			compress();
+	}
+
+	/**
+	 * Returns a copy of this sketch
+	 *
+	 * @return
+	 */
+	public QuantileSketch copy() {
+		QuantileSketch copy = new QuantileSketch(k);
+		copy.merge(this);
+		return copy;
+	}
+
+	/**
+	 * Returns the accuracy parameter
+	 *
+	 * @return
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Returns the number of values added
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the smallest value, NaN if there are no values
+	 *
+	 * @return
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest value, NaN if there are no values
+	 *
+	 * @return
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the approximate value at the given quantile, e.g. 0.5 for
+	 * the median; NaN if there are no values
+	 *
+	 * @param q between 0 and 1
+	 * @return
+	 */
+	public double getQuantile(double q) {
+		if (q < 0 || q > 1)
+			throw new IllegalArgumentException("Invalid quantile: " + q);
+		if (count == 0)
+			return Double.NaN;
+		if (q == 0)
+			return min;
+		if (q == 1)
+			return max;
+
+		double[] values = new double[retained];
+		long[] weights = new long[retained];
+		sorted(values, weights);
+
+		double wanted = q * count;
+		long cumulative = 0;
+		for (int i = 0; i < values.length; i++) {
+			cumulative += weights[i];
+			if (cumulative >= wanted)
+				return values[i];
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the approximate values at the given quantiles
+	 *
+	 * @param qs
+	 * @return
+	 */
+	public double[] getQuantiles(double... qs) {
+		double[] result = new double[qs.length];
+		for (int i = 0; i < qs.length; i++)
+			result[i] = getQuantile(qs[i]);
+		return result;
+	}
+
+	/**
+	 * Returns the approximate fraction of the values that are at most
+	 * the given value; NaN if there are no values
+	 *
+	 * @param value
+	 * @return
+	 */
+	public double getRank(double value) {
+		if (count == 0)
+			return Double.NaN;
+		long below = 0;
+		for (int h = 0; h < levels.length; h++) {
+			for (int i = 0; i < sizes[h]; i++) {
+				if (levels[h][i] <= value)
+					below += 1L << h;
+			}
+		}
+		return (double) below / count;
+	}
+
+	/*
+	 * Merges the sorted levels into the retained values in ascending
+	 * order (values) and their weights
+	 */
+	private void sorted(double[] values, long[] weights) {
+		int n = 0;
+		double[] level = new double[0];
+		for (int h = 0; h < levels.length; h++) {
+			int size = sizes[h];
+			if (level.length < size)
+				level = new double[size];
+			System.arraycopy(levels[h], 0, level, 0, size);
+			Arrays.sort(level, 0, size);
+
+			// merge from the back, in place
+			int i = n - 1;
+			int j = size - 1;
+			int to = n + size - 1;
+			long weight = 1L << h;
+			while (j >= 0) {
+				if (i >= 0 && values[i] > level[j]) {
+					values[to] = values[i];
+					weights[to--] = weights[i--];
+				} else {
+					values[to] = level[j--];
+					weights[to--] = weight;
+				}
+			}
+			n += size;
+		}
+	}
+
+	private void append(int level, double value) {
+		double[] items = levels[level];
+		if (sizes[level] == items.length)
+			levels[level] = items = Arrays.copyOf(items, items.length * 2);
+		items[sizes[level]++] = value;
+		retained++;
+	}
+
+	/*
+	 * Compacts the lowest level that is over its capacity
+	 */
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			if (sizes[h] < getCapacity(h))
+				continue;
+			if (h + 1 == levels.length)
+				addLevel();
+
+			double[] items = levels[h];
+			int size = sizes[h];
+			Arrays.sort(items, 0, size);
+			// an odd value out stays at this level
+			int pairs = size / 2;
+			int offset = nextBit();
+			for (int i = 0; i < pairs; i++)
+				append(h + 1, items[2 * i + offset]);
+			retained -= 2 * pairs;
+			if (size % 2 == 1) {
+				items[0] = items[size - 1];
+				sizes[h] = 1;
+			} else {
+				sizes[h] = 0;
+			}
+			return;
+		}
+	}
+
+	/*
+	 * The capacity of a level, depending on its depth below the top level
+	 */
+	private int getCapacity(int level) {
+		int depth = levels.length - level - 1;
+		return Math.max(MIN_CAPACITY,
+				(int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+	}
+
+	private void addLevel() {
+		levels = Arrays.copyOf(levels, levels.length + 1);
+		sizes = Arrays.copyOf(sizes, sizes.length + 1);
+		levels[levels.length - 1] = new double[MIN_CAPACITY];
+		capacity = 0;
+		for (int h = 0; h < levels.length; h++)
+			capacity += getCapacity(h);
+	}
+
+	private int nextBit() {
+		// xorshift
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		return (int) (seed >>> 63);
+	}
+
+}
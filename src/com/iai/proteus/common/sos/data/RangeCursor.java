@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+/**
+ * A cursor over a range of row indexes, which can be split by a 
+ * {@link RowSpliterator} 
+ * 
+ * The primitive accessors parse the String values; subclasses that 
+ * store typed values override them. 
+ */
+abstract class RangeCursor implements DataCursor {
+
+	// the current row 
+	int row;
+	// the row after the last row 
+	int end;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param from the first row 
+	 * @param to the row after the last row 
+	 */
+	RangeCursor(int from, int to) {
+		this.row = from - 1;
+		this.end = to;
+	}
+	
+	/**
+	 * Moves to the given row, returns false if the row should be skipped 
+	 * 
+	 * @param row
+	 * @return
+	 */
+	abstract boolean load(int row);
+	
+	/**
+	 * Returns a new cursor of the same data over the given range 
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	abstract RangeCursor copy(int from, int to);
+	
+	/**
+	 * Returns a new cursor positioned at the current row, with no rows 
+	 * after it 
+	 * 
+	 * @return
+	 */
+	RangeCursor snapshot() {
+		RangeCursor snapshot = copy(row, row + 1);
+		snapshot.next();
+		return snapshot;
+	}
+	
+	@Override
+	public boolean next() {
+		while (++row < end) {
+			if (load(row))
+				return true;
+		}
+		row = end;
+		return false;
+	}
+	
+	@Override
+	public int getRowIndex() {
+		return row;
+	}
+	
+	@Override
+	public double getDouble(int col) {
+		return CursorValues.toDouble(getString(col));
+	}
+	
+	@Override
+	public long getEpochMillis(int col) {
+		return CursorValues.toEpochMillis(getString(col));
+	}
+	
+	@Override
+	public boolean isNull(int col) {
+		return CursorValues.isNull(getString(col));
+	}
+	
+}
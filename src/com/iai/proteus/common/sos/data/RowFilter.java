@@ -0,0 +1,22 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+/**
+ * A predicate over the rows of a data set (see {@link DataView}) 
+ */
+public interface RowFilter {
+
+	/**
+	 * Returns true if the row should be kept 
+	 * 
+	 * @param row all values of the row, in the order of the fields of 
+	 * the underlying data set 
+	 * @return
+	 */
+	public boolean accept(String[] row);
+	
+}
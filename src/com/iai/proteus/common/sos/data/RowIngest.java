@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.List;
+
+/**
+ * What is done with each row as it is parsed: dictionary encoding of
+ * the columns and collecting their statistics, in a single pass
+ */
+final class RowIngest {
+
+	private final DictionaryEncoder encoder;
+	private final StatisticsCollector statistics;
+	private int rows;
+
+	/**
+	 * Constructor
+	 *
+	 * @param encoder the dictionary encoder, or null
+	 * @param statistics the statistics collector, or null
+	 */
+	RowIngest(DictionaryEncoder encoder, StatisticsCollector statistics) {
+		this.encoder = encoder;
+		this.statistics = statistics;
+		this.rows = 0;
+	}
+
+	/**
+	 * Ingests the next row
+	 *
+	 * @param row
+	 */
+	void add(String[] row) {
+		if (encoder != null)
+			encoder.encode(row);
+		if (statistics != null)
+			statistics.add(row);
+		rows++;
+	}
+
+	/**
+	 * Ingests the given rows, in order
+	 *
+	 * @param rows
+	 */
+	void add(List<String[]> rows) {
+		for (String[] row : rows)
+			add(row);
+	}
+
+	/**
+	 * Returns the number of rows ingested
+	 *
+	 * @return
+	 */
+	int getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * Returns the dictionary encoder, null if columns are not encoded
+	 *
+	 * @return
+	 */
+	DictionaryEncoder getEncoder() {
+		return encoder;
+	}
+
+	/**
+	 * Returns the statistics collector, null if no statistics are collected
+	 *
+	 * @return
+	 */
+	StatisticsCollector getStatistics() {
+		return statistics;
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A spliterator over the rows of sensor data, splitting by row index 
+ * 
+ * Every row is passed to the consumer as its own {@link DataCursor}, 
+ * positioned at the row (next() returns false), which reads the values 
+ * of the row from the data without copying them; the rows can be kept, 
+ * e.g. collected from a stream. Each split iterates with its own cursor. 
+ */
+final class RowSpliterator implements Spliterator<DataCursor> {
+	
+	/*
+	 * Ranges smaller than this are not split 
+	 */
+	static final int MIN_SPLIT = 1 << 10;
+
+	private final RangeCursor cursor;
+	private final boolean exact;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param cursor
+	 * @param exact true if no rows are skipped, so the size is exact 
+	 */
+	RowSpliterator(RangeCursor cursor, boolean exact) {
+		this.cursor = cursor;
+		this.exact = exact;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super DataCursor> action) {
+		if (!cursor.next())
+			return false;
+		action.accept(cursor.snapshot());
+		return true;
+	}
+	
+	@Override
+	public void forEachRemaining(Consumer<? super DataCursor> action) {
+		while (cursor.next()) {
+			action.accept(cursor.snapshot());
+		}
+	}
+
+	@Override
+	public Spliterator<DataCursor> trySplit() {
+		int from = cursor.row + 1;
+		int to = cursor.end;
+		if (to - from < MIN_SPLIT)
+			return null;
+		int mid = from + (to - from) / 2;
+		// this spliterator keeps the second half 
+		cursor.row = mid - 1;
+		return new RowSpliterator(cursor.copy(from, mid), exact);
+	}
+
+	@Override
+	public long estimateSize() {
+		return Math.max(0, cursor.end - cursor.row - 1);
+	}
+
+	@Override
+	public int characteristics() {
+		int characteristics = ORDERED | NONNULL;
+		if (exact)
+			characteristics |= SIZED | SUBSIZED;
+		return characteristics;
+	}
+	
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * The inferred (immutable) schema of a data set: the type of each field
+ * and whether it has missing values
+ *
+ * The schema is inferred in one pass over a sample of the rows, deciding
+ * the type of every column at once.
+ */
+public final class Schema {
+
+	/**
+	 * The number of rows sampled by default
+	 */
+	public static final int DEFAULT_SAMPLE_ROWS = 100;
+
+	private final List<Field> fields;
+	private final FieldType[] types;
+	private final boolean[] nullable;
+	private final int sampledRows;
+
+	private final Map<FieldType, List<Field>> fieldsByType;
+
+	/**
+	 * Constructor
+	 *
+	 * @param fields
+	 * @param types
+	 * @param nullable
+	 * @param sampledRows
+	 */
+	private Schema(List<Field> fields, FieldType[] types, boolean[] nullable,
+			int sampledRows)
+	{
+		this.fields = Collections.unmodifiableList(new ArrayList<Field>(fields));
+		this.types = types;
+		this.nullable = nullable;
+		this.sampledRows = sampledRows;
+
+		fieldsByType = new EnumMap<FieldType, List<Field>>(FieldType.class);
+		for (FieldType type : FieldType.values()) {
+			List<Field> matching = new ArrayList<Field>();
+			for (int i = 0; i < types.length; i++) {
+				if (matches(types[i], type))
+					matching.add(fields.get(i));
+			}
+			fieldsByType.put(type, Collections.unmodifiableList(matching));
+		}
+	}
+
+	/**
+	 * Infers the schema from (at most) the given number of valid rows
+	 *
+	 * A column is a time stamp if its field is known to be a time, if its
+	 * name contains "date", or if all sampled values are times. Otherwise
+	 * it is an integer if all sampled values are integers, a decimal if
+	 * they are all numbers and a string in all other cases. Empty values
+	 * are missing values and do not decide the type.
+	 *
+	 * @param data
+	 * @param sampleRows
+	 * @return
+	 */
+	static Schema infer(DSVData data, int sampleRows) {
+		List<Field> fields = data.fields;
+		int n = fields.size();
+
+		boolean[] integers = new boolean[n];
+		boolean[] decimals = new boolean[n];
+		boolean[] times = new boolean[n];
+		boolean[] nulls = new boolean[n];
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			integers[i] = decimals[i] = times[i] = true;
+		}
+
+		int sampled = 0;
+		for (String[] row : data.data) {
+			if (sampled >= sampleRows)
+				break;
+			if (!data.isValidRow(row))
+				continue;
+			for (int i = 0; i < n; i++) {
+				String value = i < row.length ? row[i] : null;
+				if (value != null)
+					value = value.trim();
+				if (value == null || value.length() == 0) {
+					nulls[i] = true;
+					continue;
+				}
+				values[i]++;
+				if (integers[i])
+					integers[i] = isInteger(value);
+				if (decimals[i] && !integers[i])
+					decimals[i] = isDecimal(value);
+				if (times[i])
+					times[i] = TimeUtils.parseMillis(value) != TimeUtils.NO_TIME;
+			}
+			sampled++;
+		}
+
+		FieldType[] types = new FieldType[n];
+		for (int i = 0; i < n; i++) {
+			Field field = fields.get(i);
+			if (field.isTimeField() || field.getName().contains("date"))
+				types[i] = FieldType.TIMESTAMP;
+			else if (values[i] == 0)
+				types[i] = FieldType.STRING;
+			else if (integers[i])
+				types[i] = FieldType.INTEGER;
+			else if (decimals[i])
+				types[i] = FieldType.DOUBLE;
+			else if (times[i])
+				types[i] = FieldType.TIMESTAMP;
+			else
+				types[i] = FieldType.STRING;
+		}
+
+		return new Schema(fields, types, nulls, sampled);
+	}
+
+	/**
+	 * Returns the fields
+	 *
+	 * @return
+	 */
+	public List<Field> getFields() {
+		return fields;
+	}
+
+	/**
+	 * Returns the type of the field at the given index
+	 *
+	 * @param index
+	 * @return
+	 */
+	public FieldType getType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * Returns true if sampled values of the field at the given index
+	 * were missing
+	 *
+	 * @param index
+	 * @return
+	 */
+	public boolean isNullable(int index) {
+		return nullable[index];
+	}
+
+	/**
+	 * Returns true if the values of the field at the given index can be
+	 * read as the given type (integers can also be read as decimals)
+	 *
+	 * @param index
+	 * @param type
+	 * @return
+	 */
+	public boolean isType(int index, FieldType type) {
+		return matches(types[index], type);
+	}
+
+	/**
+	 * Returns the (unmodifiable) list of fields whose values can be read
+	 * as the given type
+	 *
+	 * @param type
+	 * @return
+	 */
+	public List<Field> getFields(FieldType type) {
+		return fieldsByType.get(type);
+	}
+
+	/**
+	 * Returns the number of rows the schema was inferred from
+	 *
+	 * @return
+	 */
+	public int getSampledRows() {
+		return sampledRows;
+	}
+
+	private static boolean matches(FieldType actual, FieldType wanted) {
+		if (actual == wanted)
+			return true;
+		// integers are also decimals
+		return wanted == FieldType.DOUBLE && actual == FieldType.INTEGER;
+	}
+
+	/*
+	 * Optional sign followed by (at most 18) digits
+	 */
+	private static boolean isInteger(String value) {
+		int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+		int length = value.length() - start;
+		if (length == 0 || length > 18)
+			return false;
+		for (int i = start; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean isDecimal(String value) {
+		try {
+			Double.parseDouble(value);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
@@ -7,6 +7,7 @@ package com.iai.proteus.common.sos.data;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Spliterator;
 
 /**
  * Interface for sensor data 
@@ -28,5 +29,41 @@ public interface SensorData {
 	
 	public int size(); 
 	
+	/**
+	 * Returns a cursor over all rows 
+	 * 
+	 * The default cursor iterates the rows of {@link #getData()}; 
+	 * implementations override it to avoid materializing the rows. 
+	 * 
+	 * @return
+	 */
+	public default DataCursor cursor() {
+		return new ListCursor(getData(), getFields().size());
+	}
+	
+	/**
+	 * Returns a spliterator over all rows, e.g. for (parallel) streams; 
+	 * each row is passed as its own cursor, positioned at the row, which 
+	 * can be kept after the row 
+	 * 
+	 * @return
+	 */
+	public default Spliterator<DataCursor> spliterator() {
+		return new RowSpliterator(
+				new ListCursor(getData(), getFields().size()), true);
+	}
+	
+	/**
+	 * Returns a view of all the data, from which lazily evaluated 
+	 * selections of columns and rows can be made 
+	 * 
+	 * The default view reads the rows of {@link #getData()} once. 
+	 * 
+	 * @return
+	 */
+	public default DataView view() {
+		return new DataView(this);
+	}
+	
 	
 }
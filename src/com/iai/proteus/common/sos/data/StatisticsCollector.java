@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * Collects the {@link ColumnStatistics} of the columns of parsed rows,
+ * row by row
+ *
+ * The kind of a column is decided by its first non-empty value: numbers
+ * get statistics of their values, time stamps of their times, and other
+ * columns get no statistics. Later values that are not of the kind of
+ * the column count as missing; a column with more invalid values than
+ * valid ones (after a few rows) is taken to be a text column after all.
+ */
+final class StatisticsCollector {
+
+	private static final int UNKNOWN = 0;
+	private static final int NUMBER = 1;
+	private static final int TIME = 2;
+	private static final int TEXT = 3;
+
+	/*
+	 * The number of invalid values before a column may be given up on
+	 */
+	private static final int MIN_INVALID = 64;
+
+	private final ColumnStatistics[] statistics;
+	private final int[] kinds;
+	private final long[] invalid;
+
+	// missing values before the kind of the column is known
+	private final long[] leading;
+
+	// the last value of each column, to not parse repeated values again
+	private final String[] lastStrings;
+	private final double[] lastValues;
+
+	/**
+	 * Constructor
+	 *
+	 * @param columns
+	 */
+	StatisticsCollector(int columns) {
+		this.statistics = new ColumnStatistics[columns];
+		this.kinds = new int[columns];
+		this.invalid = new long[columns];
+		this.leading = new long[columns];
+		this.lastStrings = new String[columns];
+		this.lastValues = new double[columns];
+	}
+
+	/**
+	 * Adds the values of the next row
+	 *
+	 * @param row
+	 */
+	void add(String[] row) {
+		for (int c = 0; c < kinds.length; c++) {
+			int kind = kinds[c];
+			if (kind == TEXT)
+				continue;
+			String str = c < row.length ? row[c] : null;
+			if (str == null || str.length() == 0) {
+				if (kind != UNKNOWN)
+					statistics[c].addMissing();
+				else
+					leading[c]++;
+				continue;
+			}
+
+			double value;
+			if (str == lastStrings[c]) {
+				value = lastValues[c];
+			} else {
+				if (kind == UNKNOWN) {
+					kind = detect(str);
+					kinds[c] = kind;
+					if (kind == TEXT)
+						continue;
+					statistics[c] = new ColumnStatistics();
+					for (long i = 0; i < leading[c]; i++)
+						statistics[c].addMissing();
+				}
+				value = kind == NUMBER ? parseNumber(str) : parseTime(str);
+				lastStrings[c] = str;
+				lastValues[c] = value;
+			}
+
+			if (Double.isNaN(value)) {
+				ColumnStatistics s = statistics[c];
+				s.addMissing();
+				if (++invalid[c] >= MIN_INVALID && invalid[c] > s.getCount()) {
+					kinds[c] = TEXT;
+					statistics[c] = null;
+				}
+			} else {
+				statistics[c].add(value);
+			}
+		}
+	}
+
+	/**
+	 * Returns the statistics of the given column, null if the column
+	 * has no statistics (e.g. a text column)
+	 *
+	 * @param col
+	 * @return
+	 */
+	ColumnStatistics getStatistics(int col) {
+		return col < statistics.length ? statistics[col] : null;
+	}
+
+	private static int detect(String str) {
+		if (!Double.isNaN(parseNumber(str)))
+			return NUMBER;
+		if (!Double.isNaN(parseTime(str)))
+			return TIME;
+		return TEXT;
+	}
+
+	private static double parseNumber(String str) {
+		// most text, e.g. identifiers and time stamps, is rejected up front
+		char first = str.charAt(0);
+		if (!(first >= '0' && first <= '9') && first != '-' && first != '+' &&
+				first != '.' && first != ' ')
+			return Double.NaN;
+		try {
+			return Double.parseDouble(str);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static double parseTime(String str) {
+		long time = TimeUtils.parseMillis(str);
+		return time != TimeUtils.NO_TIME ? time : Double.NaN;
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+/**
+ * A compressed column of time stamps (milliseconds since the epoch)
+ *
+ * Times are encoded as the differences between consecutive differences
+ * (delta-of-delta), which are zero for regularly sampled data, so a
+ * regular series takes about one bit per time. The column is encoded in
+ * blocks of {@link #BLOCK_SIZE} times that are decoded independently: each
+ * block starts with its first time, and the first times of the blocks are
+ * kept uncompressed, so the block of a time is found by binary search.
+ *
+ * Encoding of a delta-of-delta (zig-zag encoded): '0' if zero, '10' and
+ * 7 bits, '110' and 12 bits, '1110' and 20 bits, otherwise '1111' and 64
+ * bits.
+ */
+public class TimeColumn {
+
+	/**
+	 * The number of times per block
+	 */
+	public static final int BLOCK_SIZE = 1 << 10;
+
+	private final BitStream bits;
+	private final long[] firstTimes;
+	private final long[] offsets;
+	private final int size;
+
+	/**
+	 * Constructor
+	 *
+	 * @param bits
+	 * @param firstTimes
+	 * @param offsets
+	 * @param size
+	 */
+	private TimeColumn(BitStream bits, long[] firstTimes, long[] offsets,
+			int size)
+	{
+		this.bits = bits;
+		this.firstTimes = firstTimes;
+		this.offsets = offsets;
+		this.size = size;
+	}
+
+	/**
+	 * Encodes the given times
+	 *
+	 * @param times
+	 * @return
+	 */
+	public static TimeColumn encode(long[] times) {
+		int n = times.length;
+		int blocks = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		long[] firstTimes = new long[blocks];
+		long[] offsets = new long[blocks];
+		BitStream bits = new BitStream();
+
+		for (int b = 0; b < blocks; b++) {
+			int from = b * BLOCK_SIZE;
+			int to = Math.min(n, from + BLOCK_SIZE);
+			firstTimes[b] = times[from];
+			offsets[b] = bits.position();
+
+			long previous = times[from];
+			long delta = 0;
+			for (int i = from + 1; i < to; i++) {
+				long next = times[i] - previous;
+				long dod = next - delta;
+				long zigzag = (dod << 1) ^ (dod >> 63);
+				if (zigzag == 0) {
+					bits.write(0, 1);
+				} else if (zigzag < (1L << 7)) {
+					bits.write(0x2, 2);
+					bits.write(zigzag, 7);
+				} else if (zigzag < (1L << 12)) {
+					bits.write(0x6, 3);
+					bits.write(zigzag, 12);
+				} else if (zigzag < (1L << 20)) {
+					bits.write(0xe, 4);
+					bits.write(zigzag, 20);
+				} else {
+					bits.write(0xf, 4);
+					bits.write(zigzag, 64);
+				}
+				delta = next;
+				previous = times[i];
+			}
+		}
+		bits.trim();
+
+		return new TimeColumn(bits, firstTimes, offsets, n);
+	}
+
+	/**
+	 * Returns the number of times
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of blocks
+	 *
+	 * @return
+	 */
+	public int getBlockCount() {
+		return firstTimes.length;
+	}
+
+	/**
+	 * Returns the first time of the given block
+	 *
+	 * @param block
+	 * @return
+	 */
+	public long getFirstTime(int block) {
+		return firstTimes[block];
+	}
+
+	/**
+	 * Returns the block that holds the first time at or after the given
+	 * time, if the times are in ascending order
+	 *
+	 * @param time
+	 * @return
+	 */
+	public int findBlock(long time) {
+		// the first block starting at or after the time
+		int low = 0;
+		int high = firstTimes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (firstTimes[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		// the block before may end with the time
+		return Math.max(0, low - 1);
+	}
+
+	/**
+	 * Decodes the given block
+	 *
+	 * @param block
+	 * @param out an array of at least {@link #BLOCK_SIZE} times
+	 * @return the number of times decoded
+	 */
+	public int decode(int block, long[] out) {
+		int count = Math.min(BLOCK_SIZE, size - block * BLOCK_SIZE);
+		BitStream.Reader reader = bits.reader(offsets[block]);
+
+		long time = firstTimes[block];
+		long delta = 0;
+		out[0] = time;
+		for (int i = 1; i < count; i++) {
+			long zigzag;
+			if (!reader.readBit())
+				zigzag = 0;
+			else if (!reader.readBit())
+				zigzag = reader.read(7);
+			else if (!reader.readBit())
+				zigzag = reader.read(12);
+			else if (!reader.readBit())
+				zigzag = reader.read(20);
+			else
+				zigzag = reader.read(64);
+			delta += (zigzag >>> 1) ^ -(zigzag & 1);
+			time += delta;
+			out[i] = time;
+		}
+		return count;
+	}
+
+	/**
+	 * Decodes all times
+	 *
+	 * @return
+	 */
+	public long[] decode() {
+		long[] times = new long[size];
+		long[] buffer = new long[BLOCK_SIZE];
+		for (int b = 0; b < firstTimes.length; b++) {
+			int count = decode(b, buffer);
+			System.arraycopy(buffer, 0, times, b * BLOCK_SIZE, count);
+		}
+		return times;
+	}
+
+	/**
+	 * Returns an iterator over the decoded blocks, starting at the given
+	 * block
+	 *
+	 * @param block
+	 * @return
+	 */
+	public Blocks blocks(int block) {
+		return new Blocks(block);
+	}
+
+	/**
+	 * Returns the approximate size of the column in bytes
+	 *
+	 * @return
+	 */
+	public long getMemorySize() {
+		return bits.getMemorySize() + firstTimes.length * 16L;
+	}
+
+	/**
+	 * Decodes one block at a time into a reused buffer
+	 */
+	public class Blocks {
+
+		private final long[] values;
+		private int block;
+		private int count;
+
+		private Blocks(int block) {
+			this.values = new long[BLOCK_SIZE];
+			this.block = block - 1;
+		}
+
+		/**
+		 * Decodes the next block
+		 *
+		 * @return false if there are no more blocks
+		 */
+		public boolean next() {
+			if (block + 1 >= firstTimes.length)
+				return false;
+			count = decode(++block, values);
+			return true;
+		}
+
+		/**
+		 * Returns the index of the current block
+		 *
+		 * @return
+		 */
+		public int getBlock() {
+			return block;
+		}
+
+		/**
+		 * Returns the row of the first time of the current block
+		 *
+		 * @return
+		 */
+		public int getFirstRow() {
+			return block * BLOCK_SIZE;
+		}
+
+		/**
+		 * Returns the number of times of the current block
+		 *
+		 * @return
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Returns the times of the current block; only the first count
+		 * times are valid, and the array is reused by next()
+		 *
+		 * @return
+		 */
+		public long[] getValues() {
+			return values;
+		}
+	}
+
+}
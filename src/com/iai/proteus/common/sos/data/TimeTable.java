@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact, columnar table of numeric values over time, such as the 
+ * result of aggregating or resampling sensor data 
+ * 
+ * Times are milliseconds since the epoch, in ascending order, and missing 
+ * values are NaN. The arrays are not copied, so they should not be 
+ * modified. 
+ */
+public class TimeTable {
+	
+	private final long[] times;
+	private final List<String> names;
+	private final double[][] columns;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param times
+	 * @param names the names of the columns 
+	 * @param columns one array per column, with one value per time 
+	 */
+	public TimeTable(long[] times, String[] names, double[][] columns) {
+		if (names.length != columns.length)
+			throw new IllegalArgumentException("Expected " + names.length + 
+					" columns, got " + columns.length);
+		for (double[] column : columns) {
+			if (column.length != times.length)
+				throw new IllegalArgumentException("Expected " + times.length + 
+						" values per column, got " + column.length);
+		}
+		this.times = times;
+		this.names = Collections.unmodifiableList(Arrays.asList(names.clone()));
+		this.columns = columns;
+	}
+	
+	/**
+	 * Returns the number of rows (times) 
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return times.length;
+	}
+	
+	/**
+	 * Returns the number of columns 
+	 * 
+	 * @return
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+	
+	/**
+	 * Returns the times 
+	 * 
+	 * @return
+	 */
+	public long[] getTimes() {
+		return times;
+	}
+	
+	/**
+	 * Returns the time of the given row 
+	 * 
+	 * @param row
+	 * @return
+	 */
+	public long getTime(int row) {
+		return times[row];
+	}
+	
+	/**
+	 * Returns the names of the columns 
+	 * 
+	 * @return
+	 */
+	public List<String> getNames() {
+		return names;
+	}
+	
+	/**
+	 * Returns the index of the column with the given name, -1 if there 
+	 * is no such column 
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public int getColumnIndex(String name) {
+		return names.indexOf(name);
+	}
+	
+	/**
+	 * Returns the values of the given column 
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public double[] getColumn(int col) {
+		return columns[col];
+	}
+	
+	/**
+	 * Returns the values of the column with the given name, null if there 
+	 * is no such column 
+	 * 
+	 * @param name
+	 * @return
+	 */
+	public double[] getColumn(String name) {
+		int col = getColumnIndex(name);
+		return col != -1 ? columns[col] : null;
+	}
+	
+	/**
+	 * Returns the value of the given column in the given row 
+	 * 
+	 * @param row
+	 * @param col
+	 * @return
+	 */
+	public double getValue(int row, int col) {
+		return columns[col][row];
+	}
+	
+	/**
+	 * Returns the table in compressed columns 
+	 * 
+	 * @return
+	 */
+	public CompressedTimeTable compress() {
+		return new CompressedTimeTable(this);
+	}
+	
+}
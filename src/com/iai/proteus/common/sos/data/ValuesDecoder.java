@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.List;
+
+/**
+ * Decodes the text of a swe:values element into rows, as the text
+ * arrives in chunks from an XML parser
+ *
+ * Tokens and blocks are split on the declared (possibly multi-character)
+ * separators, also when a separator spans two chunks; tokens are trimmed,
+ * blocks with nothing but white space are skipped, and tokens of columns
+ * that are not projected are never turned into strings.
+ */
+final class ValuesDecoder {
+
+	private final char[] tokenSeparator;
+	private final char[] blockSeparator;
+	private final char decimalSeparator;
+
+	// the target column of each source column, -1 if it is not kept
+	private final int[] targets;
+	private final int width;
+
+	private final List<String[]> rows;
+	private final RowIngest ingest;
+
+	private final StringBuilder token;
+	private String[] row;
+	private int col;
+	private boolean blank;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tokenSeparator
+	 * @param blockSeparator
+	 * @param decimalSeparator
+	 * @param projection the source column of each target column, or null
+	 * @param width the number of target columns
+	 * @param rows where the decoded rows are added
+	 * @param ingest what is done with the rows, or null
+	 */
+	ValuesDecoder(String tokenSeparator, String blockSeparator,
+			String decimalSeparator, int[] projection, int width,
+			List<String[]> rows, RowIngest ingest)
+	{
+		if (tokenSeparator.isEmpty() || blockSeparator.isEmpty())
+			throw new IllegalArgumentException("Empty separator");
+		this.tokenSeparator = tokenSeparator.toCharArray();
+		this.blockSeparator = blockSeparator.toCharArray();
+		this.decimalSeparator = decimalSeparator != null &&
+				decimalSeparator.length() == 1 ?
+						decimalSeparator.charAt(0) : '.';
+		if (projection != null) {
+			int sources = 0;
+			for (int source : projection)
+				sources = Math.max(sources, source + 1);
+			targets = new int[sources];
+			for (int i = 0; i < targets.length; i++)
+				targets[i] = -1;
+			for (int target = 0; target < projection.length; target++)
+				targets[projection[target]] = target;
+		} else {
+			targets = null;
+		}
+		this.width = width;
+		this.rows = rows;
+		this.ingest = ingest;
+		token = new StringBuilder();
+		row = null;
+		col = 0;
+		blank = true;
+	}
+
+	/**
+	 * Decodes the next chunk of text
+	 *
+	 * @param ch
+	 * @param start
+	 * @param length
+	 */
+	void add(char[] ch, int start, int length) {
+		// separators are matched on the last character
+		char tokenLast = tokenSeparator[tokenSeparator.length - 1];
+		char blockLast = blockSeparator[blockSeparator.length - 1];
+		int end = start + length;
+		for (int i = start; i < end; i++) {
+			char c = ch[i];
+			token.append(c);
+			// the longer separator first, in case one ends with the other
+			if (blockSeparator.length >= tokenSeparator.length) {
+				if (c == blockLast && endsWith(blockSeparator)) {
+					endToken(blockSeparator.length);
+					endBlock();
+				} else if (c == tokenLast && endsWith(tokenSeparator)) {
+					endToken(tokenSeparator.length);
+				}
+			} else {
+				if (c == tokenLast && endsWith(tokenSeparator)) {
+					endToken(tokenSeparator.length);
+				} else if (c == blockLast && endsWith(blockSeparator)) {
+					endToken(blockSeparator.length);
+					endBlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decodes the last block, which need not end with a block separator
+	 *
+	 */
+	void finish() {
+		endToken(0);
+		endBlock();
+	}
+
+	private boolean endsWith(char[] separator) {
+		int offset = token.length() - separator.length;
+		if (offset < 0)
+			return false;
+		for (int i = 0; i < separator.length; i++) {
+			if (token.charAt(offset + i) != separator[i])
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Ends the current token, which is followed by a separator of the
+	 * given length
+	 */
+	private void endToken(int separatorLength) {
+		int end = token.length() - separatorLength;
+		int start = 0;
+		while (start < end && token.charAt(start) <= ' ')
+			start++;
+		while (end > start && token.charAt(end - 1) <= ' ')
+			end--;
+		if (end > start)
+			blank = false;
+		int target = targets == null ? col :
+			col < targets.length ? targets[col] : -1;
+		if (target >= 0 && target < width) {
+			if (row == null)
+				row = new String[width];
+			row[target] = decode(start, end);
+		}
+		token.setLength(0);
+		col++;
+	}
+
+	private void endBlock() {
+		if (!blank) {
+			if (row == null)
+				row = new String[width];
+			// tokens missing from short blocks
+			for (int i = 0; i < width; i++) {
+				if (row[i] == null)
+					row[i] = "";
+			}
+			if (ingest != null)
+				ingest.add(row);
+			rows.add(row);
+		}
+		row = null;
+		col = 0;
+		blank = true;
+	}
+
+	/*
+	 * The token, with a decimal separator other than '.' replaced in
+	 * (what looks like) a number
+	 */
+	private String decode(int start, int end) {
+		if (decimalSeparator == '.' || start == end)
+			return token.substring(start, end);
+		char first = token.charAt(start);
+		if (first == '-' || first == '+' || first == decimalSeparator ||
+				(first >= '0' && first <= '9'))
+		{
+			char[] value = new char[end - start];
+			token.getChars(start, end, value, 0);
+			for (int i = 0; i < value.length; i++) {
+				if (value[i] == decimalSeparator)
+					value[i] = '.';
+			}
+			return new String(value);
+		}
+		return token.substring(start, end);
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.data;
+
+import java.util.List;
+
+/**
+ * Iterates the rows of a {@link DataView} without copying them 
+ * 
+ * The cursor is positioned before the first row; each call to next() 
+ * moves it to the next row of the view. Values are read from the 
+ * underlying row, so no objects are created per row. 
+ */
+public final class ViewCursor implements DataCursor {
+
+	private final DataView view;
+	private final List<String[]> rows;
+	private final int[] columns;
+	private final DataView.Stage[] stages;
+	private final int end;
+	
+	// rows that reached each range stage 
+	private final int[] seen;
+	
+	private int position;
+	private String[] row;
+	private boolean done;
+	
+	/**
+	 * Constructor 
+	 * 
+	 * @param view
+	 */
+	ViewCursor(DataView view) {
+		this.view = view;
+		rows = view.getRows();
+		columns = view.getColumns();
+		stages = view.getStages();
+		end = rows.size();
+		seen = new int[stages.length];
+		position = -1;
+		row = null;
+		done = false;
+	}
+	
+	/**
+	 * Moves to the next row, returns false if there are no more rows 
+	 * 
+	 * @return
+	 */
+	public boolean next() {
+		while (!done && ++position < end) {
+			String[] candidate = rows.get(position);
+			if (view.isValidRow(candidate) && accept(candidate)) {
+				row = candidate;
+				return true;
+			}
+		}
+		done = true;
+		row = null;
+		return false;
+	}
+	
+	/**
+	 * Returns the value of the given column (of the view) in the 
+	 * current row, null if the row is too short to have it 
+	 * 
+	 * @param col
+	 * @return
+	 */
+	public String get(int col) {
+		int index = columns[col];
+		return index < row.length ? row[index] : null;
+	}
+	
+	/**
+	 * Implements {@link DataCursor} 
+	 */
+	public String getString(int col) {
+		return get(col);
+	}
+	
+	/**
+	 * Implements {@link DataCursor} 
+	 */
+	public double getDouble(int col) {
+		return CursorValues.toDouble(get(col));
+	}
+	
+	/**
+	 * Implements {@link DataCursor} 
+	 */
+	public long getEpochMillis(int col) {
+		return CursorValues.toEpochMillis(get(col));
+	}
+	
+	/**
+	 * Implements {@link DataCursor} 
+	 */
+	public boolean isNull(int col) {
+		return CursorValues.isNull(get(col));
+	}
+	
+	/**
+	 * Returns the number of columns 
+	 * 
+	 * @return
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+	
+	/**
+	 * Returns the position of the current row in the underlying data 
+	 * 
+	 * @return
+	 */
+	public int getRowIndex() {
+		return position;
+	}
+	
+	/**
+	 * Applies the stages of the view in order 
+	 * 
+	 * @param candidate
+	 * @return
+	 */
+	private boolean accept(String[] candidate) {
+		for (int i = 0; i < stages.length; i++) {
+			DataView.Stage stage = stages[i];
+			if (stage.filter != null) {
+				if (!stage.filter.accept(candidate))
+					return false;
+			} else {
+				int n = seen[i]++;
+				if (n < stage.skip)
+					return false;
+				if (n >= stage.skip + stage.limit) {
+					// no later row can pass this range 
+					done = true;
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
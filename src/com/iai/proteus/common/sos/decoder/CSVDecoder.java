@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.decoder;
+
+import com.iai.proteus.common.sos.SupportedResponseFormats;
+import com.iai.proteus.common.sos.data.CSVData;
+import com.iai.proteus.common.sos.data.ParseOptions;
+import com.iai.proteus.common.sos.data.SensorData;
+
+/**
+ * Decodes CSV responses
+ *
+ */
+public class CSVDecoder implements ResponseDecoder {
+
+	@Override
+	public String[] getResponseFormats() {
+		return new String[] { SupportedResponseFormats.CSV.toString() };
+	}
+
+	@Override
+	public double getCostPerRow() {
+		return 1;
+	}
+
+	@Override
+	public double getSizePerRow() {
+		return 1;
+	}
+
+	@Override
+	public SensorData decode(String response, ParseOptions options) {
+		return CSVData.parse(response, options);
+	}
+
+}
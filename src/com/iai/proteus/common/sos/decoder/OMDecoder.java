@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.decoder;
+
+import com.iai.proteus.common.sos.SupportedResponseFormats;
+import com.iai.proteus.common.sos.data.ParseOptions;
+import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.parser.ObservationParser;
+
+/**
+ * Decodes Observations & Measurements (O&M) 1.0 responses
+ *
+ * The values of O&M results are delimited text much like CSV, but they
+ * are read through an XML parser (which also decodes entities), and
+ * every observation of the response repeats its metadata.
+ */
+public class OMDecoder implements ResponseDecoder {
+
+	@Override
+	public String[] getResponseFormats() {
+		return new String[] {
+				SupportedResponseFormats.XML_OM_1_0.toString(),
+				SupportedResponseFormats.XML_OM_1_0_0.toString()
+		};
+	}
+
+	@Override
+	public double getCostPerRow() {
+		return 1.5;
+	}
+
+	@Override
+	public double getSizePerRow() {
+		return 1.1;
+	}
+
+	@Override
+	public SensorData decode(String response, ParseOptions options) {
+		return new ObservationParser().parseObservations(response, options);
+	}
+
+}
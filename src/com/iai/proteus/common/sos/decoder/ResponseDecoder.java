@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.decoder;
+
+import com.iai.proteus.common.sos.data.ParseOptions;
+import com.iai.proteus.common.sos.data.SensorData;
+
+/**
+ * Decodes GetObservation responses of one or more response formats
+ *
+ * Decoders declare what it costs to decode a row, and how large a row
+ * is in the response, relative to CSV (for which both are 1), so that
+ * the cheapest of the response formats offered by a service can be
+ * requested (see {@link ResponseDecoderRegistry}).
+ *
+ * Decoders other than the built-in ones are registered with the
+ * registry, or found through the service loader when they are listed
+ * in META-INF/services/com.iai.proteus.common.sos.decoder.ResponseDecoder
+ * on the class path; they must then have a public no-argument
+ * constructor.
+ */
+public interface ResponseDecoder {
+
+	/**
+	 * Returns the response formats (MIME types) this decoder decodes
+	 *
+	 * @return
+	 */
+	String[] getResponseFormats();
+
+	/**
+	 * Returns the relative cost of decoding a row (1 for CSV)
+	 *
+	 * @return
+	 */
+	double getCostPerRow();
+
+	/**
+	 * Returns the relative size of a row in the response (1 for CSV)
+	 *
+	 * @return
+	 */
+	double getSizePerRow();
+
+	/**
+	 * Returns the data decoded from the response, only keeping the
+	 * fields requested by the given parse options (if any); null if
+	 * it could not be decoded
+	 *
+	 * @param response
+	 * @param options
+	 * @return
+	 */
+	SensorData decode(String response, ParseOptions options);
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.decoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Singleton registry of the decoders of GetObservation responses
+ *
+ * The registry holds the built-in decoders, the decoders found through
+ * the service loader and the decoders registered with it. If several
+ * decoders decode the same response format the cheapest one is used.
+ *
+ * Response formats are compared ignoring case, white space and quotes,
+ * so that e.g. 'text/xml; subtype="om/1.0.0"' matches
+ * 'text/xml;subtype="om/1.0.0"'.
+ */
+public class ResponseDecoderRegistry {
+
+	private static final Logger log =
+		Logger.getLogger(ResponseDecoderRegistry.class);
+
+	private final List<ResponseDecoder> decoders;
+
+	// the cheapest decoder of each (normalized) response format
+	private final Map<String, ResponseDecoder> byFormat;
+
+	// the weight of the size of a row relative to the cost of decoding it
+	private volatile double sizeWeight;
+
+	/**
+	 * Constructor
+	 *
+	 */
+	public ResponseDecoderRegistry() {
+		decoders = new CopyOnWriteArrayList<ResponseDecoder>();
+		byFormat = new ConcurrentHashMap<String, ResponseDecoder>();
+		sizeWeight = 1;
+		// built-in
+		register(new CSVDecoder());
+		register(new OMDecoder());
+		// from the class path
+		Iterator<ResponseDecoder> it =
+				ServiceLoader.load(ResponseDecoder.class).iterator();
+		while (true) {
+			try {
+				if (!it.hasNext())
+					break;
+				ResponseDecoder decoder = it.next();
+				log.info("Found response decoder: " +
+						decoder.getClass().getName());
+				register(decoder);
+			} catch (ServiceConfigurationError e) {
+				log.error("Error loading response decoder: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Registers a decoder
+	 *
+	 * @param decoder
+	 */
+	public synchronized void register(ResponseDecoder decoder) {
+		decoders.add(decoder);
+		index(decoder, byFormat);
+	}
+
+	/*
+	 * Makes the decoder the decoder of its formats where it is the
+	 * cheapest
+	 */
+	private void index(ResponseDecoder decoder,
+			Map<String, ResponseDecoder> index)
+	{
+		for (String format : decoder.getResponseFormats()) {
+			String key = normalize(format);
+			ResponseDecoder existing = index.get(key);
+			if (existing == null ||
+					getExpectedCost(decoder) < getExpectedCost(existing))
+				index.put(key, decoder);
+		}
+	}
+
+	/**
+	 * Returns the registered decoders
+	 *
+	 * @return
+	 */
+	public List<ResponseDecoder> getDecoders() {
+		return Collections.unmodifiableList(decoders);
+	}
+
+	/**
+	 * Returns the decoder of the given response format, null if there
+	 * is none
+	 *
+	 * @param format
+	 * @return
+	 */
+	public ResponseDecoder getDecoder(String format) {
+		if (format == null)
+			return null;
+		return byFormat.get(normalize(format));
+	}
+
+	/**
+	 * Returns true if responses of the given format can be decoded
+	 *
+	 * @param format
+	 * @return
+	 */
+	public boolean isSupported(String format) {
+		return getDecoder(format) != null;
+	}
+
+	/**
+	 * Returns the expected relative cost of a row decoded by the given
+	 * decoder: the cost of decoding it plus the (weighted) cost of
+	 * transferring it
+	 *
+	 * @param decoder
+	 * @return
+	 */
+	public double getExpectedCost(ResponseDecoder decoder) {
+		return decoder.getCostPerRow() + sizeWeight * decoder.getSizePerRow();
+	}
+
+	/**
+	 * Sets the weight of the size of a row relative to the cost of
+	 * decoding it, e.g. more than 1 for slow connections (default 1)
+	 *
+	 * @param weight
+	 */
+	public synchronized void setSizeWeight(double weight) {
+		if (weight < 0 || Double.isNaN(weight))
+			throw new IllegalArgumentException("Invalid weight: " + weight);
+		sizeWeight = weight;
+		// the cheapest decoders may have changed (all formats remain)
+		Map<String, ResponseDecoder> index =
+				new HashMap<String, ResponseDecoder>();
+		for (ResponseDecoder decoder : decoders)
+			index(decoder, index);
+		byFormat.putAll(index);
+	}
+
+	/**
+	 * Returns the weight of the size of a row relative to the cost of
+	 * decoding it
+	 *
+	 * @return
+	 */
+	public double getSizeWeight() {
+		return sizeWeight;
+	}
+
+	/**
+	 * Returns the given response formats that can be decoded, the
+	 * cheapest first (formats of the same cost keep their order, and
+	 * only the first of equivalent formats is kept)
+	 *
+	 * @param formats
+	 * @return
+	 */
+	public List<String> rank(List<String> formats) {
+		final Map<String, Double> costs = new HashMap<String, Double>();
+		Set<String> seen = new HashSet<String>();
+		List<String> ranked = new ArrayList<String>();
+		for (String format : formats) {
+			ResponseDecoder decoder = getDecoder(format);
+			if (decoder != null && seen.add(normalize(format))) {
+				costs.put(format, getExpectedCost(decoder));
+				ranked.add(format);
+			}
+		}
+		// stable
+		Collections.sort(ranked, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Double.compare(costs.get(a), costs.get(b));
+			}
+		});
+		return ranked;
+	}
+
+	/*
+	 * The response format without case, white space and quotes
+	 */
+	private static String normalize(String format) {
+		StringBuilder sb = new StringBuilder(format.length());
+		for (int i = 0; i < format.length(); i++) {
+			char c = format.charAt(i);
+			if (!Character.isWhitespace(c) && c != '"' && c != '\'')
+				sb.append(Character.toLowerCase(c));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Singleton holder
+	 *
+	 */
+	private static class SingletonHolder {
+		public static final ResponseDecoderRegistry INSTANCE =
+				new ResponseDecoderRegistry();
+	}
+
+	public static ResponseDecoderRegistry getInstance() {
+		return SingletonHolder.INSTANCE;
+	}
+
+}
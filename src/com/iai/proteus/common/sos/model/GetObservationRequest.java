@@ -5,22 +5,10 @@
  */
 package com.iai.proteus.common.sos.model;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Date;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
@@ -77,6 +65,50 @@ public class GetObservationRequest implements Serializable, Cloneable {
 		this.responseFormat = responseFormat;
 	}
 	
+	/**
+	 * Constructor, with the values of the given immutable request 
+	 * 
+	 * The sensor offering is a new one with only the identifier and the 
+	 * name of the offering of the request. 
+	 * 
+	 * @param request
+	 */
+	public GetObservationRequest(ObservationRequest request) {
+		this(toOffering(request), request.getObservedProperty(), 
+				request.getResponseFormat());
+		this.method = request.getMethod();
+		timeIntervals.addAll(request.getTimeIntervals());
+	}
+	
+	/*
+	 * A sensor offering with the identifier and name of the request 
+	 */
+	private static SensorOffering toOffering(ObservationRequest request) {
+		if (request.getOfferingId() == null && 
+				request.getOfferingName() == null)
+			return null;
+		SensorOffering offering = new SensorOffering(request.getOfferingId());
+		offering.setName(request.getOfferingName());
+		return offering;
+	}
+	
+	/**
+	 * Returns an immutable request with the current values of this 
+	 * request, which can be shared between threads and used as a key 
+	 * 
+	 * @return
+	 */
+	public ObservationRequest build() {
+		ObservationRequest.Builder builder = ObservationRequest.builder()
+			.setMethod(method)
+			.setSensorOffering(sensorOffering)
+			.setObservedProperty(observedProperty)
+			.setResponseFormat(responseFormat);
+		for (TimeInterval interval : timeIntervals)
+			builder.addTimeInterval(interval);
+		return builder.build();
+	}
+	
 	/**
 	 * Returns the sensor offering that this request is intended for 
 	 * 
@@ -188,40 +220,7 @@ public class GetObservationRequest implements Serializable, Cloneable {
 	 * @return
 	 */
 	public String getGetQueryString() {
-		
-		try {
-		
-			String base = "service=SOS&version=1.0.0&request=GetObservation";
-
-			String query = 
-				"responseFormat=" + 
-				URLEncoder.encode(responseFormat, "UTF-8") + 
-				"&offering=" + 
-				URLEncoder.encode(sensorOffering.getName(), "UTF-8") + 
-				"&observedProperty=" + 
-				URLEncoder.encode(observedProperty, "UTF-8"); 
-			
-			// time intervals 
-			for (TimeInterval interval : timeIntervals) {
-				String eventTime = "";
-				eventTime += TimeUtils.format(interval.getStart());
-				Date end = interval.getEnd();
-				if (end != null) { 
-					eventTime += "/";
-					eventTime += TimeUtils.format(end);
-				}
-				query += "&eventtime=" + URLEncoder.encode(eventTime, "UTF-8");
-				// NOTE: we currently only handle one time interval
-				break;
-			}			
-				
-			return base + "&" + query;
-		
-		} catch (UnsupportedEncodingException e) {
-			log.warn("Unsupported encoding: " + e.getMessage());
-		}
-		
-		return null;
+		return build().getGetQueryString();
 	}
 	
 	/**
@@ -233,43 +232,28 @@ public class GetObservationRequest implements Serializable, Cloneable {
 		
 		try {
 
-	        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-	        DocumentBuilder builder = factory.newDocumentBuilder();
-	        Document document = builder.newDocument();  
-	        
-	        // create the actual request 
-	        Element root = createXmlRequest(document, true); 
-	        document.appendChild(root);
-	        
-			// set up a transformer
-	        TransformerFactory transfac = TransformerFactory.newInstance();
-	        Transformer trans = transfac.newTransformer();
-	        trans.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-	        trans.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-	        trans.setOutputProperty(OutputKeys.VERSION, "1.0");
-	        trans.setOutputProperty(OutputKeys.INDENT, "yes");
-	        trans.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", 
-	        		"2");            
-	
-			// write XML tree to String
-	        StringWriter sw = new StringWriter(); 
-			StreamResult result = new StreamResult(sw);
-			DOMSource source = new DOMSource(document);
-			trans.transform(source, result);
-	
-			return sw.toString();
+			return GetObservationXmlWriter.toXml(build());
 		
-		} catch (ParserConfigurationException e) {
-			log.error("Parser configuration error while serializing layers: " +
-					e.getMessage()); 
-		} catch (TransformerException e) {
-			log.error("Error while serializing layers: " + e.getMessage());
+		} catch (IOException e) {
+			log.error("Error while serializing request: " + e.getMessage());
 		}
 		
 		// default
 		return null; 
 	}
 	
+	/**
+	 * Writes this GetObservation as a UTF-8 encoded XML request to the 
+	 * given stream, without creating the request as a document or string 
+	 * first 
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeXmlRequest(OutputStream out) throws IOException {
+		GetObservationXmlWriter.write(build(), out);
+	}
+	
 	/**
 	 * Creates the GetObservation XML request and returns the root element 
 	 * 
@@ -466,6 +450,7 @@ public class GetObservationRequest implements Serializable, Cloneable {
 		GetObservationRequest request = 
 				new GetObservationRequest(getSensorOffering(), 
 						getObservedProperty(), getResponseFormat());
+		request.setMethod(getMethod());
 		// copy the intervals 
 		for (TimeInterval interval : getTimeIntervals()) {
 			request.addTimeInterval(new TimeInterval(interval.getStart(), 
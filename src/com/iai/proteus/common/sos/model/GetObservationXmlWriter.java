@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.model;
+
+import java.io.BufferedWriter;
+import java.io.CharConversionException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * Writes GetObservation requests as XML, from a template of the
+ * constant parts of the request with the values escaped into it
+ *
+ * The output is the same as that of serializing the DOM of the request
+ * (see {@link GetObservationRequest#createXmlRequest}) with an indenting
+ * transformer: the same declaration, attribute order, indentation, line
+ * separators, empty elements and character escapes; but no DOM,
+ * transformer or intermediate string is created.
+ */
+public class GetObservationXmlWriter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// the transformer ends lines with the platform line separator
+	private static final String NL = System.getProperty("line.separator");
+
+	/*
+	 * The template
+	 */
+	private static final String HEAD =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>" + NL +
+		"<sos:GetObservation" +
+		" xmlns:sos=\"http://www.opengis.net/sos/1.0\"" +
+		" xmlns:gml=\"http://www.opengis.net/gml/3.2\"" +
+		" xmlns:ogc=\"http://www.opengis.net/ogc\"" +
+		" xmlns:om=\"http://www.opengis.net/om/1.0\"" +
+		" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"" +
+		" service=\"SOS\" version=\"1.0.0\"" +
+		" xsi:schemaLocation=\"http://www.opengis.net/sos/1.0" +
+		" http://schemas.opengis.net/sos/1.0.0/sosAll.xsd\">" + NL;
+
+	private static final String EVENT_TIME_BEGIN =
+		"  <sos:eventTime>" + NL +
+		"    <ogc:TM_During>" + NL +
+		"      <ogc:PropertyName>urn:ogc:data:time:iso8601</ogc:PropertyName>" +
+		NL +
+		"      <gml:TimePeriod>" + NL +
+		"        <gml:beginPosition>";
+
+	private static final String EVENT_TIME_MIDDLE =
+		"</gml:beginPosition>" + NL +
+		"        <gml:endPosition";
+
+	private static final String EVENT_TIME_END =
+		NL +
+		"      </gml:TimePeriod>" + NL +
+		"    </ogc:TM_During>" + NL +
+		"  </sos:eventTime>" + NL;
+
+	private static final String TAIL =
+		"  <sos:resultModel>om:Observation</sos:resultModel>" + NL +
+		"  <sos:responseMode>inline</sos:responseMode>" + NL +
+		"</sos:GetObservation>" + NL;
+
+	private GetObservationXmlWriter() {
+		// static methods only
+	}
+
+	/**
+	 * Returns the request as XML
+	 *
+	 * @param request
+	 * @return
+	 * @throws IOException if the request has malformed text
+	 */
+	public static String toXml(ObservationRequest request)
+			throws IOException
+	{
+		StringWriter sw = new StringWriter(1024);
+		write(request, sw);
+		return sw.toString();
+	}
+
+	/**
+	 * Writes the request as UTF-8 encoded XML to the stream (which is
+	 * flushed but not closed)
+	 *
+	 * @param request
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(ObservationRequest request, OutputStream out)
+			throws IOException
+	{
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+		write(request, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Writes the request as XML
+	 *
+	 * @param request
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(ObservationRequest request, Writer out)
+			throws IOException
+	{
+		out.write(HEAD);
+
+		element(out, "sos:offering", request.getOfferingName());
+
+		for (int i = 0; i < request.getTimeIntervalCount(); i++) {
+			out.write(EVENT_TIME_BEGIN);
+			escape(out, TimeUtils.format(new Date(request.getStart(i))));
+			out.write(EVENT_TIME_MIDDLE);
+			long end = request.getEnd(i);
+			if (end != ObservationRequest.NO_END) {
+				out.write('>');
+				escape(out, TimeUtils.format(new Date(end)));
+				out.write("</gml:endPosition>");
+			} else {
+				out.write("/>");
+			}
+			out.write(EVENT_TIME_END);
+		}
+
+		element(out, "sos:observedProperty", request.getObservedProperty());
+		element(out, "sos:responseFormat", request.getResponseFormat());
+
+		out.write(TAIL);
+	}
+
+	/*
+	 * Writes an indented element with the given text (an empty element
+	 * if there is none)
+	 */
+	private static void element(Writer out, String name, String text)
+			throws IOException
+	{
+		out.write("  <");
+		out.write(name);
+		if (text == null || text.isEmpty()) {
+			out.write("/>");
+		} else {
+			out.write('>');
+			escape(out, text);
+			out.write("</");
+			out.write(name);
+			out.write('>');
+		}
+		out.write(NL);
+	}
+
+	/*
+	 * Writes the text, escaped as by the transformer: markup characters
+	 * as entities, control characters (other than tab and line feed) and
+	 * characters outside the Basic Multilingual Plane as character
+	 * references, and line feeds as line separators
+	 */
+	private static void escape(Writer out, String text) throws IOException {
+		int n = text.length();
+		int start = 0;
+		for (int i = 0; i < n; i++) {
+			char c = text.charAt(i);
+			String replacement;
+			if (c >= ' ' && c < 0x7f && c != '&' && c != '<' && c != '>') {
+				continue;
+			} else if (c == '&') {
+				replacement = "&amp;";
+			} else if (c == '<') {
+				replacement = "&lt;";
+			} else if (c == '>') {
+				replacement = "&gt;";
+			} else if (c == '\t') {
+				continue;
+			} else if (c == '\n') {
+				replacement = NL;
+			} else if (c <= 0x9f) {
+				// C0 and C1 control characters
+				replacement = "&#" + (int) c + ";";
+			} else if (Character.isHighSurrogate(c)) {
+				if (i + 1 == n || !Character.isLowSurrogate(text.charAt(i + 1)))
+					throw new CharConversionException(
+							"Unpaired surrogate in: " + text);
+				out.write(text, start, i - start);
+				out.write("&#" + text.codePointAt(i) + ";");
+				start = ++i + 1;
+				continue;
+			} else if (Character.isLowSurrogate(c)) {
+				replacement = "&#" + (int) c + ";";
+			} else {
+				continue;
+			}
+			out.write(text, start, i - start);
+			out.write(replacement);
+			start = i + 1;
+		}
+		out.write(text, start, n - start);
+	}
+
+}
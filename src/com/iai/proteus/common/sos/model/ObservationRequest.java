@@ -0,0 +1,462 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.iai.proteus.common.TimeUtils;
+
+/**
+ * An immutable GetObservation request, created with a {@link Builder}
+ * (or from a {@link GetObservationRequest})
+ *
+ * Requests can be shared between threads and used as keys: the
+ * canonical key, the hash code, the GET query string and the POST body
+ * of a request are computed once, when they are first needed.
+ *
+ * The offering is kept as its identifier and name, as they were when
+ * the request was built; the name is what is sent to the service. The
+ * identity of a request is its offering identifier and name, observed
+ * property, response format and time intervals; the method is not part
+ * of it.
+ */
+public final class ObservationRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger log = Logger.getLogger(ObservationRequest.class);
+
+	/**
+	 * The end of a time interval without end
+	 */
+	public static final long NO_END = Long.MIN_VALUE;
+
+	private final String method;
+	private final String offeringId;
+	private final String offeringName;
+	private final String observedProperty;
+	private final String responseFormat;
+
+	// the time intervals
+	private final long[] starts;
+	private final long[] ends;
+
+	/*
+	 * Computed when first needed (computing them more than once when
+	 * threads race is harmless)
+	 */
+	private transient volatile String key;
+	private transient int hash;
+	private transient volatile String queryString;
+	private transient volatile String xml;
+	private transient volatile byte[] xmlBytes;
+
+	private ObservationRequest(Builder builder) {
+		method = builder.method;
+		offeringId = builder.offeringId;
+		offeringName = builder.offeringName;
+		observedProperty = builder.observedProperty;
+		responseFormat = builder.responseFormat;
+		int n = builder.intervals.size() / 2;
+		starts = new long[n];
+		ends = new long[n];
+		for (int i = 0; i < n; i++) {
+			starts[i] = builder.intervals.get(2 * i);
+			ends[i] = builder.intervals.get(2 * i + 1);
+		}
+	}
+
+	/**
+	 * Returns a new builder
+	 *
+	 * @return
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Returns a new builder with the values of this request
+	 *
+	 * @return
+	 */
+	public Builder toBuilder() {
+		Builder builder = new Builder()
+			.setMethod(method)
+			.setOffering(offeringId, offeringName)
+			.setObservedProperty(observedProperty)
+			.setResponseFormat(responseFormat);
+		for (int i = 0; i < starts.length; i++)
+			builder.addTimeInterval(starts[i], ends[i]);
+		return builder;
+	}
+
+	/**
+	 * Returns the method ("GET" or "POST")
+	 *
+	 * @return
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Returns the identifier of the offering, as it was when the request
+	 * was built
+	 *
+	 * @return
+	 */
+	public String getOfferingId() {
+		return offeringId;
+	}
+
+	/**
+	 * Returns the name of the offering, as it was when the request was
+	 * built
+	 *
+	 * @return
+	 */
+	public String getOfferingName() {
+		return offeringName;
+	}
+
+	/**
+	 * Returns the observed property
+	 *
+	 * @return
+	 */
+	public String getObservedProperty() {
+		return observedProperty;
+	}
+
+	/**
+	 * Returns the response format
+	 *
+	 * @return
+	 */
+	public String getResponseFormat() {
+		return responseFormat;
+	}
+
+	/**
+	 * Returns the number of time intervals
+	 *
+	 * @return
+	 */
+	public int getTimeIntervalCount() {
+		return starts.length;
+	}
+
+	/**
+	 * Returns the start of the given time interval
+	 *
+	 * @param index
+	 * @return
+	 */
+	public long getStart(int index) {
+		return starts[index];
+	}
+
+	/**
+	 * Returns the end of the given time interval, NO_END if it has none
+	 *
+	 * @param index
+	 * @return
+	 */
+	public long getEnd(int index) {
+		return ends[index];
+	}
+
+	/**
+	 * Returns (copies of) the time intervals
+	 *
+	 * @return
+	 */
+	public List<TimeInterval> getTimeIntervals() {
+		List<TimeInterval> intervals = new ArrayList<TimeInterval>();
+		for (int i = 0; i < starts.length; i++) {
+			intervals.add(new TimeInterval(new Date(starts[i]),
+					ends[i] != NO_END ? new Date(ends[i]) : null));
+		}
+		return intervals;
+	}
+
+	/**
+	 * Returns the canonical key of the request, which is equal for
+	 * requests that are equal
+	 *
+	 * @return
+	 */
+	public String getKey() {
+		String k = key;
+		if (k == null) {
+			StringBuilder sb = new StringBuilder();
+			// length prefixed, so that no value can run into the next
+			append(sb, offeringId);
+			append(sb, offeringName);
+			append(sb, observedProperty);
+			append(sb, responseFormat);
+			for (int i = 0; i < starts.length; i++) {
+				sb.append(starts[i]).append('/');
+				if (ends[i] != NO_END)
+					sb.append(ends[i]);
+				sb.append(';');
+			}
+			key = k = sb.toString();
+		}
+		return k;
+	}
+
+	private static void append(StringBuilder sb, String value) {
+		if (value == null)
+			sb.append('-');
+		else
+			sb.append(value.length()).append(':').append(value);
+		sb.append('|');
+	}
+
+	/**
+	 * Returns a GET query string for this request
+	 *
+	 * @return
+	 */
+	public String getGetQueryString() {
+		String q = queryString;
+		if (q == null) {
+			try {
+
+				String base = "service=SOS&version=1.0.0&request=GetObservation";
+
+				StringBuilder query = new StringBuilder()
+					.append("responseFormat=")
+					.append(URLEncoder.encode(responseFormat, "UTF-8"))
+					.append("&offering=")
+					.append(URLEncoder.encode(offeringName, "UTF-8"))
+					.append("&observedProperty=")
+					.append(URLEncoder.encode(observedProperty, "UTF-8"));
+
+				// NOTE: we currently only handle one time interval
+				if (starts.length > 0) {
+					String eventTime = TimeUtils.format(new Date(starts[0]));
+					if (ends[0] != NO_END)
+						eventTime += "/" + TimeUtils.format(new Date(ends[0]));
+					query.append("&eventtime=")
+						.append(URLEncoder.encode(eventTime, "UTF-8"));
+				}
+
+				queryString = q = base + "&" + query;
+
+			} catch (UnsupportedEncodingException e) {
+				log.warn("Unsupported encoding: " + e.getMessage());
+			}
+		}
+		return q;
+	}
+
+	/**
+	 * Returns this request as an XML request, null if it could not be
+	 * serialized
+	 *
+	 * @return
+	 */
+	public String getXmlRequest() {
+		String x = xml;
+		if (x == null) {
+			try {
+				xml = x = GetObservationXmlWriter.toXml(this);
+			} catch (IOException e) {
+				log.error("Error while serializing request: " + e.getMessage());
+			}
+		}
+		return x;
+	}
+
+	/**
+	 * Writes this request as a UTF-8 encoded XML request to the given
+	 * stream
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeXmlRequest(OutputStream out) throws IOException {
+		byte[] bytes = xmlBytes;
+		if (bytes == null) {
+			String x = getXmlRequest();
+			if (x == null)
+				throw new IOException("The request could not be serialized");
+			xmlBytes = bytes = x.getBytes("UTF-8");
+		}
+		out.write(bytes);
+	}
+
+	@Override
+	public String toString() {
+		return getKey();
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0)
+			hash = h = getKey().hashCode();
+		return h;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ObservationRequest other = (ObservationRequest) obj;
+		if (hashCode() != other.hashCode())
+			return false;
+		return getKey().equals(other.getKey());
+	}
+
+	/**
+	 * Builds immutable GetObservation requests
+	 *
+	 */
+	public static final class Builder {
+
+		private String method;
+		private String offeringId;
+		private String offeringName;
+		private String observedProperty;
+		private String responseFormat;
+
+		// the start and end of each time interval
+		private final List<Long> intervals;
+
+		/**
+		 * Constructor
+		 *
+		 */
+		public Builder() {
+			// defaults
+			method = "GET";
+			intervals = new ArrayList<Long>();
+		}
+
+		/**
+		 * Sets the method ("GET" or "POST")
+		 *
+		 * @param method
+		 * @return
+		 */
+		public Builder setMethod(String method) {
+			this.method = method;
+			return this;
+		}
+
+		/**
+		 * Sets the offering to the identifier and name that the given
+		 * sensor offering has now
+		 *
+		 * @param offering
+		 * @return
+		 */
+		public Builder setSensorOffering(SensorOffering offering) {
+			if (offering == null)
+				return setOffering(null, null);
+			return setOffering(offering.getGmlId(), offering.getName());
+		}
+
+		/**
+		 * Sets the identifier and the name of the offering
+		 *
+		 * @param offeringId
+		 * @param offeringName
+		 * @return
+		 */
+		public Builder setOffering(String offeringId, String offeringName) {
+			this.offeringId = offeringId;
+			this.offeringName = offeringName;
+			return this;
+		}
+
+		/**
+		 * Sets the observed property
+		 *
+		 * @param observedProperty
+		 * @return
+		 */
+		public Builder setObservedProperty(String observedProperty) {
+			this.observedProperty = observedProperty;
+			return this;
+		}
+
+		/**
+		 * Sets the response format
+		 *
+		 * @param responseFormat
+		 * @return
+		 */
+		public Builder setResponseFormat(String responseFormat) {
+			this.responseFormat = responseFormat;
+			return this;
+		}
+
+		/**
+		 * Adds a time interval (the end may be null)
+		 *
+		 * @param interval
+		 * @return
+		 */
+		public Builder addTimeInterval(TimeInterval interval) {
+			if (interval.getStart() == null)
+				throw new IllegalArgumentException("Time interval without start");
+			Date end = interval.getEnd();
+			return addTimeInterval(interval.getStart().getTime(),
+					end != null ? end.getTime() : NO_END);
+		}
+
+		/**
+		 * Adds a time interval
+		 *
+		 * @param start
+		 * @param end the end, NO_END if there is none
+		 * @return
+		 */
+		public Builder addTimeInterval(long start, long end) {
+			intervals.add(start);
+			intervals.add(end);
+			return this;
+		}
+
+		/**
+		 * Removes all time intervals
+		 *
+		 * @return
+		 */
+		public Builder clearIntervals() {
+			intervals.clear();
+			return this;
+		}
+
+		/**
+		 * Returns the request
+		 *
+		 * @return
+		 */
+		public ObservationRequest build() {
+			return new ObservationRequest(this);
+		}
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.parser;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.OMData;
+import com.iai.proteus.common.sos.data.ParseOptions;
+
+/**
+ * Parses Observations & Measurements (O&M) GetObservation responses
+ *
+ * The document is read as a stream: the fields are read from the
+ * swe:DataRecord of the result (with their definitions, units of
+ * measure and whether they are time fields), the separators from the
+ * swe:TextBlock (or swe:TextEncoding), and the text of swe:values is
+ * decoded into rows as it arrives, without building a DOM or holding
+ * the values as one string.
+ *
+ * Elements are matched on their local names, so that both SWE 1.0 and
+ * SWE 2.0 results are read. Responses with several observations are
+ * added to the same data set, as long as their results have the same
+ * fields.
+ */
+public class ObservationParser {
+
+	private static final Logger log =
+		Logger.getLogger(ObservationParser.class);
+
+	private static final String nsXlink = "http://www.w3.org/1999/xlink";
+
+	private static final XMLInputFactory factory = createFactory();
+
+	/*
+	 * The parsed data
+	 */
+	private OMData data;
+	private List<Field> dataFields;
+	private boolean skipValues;
+
+	/*
+	 * The result being read
+	 */
+	private List<Field> recordFields;
+	private Field field;
+	private boolean inRecord = false;
+	private boolean inField = false;
+	private boolean componentRead = false;
+	private String tokenSeparator;
+	private String blockSeparator;
+	private String decimalSeparator;
+
+	/**
+	 * Returns the data parsed from the O&M document, null if it could
+	 * not be parsed
+	 *
+	 * @param document
+	 * @return
+	 */
+	public OMData parseObservations(String document) {
+		return parseObservations(new StringReader(document), null);
+	}
+
+	/**
+	 * Returns the data parsed from the O&M document, as controlled by
+	 * the given options; null if it could not be parsed
+	 *
+	 * @param document
+	 * @param options
+	 * @return
+	 */
+	public OMData parseObservations(String document, ParseOptions options) {
+		return parseObservations(new StringReader(document), options);
+	}
+
+	/**
+	 * Returns the data parsed from the O&M document read from the
+	 * given reader, as controlled by the given options; null if it
+	 * could not be parsed
+	 *
+	 * @param reader
+	 * @param options
+	 * @return
+	 */
+	public OMData parseObservations(Reader reader, ParseOptions options) {
+
+		data = null;
+		dataFields = null;
+		skipValues = false;
+		resetResult();
+
+		XMLStreamReader xml = null;
+
+		try {
+
+			xml = factory.createXMLStreamReader(reader);
+
+			log.info("Starting to parse O&M document...");
+
+			while (xml.hasNext()) {
+				switch (xml.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					startElement(xml, options);
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					endElement(xml.getLocalName());
+					break;
+				}
+			}
+
+			log.info("Done parsing O&M document.");
+
+			if (data == null)
+				log.error("No observation values found in O&M document");
+
+			return data;
+
+		} catch (XMLStreamException e) {
+			log.error("Error parsing O&M document: " + e.getMessage());
+		} finally {
+			if (xml != null) {
+				try {
+					xml.close();
+				} catch (XMLStreamException e) {
+					log.warn("Error closing O&M document: " + e.getMessage());
+				}
+			}
+		}
+
+		// default in case of errors
+		return null;
+	}
+
+	/**
+	 * Start element
+	 *
+	 */
+	private void startElement(XMLStreamReader xml, ParseOptions options)
+			throws XMLStreamException
+	{
+		String name = xml.getLocalName();
+
+		if (name.equals("DataRecord") || name.equals("SimpleDataRecord")) {
+			recordFields = new ArrayList<Field>();
+			inRecord = true;
+		} else if (name.equals("field")) {
+			if (inRecord) {
+				field = new Field(xml.getAttributeValue(null, "name"));
+				inField = true;
+				componentRead = false;
+			}
+		} else if (name.equals("uom")) {
+			if (inField) {
+				String code = xml.getAttributeValue(null, "code");
+				if (code == null)
+					code = xml.getAttributeValue(nsXlink, "href");
+				field.setUom(code);
+			}
+		} else if (name.equals("TextBlock") || name.equals("TextEncoding")) {
+			tokenSeparator = xml.getAttributeValue(null, "tokenSeparator");
+			blockSeparator = xml.getAttributeValue(null, "blockSeparator");
+			decimalSeparator = xml.getAttributeValue(null, "decimalSeparator");
+		} else if (name.equals("values")) {
+			if (beginValues(options))
+				readValues(xml);
+		} else if (inField && !componentRead) {
+			// the component of the field (swe:Time, swe:Quantity, ...)
+			componentRead = true;
+			String definition = xml.getAttributeValue(null, "definition");
+			field.setDefinition(definition);
+			if (name.equals("Time") || isTimeDefinition(definition))
+				field.timeField();
+		}
+	}
+
+	/**
+	 * End element
+	 *
+	 */
+	private void endElement(String name) {
+		if (name.equals("field")) {
+			if (inField && field.getName() != null)
+				recordFields.add(field);
+			inField = false;
+		} else if (name.equals("DataRecord") ||
+				name.equals("SimpleDataRecord")) {
+			inRecord = false;
+		} else if (name.equals("DataArray")) {
+			resetResult();
+		}
+	}
+
+	/*
+	 * Prepares the data set for the values of the current result,
+	 * returns false if they should be skipped
+	 */
+	private boolean beginValues(ParseOptions options) {
+
+		if (recordFields == null || recordFields.isEmpty()) {
+			log.warn("No fields declared for observation values");
+			return false;
+		}
+
+		if (data == null) {
+			data = new OMData();
+			for (Field f : recordFields)
+				data.addField(f);
+			data.setParseOptions(options);
+			dataFields = recordFields;
+		} else if (!recordFields.equals(dataFields)) {
+			if (!skipValues)
+				log.warn("Skipping observations with fields " + recordFields +
+						" that differ from the first observation");
+			skipValues = true;
+			return false;
+		}
+
+		// defaults (SWE Common)
+		data.setTokenSeparator(tokenSeparator != null ? tokenSeparator : ",");
+		data.setBlockSeparator(blockSeparator != null ? blockSeparator : " ");
+		data.setDecimalSeparator(decimalSeparator != null ?
+				decimalSeparator : ".");
+		return true;
+	}
+
+	/*
+	 * Decodes the text of the current swe:values element, up to its
+	 * end element
+	 */
+	private void readValues(XMLStreamReader xml) throws XMLStreamException {
+		while (xml.hasNext()) {
+			int event = xml.next();
+			if (event == XMLStreamConstants.CHARACTERS ||
+					event == XMLStreamConstants.CDATA ||
+					event == XMLStreamConstants.SPACE)
+			{
+				data.addValues(xml.getTextCharacters(), xml.getTextStart(),
+						xml.getTextLength());
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+		}
+		data.endValues();
+	}
+
+	private void resetResult() {
+		recordFields = null;
+		field = null;
+		inRecord = false;
+		inField = false;
+		componentRead = false;
+		tokenSeparator = null;
+		blockSeparator = null;
+		decimalSeparator = null;
+	}
+
+	/*
+	 * True if the definition is that of a time (e.g.
+	 * "urn:ogc:data:time:iso8601", "urn:ogc:property:time:iso8601",
+	 * "http://www.opengis.net/def/property/OGC/0/SamplingTime")
+	 */
+	private static boolean isTimeDefinition(String definition) {
+		if (definition == null)
+			return false;
+		String lower = definition.toLowerCase();
+		return lower.contains("iso8601") || lower.endsWith(":time") ||
+				lower.endsWith("samplingtime") ||
+				lower.endsWith("phenomenontime");
+	}
+
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		// the values are decoded as they arrive
+		factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(
+				XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+}
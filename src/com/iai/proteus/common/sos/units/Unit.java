@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.units;
+
+/**
+ * A unit of measure, defined by its dimension (e.g. "temperature") and
+ * how its values convert to the base unit of the dimension (e.g. Kelvin):
+ * base = value * scale + offset
+ */
+public class Unit {
+
+	private final String code;
+	private final String dimension;
+	private final double scale;
+	private final double offset;
+
+	/**
+	 * Constructor
+	 *
+	 * @param code the (UCUM) code of the unit
+	 * @param dimension
+	 * @param scale
+	 * @param offset
+	 */
+	public Unit(String code, String dimension, double scale, double offset) {
+		if (scale == 0 || Double.isNaN(scale) || Double.isInfinite(scale))
+			throw new IllegalArgumentException("Invalid scale: " + scale);
+		this.code = code;
+		this.dimension = dimension;
+		this.scale = scale;
+		this.offset = offset;
+	}
+
+	/**
+	 * Constructor, for a unit that is a multiple of the base unit
+	 *
+	 * @param code
+	 * @param dimension
+	 * @param scale
+	 */
+	public Unit(String code, String dimension, double scale) {
+		this(code, dimension, scale, 0);
+	}
+
+	/**
+	 * Returns the code of the unit
+	 *
+	 * @return
+	 */
+	public String getCode() {
+		return code;
+	}
+
+	/**
+	 * Returns the dimension of the unit
+	 *
+	 * @return
+	 */
+	public String getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * Returns the factor of the conversion to the base unit
+	 *
+	 * @return
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Returns the offset of the conversion to the base unit
+	 *
+	 * @return
+	 */
+	public double getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns true if values of this unit can be converted to the other unit
+	 *
+	 * @param other
+	 * @return
+	 */
+	public boolean isCompatible(Unit other) {
+		return dimension.equals(other.dimension);
+	}
+
+	/**
+	 * Returns the conversion of values of this unit to the other unit
+	 *
+	 * @param other
+	 * @return
+	 */
+	public UnitConversion getConversionTo(Unit other) {
+		if (!isCompatible(other))
+			throw new IllegalArgumentException("Cannot convert " + code +
+					" to " + other.code);
+		// to the base unit, and from the base unit to the other unit
+		return new UnitConversion(scale / other.scale,
+				(offset - other.offset) / other.scale);
+	}
+
+	@Override
+	public String toString() {
+		return code;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((code == null) ? 0 : code.hashCode());
+		result = prime * result
+				+ ((dimension == null) ? 0 : dimension.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Unit other = (Unit) obj;
+		if (code == null) {
+			if (other.code != null)
+				return false;
+		} else if (!code.equals(other.code))
+			return false;
+		if (dimension == null) {
+			if (other.dimension != null)
+				return false;
+		} else if (!dimension.equals(other.dimension))
+			return false;
+		return true;
+	}
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.units;
+
+import com.iai.proteus.common.sos.analysis.Kernels;
+
+/**
+ * An affine conversion of values between two units:
+ * converted = value * scale + offset
+ *
+ * Conversions are immutable, and are applied to single values or, in
+ * one pass, to whole primitive columns.
+ */
+public class UnitConversion {
+
+	/**
+	 * The conversion that leaves values as they are
+	 */
+	public static final UnitConversion IDENTITY = new UnitConversion(1, 0);
+
+	private final double scale;
+	private final double offset;
+
+	/**
+	 * Constructor
+	 *
+	 * @param scale
+	 * @param offset
+	 */
+	public UnitConversion(double scale, double offset) {
+		this.scale = scale;
+		this.offset = offset;
+	}
+
+	/**
+	 * Returns the factor of the conversion
+	 *
+	 * @return
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Returns the offset of the conversion
+	 *
+	 * @return
+	 */
+	public double getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns true if the conversion leaves values as they are
+	 *
+	 * @return
+	 */
+	public boolean isIdentity() {
+		return scale == 1 && offset == 0;
+	}
+
+	/**
+	 * Converts a value
+	 *
+	 * @param value
+	 * @return
+	 */
+	public double convert(double value) {
+		return value * scale + offset;
+	}
+
+	/**
+	 * Converts the values into the output (which may be the input)
+	 *
+	 * @param values
+	 * @param out
+	 */
+	public void convert(double[] values, double[] out) {
+		Kernels.scale(values, scale, offset, out);
+	}
+
+	/**
+	 * Returns the converted values; the values themselves if this is
+	 * the identity
+	 *
+	 * @param values
+	 * @return
+	 */
+	public double[] convert(double[] values) {
+		if (isIdentity())
+			return values;
+		return Kernels.scale(values, scale, offset);
+	}
+
+	/**
+	 * Returns the conversion that applies this conversion and then
+	 * the other
+	 *
+	 * @param next
+	 * @return
+	 */
+	public UnitConversion then(UnitConversion next) {
+		return new UnitConversion(scale * next.scale,
+				offset * next.scale + next.offset);
+	}
+
+	/**
+	 * Returns the inverse conversion
+	 *
+	 * @return
+	 */
+	public UnitConversion inverse() {
+		return new UnitConversion(1 / scale, -offset / scale);
+	}
+
+	@Override
+	public String toString() {
+		return "x * " + scale + " + " + offset;
+	}
+
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (C) 2013 Intelligent Automation Inc. 
+ * 
+ * All Rights Reserved.
+ */
+package com.iai.proteus.common.sos.units;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.iai.proteus.common.sos.data.Field;
+import com.iai.proteus.common.sos.data.TimeTable;
+
+/**
+ * Singleton registry of units of measure, resolving the unit codes of
+ * fields to {@link Unit}s and providing the conversions between them
+ *
+ * Codes are UCUM codes (e.g. "Cel", "m.s-1", "[kn_i]"), common spellings
+ * (e.g. "C", "degC", "knots") and either of these in the URN or URL forms
+ * that SOS servers use (e.g. "urn:ogc:def:uom:UCUM::Cel",
+ * "http://www.opengis.net/def/uom/UCUM/0/Cel"). Fields without a unit
+ * code may carry their unit in parentheses at the end of their name, as
+ * in IOOS CSV responses (e.g. "sea_water_temperature (C)").
+ *
+ * Resolved codes and conversions are cached, so converting a column
+ * only costs one lookup, after which the affine conversion is applied
+ * to the whole column in one pass.
+ */
+public class UnitRegistry {
+
+	private static final Logger log = Logger.getLogger(UnitRegistry.class);
+
+	/*
+	 * Prefixes of unit codes that are removed before resolving them
+	 */
+	private static final String[] PREFIXES = new String[] {
+		"urn:ogc:def:uom:UCUM::",
+		"urn:ogc:def:uom:UCUM:",
+		"urn:ogc:def:uom:udunits:2:",
+		"urn:ogc:def:uom:OGC:1.0:",
+		"urn:ogc:def:uom:OGC::",
+		"urn:x-ogc:def:uom:OGC:1.0:",
+		"http://www.opengis.net/def/uom/UCUM/0/",
+		"http://www.opengis.net/def/uom/UCUM/",
+		"http://www.opengis.net/def/uom/OGC/1.0/",
+		"http://mmisw.org/ont/ioos/unit/",
+	};
+
+	/*
+	 * Stands for a code or conversion that could not be resolved, since
+	 * the caches cannot hold null
+	 */
+	private static final Unit UNKNOWN = new Unit("", "", 1);
+	private static final UnitConversion NONE = new UnitConversion(1, 0);
+
+	// the units by code and alias, and by lower case code and alias
+	private final Map<String, Unit> units;
+	private final Map<String, Unit> lowerCase;
+
+	// the preferred unit of each dimension
+	private final Map<String, Unit> displayUnits;
+
+	private final Map<String, Unit> resolved;
+	private final Map<String, UnitConversion> conversions;
+
+	/**
+	 * Constructor
+	 *
+	 */
+	public UnitRegistry() {
+		units = new HashMap<String, Unit>();
+		lowerCase = new HashMap<String, Unit>();
+		displayUnits = new ConcurrentHashMap<String, Unit>();
+		resolved = new ConcurrentHashMap<String, Unit>();
+		conversions = new ConcurrentHashMap<String, UnitConversion>();
+		registerDefaults();
+	}
+
+	/**
+	 * Registers a unit under its code and the given aliases
+	 *
+	 * @param unit
+	 * @param aliases
+	 */
+	public synchronized void register(Unit unit, String... aliases) {
+		add(unit.getCode(), unit);
+		for (String alias : aliases)
+			add(alias, unit);
+		// the cached lookups may have changed
+		resolved.clear();
+		conversions.clear();
+	}
+
+	private void add(String code, Unit unit) {
+		units.put(code, unit);
+		String lower = code.toLowerCase();
+		// a case-insensitive match is only used if it is unambiguous
+		Unit existing = lowerCase.get(lower);
+		if (existing == null)
+			lowerCase.put(lower, unit);
+		else if (!existing.equals(unit))
+			lowerCase.put(lower, UNKNOWN);
+	}
+
+	/**
+	 * Returns the unit of the given code, null if the code is not known
+	 *
+	 * @param code
+	 * @return
+	 */
+	public Unit resolve(String code) {
+		if (code == null)
+			return null;
+		Unit unit = resolved.get(code);
+		if (unit == null) {
+			unit = lookup(normalize(code));
+			if (unit == null) {
+				log.debug("Unknown unit: " + code);
+				unit = UNKNOWN;
+			}
+			resolved.put(code, unit);
+		}
+		return unit != UNKNOWN ? unit : null;
+	}
+
+	/**
+	 * Returns the unit of the given field, from its unit code or else
+	 * from the end of its name; null if it is not known
+	 *
+	 * @param field
+	 * @return
+	 */
+	public Unit resolve(Field field) {
+		String uom = field.getUom();
+		if (uom != null && uom.trim().length() > 0)
+			return resolve(uom);
+		// e.g. "sea_water_temperature (C)"
+		String name = field.getName().trim();
+		int open = name.lastIndexOf('(');
+		if (open != -1 && name.endsWith(")"))
+			return resolve(name.substring(open + 1, name.length() - 1));
+		return null;
+	}
+
+	/**
+	 * Returns the conversion between the units of the given codes, or
+	 * null if either is unknown or they are not compatible
+	 *
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public UnitConversion getConversion(String from, String to) {
+		if (from == null || to == null)
+			return null;
+		String key = from + '\n' + to;
+		UnitConversion conversion = conversions.get(key);
+		if (conversion == null) {
+			Unit source = resolve(from);
+			Unit target = resolve(to);
+			if (source != null && target != null && source.isCompatible(target))
+				conversion = source.getConversionTo(target);
+			else
+				conversion = NONE;
+			conversions.put(key, conversion);
+		}
+		return conversion != NONE ? conversion : null;
+	}
+
+	/**
+	 * Returns the conversion of the values of the given field to the
+	 * unit of the given code, or null if it is not possible
+	 *
+	 * @param field
+	 * @param to
+	 * @return
+	 */
+	public UnitConversion getConversion(Field field, String to) {
+		Unit source = resolve(field);
+		if (source == null)
+			return null;
+		return getConversion(source.getCode(), to);
+	}
+
+	/**
+	 * Sets the unit that values of its dimension are displayed in
+	 *
+	 * @param code
+	 */
+	public void setDisplayUnit(String code) {
+		Unit unit = resolve(code);
+		if (unit == null)
+			throw new IllegalArgumentException("Unknown unit: " + code);
+		displayUnits.put(unit.getDimension(), unit);
+	}
+
+	/**
+	 * Returns the unit that values of the given dimension are displayed
+	 * in, or null if they are displayed in their own units
+	 *
+	 * @param dimension
+	 * @return
+	 */
+	public Unit getDisplayUnit(String dimension) {
+		return displayUnits.get(dimension);
+	}
+
+	/**
+	 * Returns the conversion of the values of the given field to the
+	 * display unit of its dimension; the identity if the unit of the
+	 * field is not known or has no display unit
+	 *
+	 * @param field
+	 * @return
+	 */
+	public UnitConversion getDisplayConversion(Field field) {
+		Unit source = resolve(field);
+		if (source == null)
+			return UnitConversion.IDENTITY;
+		Unit target = displayUnits.get(source.getDimension());
+		if (target == null)
+			return UnitConversion.IDENTITY;
+		return getConversion(source.getCode(), target.getCode());
+	}
+
+	/**
+	 * Converts the columns of the table to the display units
+	 *
+	 * Columns that are already in their display units (or whose units
+	 * are not known) are shared with the given table.
+	 *
+	 * @param table
+	 * @param fields the field of each column of the table
+	 * @return
+	 */
+	public TimeTable toDisplayUnits(TimeTable table, List<Field> fields) {
+		if (fields.size() != table.getColumnCount())
+			throw new IllegalArgumentException("Expected " +
+					table.getColumnCount() + " fields, got " + fields.size());
+		double[][] columns = new double[table.getColumnCount()][];
+		for (int c = 0; c < columns.length; c++)
+			columns[c] = getDisplayConversion(fields.get(c))
+					.convert(table.getColumn(c));
+		return new TimeTable(table.getTimes(),
+				table.getNames().toArray(new String[0]), columns);
+	}
+
+	/*
+	 * The code without the URN or URL prefix
+	 */
+	private static String normalize(String code) {
+		String normalized = code.trim();
+		for (String prefix : PREFIXES) {
+			if (normalized.regionMatches(true, 0, prefix, 0, prefix.length()))
+				return normalized.substring(prefix.length());
+		}
+		return normalized;
+	}
+
+	private synchronized Unit lookup(String code) {
+		Unit unit = units.get(code);
+		if (unit == null) {
+			unit = lowerCase.get(code.toLowerCase());
+			if (unit == UNKNOWN)
+				unit = null;
+		}
+		return unit;
+	}
+
+	/*
+	 * The units of common observed properties
+	 */
+	private void registerDefaults() {
+
+		// temperature (Kelvin)
+		register(new Unit("K", "temperature", 1), "kelvin");
+		register(new Unit("Cel", "temperature", 1, 273.15),
+				"C", "degC", "deg C", "\u00b0C", "celsius", "degree_Celsius");
+		register(new Unit("[degF]", "temperature", 5.0 / 9.0,
+				273.15 - 32 * 5.0 / 9.0),
+				"F", "degF", "deg F", "\u00b0F", "fahrenheit",
+				"degree_Fahrenheit");
+
+		// length (meter)
+		register(new Unit("m", "length", 1), "meter", "meters", "metre");
+		register(new Unit("cm", "length", 0.01));
+		register(new Unit("mm", "length", 0.001));
+		register(new Unit("km", "length", 1000));
+		register(new Unit("[ft_i]", "length", 0.3048), "ft", "feet", "foot");
+		register(new Unit("[in_i]", "length", 0.0254), "in", "inch", "inches");
+		register(new Unit("[mi_i]", "length", 1609.344), "mi", "mile", "miles");
+		register(new Unit("[nmi_i]", "length", 1852), "nmi");
+		register(new Unit("[fth_i]", "length", 1.8288), "fathom", "fathoms");
+
+		// speed (meter per second)
+		register(new Unit("m.s-1", "speed", 1), "m/s", "m s-1");
+		register(new Unit("cm.s-1", "speed", 0.01), "cm/s", "cm s-1");
+		register(new Unit("km.h-1", "speed", 1 / 3.6), "km/h", "kph");
+		register(new Unit("[kn_i]", "speed", 1852.0 / 3600.0),
+				"kn", "kt", "knot", "knots");
+		register(new Unit("[mi_i].h-1", "speed", 0.44704), "mph", "mi/h");
+
+		// pressure (pascal)
+		register(new Unit("Pa", "pressure", 1));
+		register(new Unit("hPa", "pressure", 100));
+		register(new Unit("kPa", "pressure", 1000));
+		register(new Unit("mbar", "pressure", 100), "mb", "millibar", "millibars");
+		register(new Unit("bar", "pressure", 1e5));
+		register(new Unit("dbar", "pressure", 1e4), "decibar", "decibars");
+		register(new Unit("atm", "pressure", 101325));
+		register(new Unit("mm[Hg]", "pressure", 133.322387415), "mmHg");
+		register(new Unit("[in_i'Hg]", "pressure", 3386.389), "inHg");
+
+		// angle (degree)
+		register(new Unit("deg", "angle", 1), "degree", "degrees",
+				"degree_true", "degrees_true", "\u00b0");
+		register(new Unit("rad", "angle", 180 / Math.PI), "radian", "radians");
+
+		// time (second)
+		register(new Unit("s", "time", 1), "sec", "second", "seconds");
+		register(new Unit("ms", "time", 0.001));
+		register(new Unit("min", "time", 60), "minute", "minutes");
+		register(new Unit("h", "time", 3600), "hr", "hour", "hours");
+		register(new Unit("d", "time", 86400), "day", "days");
+
+		// salinity (practical salinity)
+		register(new Unit("[ppth]", "salinity", 1), "PSU", "ppt", "1e-3");
+
+		// mass concentration (milligram per liter)
+		register(new Unit("mg.L-1", "concentration", 1), "mg/L", "mg/l");
+		register(new Unit("ug.L-1", "concentration", 0.001), "ug/L", "ug/l",
+				"\u00b5g/L");
+		register(new Unit("kg.m-3", "concentration", 1000), "kg/m3");
+
+		// volume flow (cubic meter per second)
+		register(new Unit("m3.s-1", "flow", 1), "m3/s", "m^3/s");
+		register(new Unit("[ft_i]3.s-1", "flow", 0.028316846592),
+				"ft3/s", "cfs");
+
+		// fraction
+		register(new Unit("1", "fraction", 1));
+		register(new Unit("%", "fraction", 0.01), "percent");
+	}
+
+	/**
+	 * Singleton holder
+	 *
+	 */
+	private static class SingletonHolder {
+		public static final UnitRegistry INSTANCE = new UnitRegistry();
+	}
+
+	public static UnitRegistry getInstance() {
+		return SingletonHolder.INSTANCE;
+	}
+
+}
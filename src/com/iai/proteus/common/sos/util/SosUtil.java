@@ -20,9 +20,15 @@ import com.iai.proteus.common.sos.GetCapabilities;
 import com.iai.proteus.common.sos.GetObservation;
 import com.iai.proteus.common.sos.SosCapabilitiesCache;
 import com.iai.proteus.common.sos.SosService;
-import com.iai.proteus.common.sos.SupportedResponseFormats;
-import com.iai.proteus.common.sos.data.CSVData;
+import com.iai.proteus.common.sos.cache.CacheResult;
+import com.iai.proteus.common.sos.cache.ObservationCache;
+import com.iai.proteus.common.sos.cache.ObservationKey;
+import com.iai.proteus.common.sos.cache.ObservationStore;
+import com.iai.proteus.common.sos.cache.TimeRange;
+import com.iai.proteus.common.sos.data.ParseOptions;
 import com.iai.proteus.common.sos.data.SensorData;
+import com.iai.proteus.common.sos.decoder.ResponseDecoder;
+import com.iai.proteus.common.sos.decoder.ResponseDecoderRegistry;
 import com.iai.proteus.common.sos.exception.ExceptionReportException;
 import com.iai.proteus.common.sos.model.Address;
 import com.iai.proteus.common.sos.model.ContactInfo;
@@ -34,6 +40,7 @@ import com.iai.proteus.common.sos.model.ServiceContact;
 import com.iai.proteus.common.sos.model.ServiceIdentification;
 import com.iai.proteus.common.sos.model.ServiceProvider;
 import com.iai.proteus.common.sos.model.SosCapabilities;
+import com.iai.proteus.common.sos.model.TimeInterval;
 
 public class SosUtil {
 
@@ -70,21 +77,29 @@ public class SosUtil {
 
 	/**
 	 * Returns the list of response formats we support of the ones provided
-	 * by the given offering, empty list if none.
+	 * by the given offering, empty list if none. The formats are ranked
+	 * by the expected cost of decoding and transferring their responses, 
+	 * the cheapest first (see {@link ResponseDecoderRegistry}). 
 	 *
 	 * @param offering
 	 *
 	 * @return
 	 */
 	public static List<String> commonResponseFormats(SensorOffering offering) {
-		List<String> formats = new ArrayList<String>();
-		List<String> availableFormats = offering.getResponseFormats();
-		for (SupportedResponseFormats f : SupportedResponseFormats.values()) {
-			String format = f.toString();
-			if (availableFormats.contains(format))
-				formats.add(format);
-		}
-		return formats;
+		return ResponseDecoderRegistry.getInstance().rank(
+				offering.getResponseFormats());
+	}
+
+	/**
+	 * Returns the cheapest response format we support of the ones provided 
+	 * by the given offering, null if none 
+	 *
+	 * @param offering
+	 * @return
+	 */
+	public static String cheapestResponseFormat(SensorOffering offering) {
+		List<String> formats = commonResponseFormats(offering);
+		return formats.isEmpty() ? null : formats.get(0);
 	}
 
 	/**
@@ -157,11 +172,156 @@ public class SosUtil {
 	public static SensorData getObservationData(String service,
 			GetObservationRequest request, int timeoutConnection, int timeoutRead)
 					throws ExceptionReportException, SocketTimeoutException
+	{
+		return getObservationData(service, request, 
+				timeoutConnection, timeoutRead, (ParseOptions) null);
+	}
+
+	/**
+	 * Retrieves observations, only keeping the fields requested by the
+	 * given parse options
+	 *
+	 * @param service
+	 * @param request
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 * @param options
+	 * @throws {@link ExceptionReportException}
+	 * @throws {@link SocketTimeoutException}
+	 */
+	public static SensorData getObservationData(String service,
+			GetObservationRequest request, int timeoutConnection, int timeoutRead,
+			ParseOptions options)
+					throws ExceptionReportException, SocketTimeoutException
 	{
 		String result = getObservationResponse(service, request,
 				timeoutConnection, timeoutRead);
 
-		return parseObservationDataFromResponse(request, result);
+		return parseObservationDataFromResponse(request, result, options);
+	}
+
+	/**
+	 * Retrieves observations through the given cache: only the parts of 
+	 * the requested time interval that are not cached are requested from 
+	 * the service, and the fetched observations are cached and merged 
+	 * with the cached ones 
+	 *
+	 * Requests without a time interval are not cached. 
+	 *
+	 * @param service
+	 * @param request
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 * @param cache
+	 * @throws {@link ExceptionReportException}
+	 * @throws {@link SocketTimeoutException}
+	 */
+	public static SensorData getCachedObservationData(String service,
+			GetObservationRequest request, int timeoutConnection, int timeoutRead,
+			ObservationCache cache)
+					throws ExceptionReportException, SocketTimeoutException
+	{
+		return getCachedObservationData(service, request, timeoutConnection,
+				timeoutRead, cache, null);
+	}
+
+	/**
+	 * Retrieves observations through the given cache and local store: 
+	 * the parts of the requested time interval that are not cached are 
+	 * looked up in the store, and only the parts that are not stored 
+	 * either are requested from the service. Fetched observations are 
+	 * cached and stored, observations found in the store are cached. 
+	 *
+	 * Requests without a time interval are neither cached nor stored. 
+	 *
+	 * @param service
+	 * @param request
+	 * @param timeoutConnection
+	 * @param timeoutRead
+	 * @param cache
+	 * @param store the local store, or null
+	 * @throws {@link ExceptionReportException}
+	 * @throws {@link SocketTimeoutException}
+	 */
+	public static SensorData getCachedObservationData(String service,
+			GetObservationRequest request, int timeoutConnection, int timeoutRead,
+			ObservationCache cache, ObservationStore store)
+					throws ExceptionReportException, SocketTimeoutException
+	{
+		List<TimeInterval> intervals = request.getTimeIntervals();
+		if (intervals.isEmpty())
+			return getObservationData(service, request,
+					timeoutConnection, timeoutRead);
+
+		ObservationKey key = ObservationKey.of(service, request);
+		// NOTE: requests only use the first time interval
+		TimeRange range = TimeRange.fromInterval(intervals.get(0));
+
+		CacheResult cached = cache.lookup(key, range);
+		if (cached.isComplete()) {
+			log.info("Observations found in cache: " + key);
+			return cached.getData();
+		}
+
+		List<SensorData> parts = new ArrayList<SensorData>();
+		if (cached.getData() != null)
+			parts.add(cached.getData());
+
+		List<TimeRange> fetch = cached.getMissing();
+		if (store != null) {
+			fetch = new ArrayList<TimeRange>();
+			for (TimeRange missing : cached.getMissing()) {
+				CacheResult stored = store.lookup(key, missing);
+				if (stored.getData() != null) {
+					log.info("Observations found in store: " + key);
+					// the stored ranges of the missing range
+					for (TimeRange found : 
+						subtract(missing, stored.getMissing()))
+						cache.put(key, found, stored.getData(), null);
+					parts.add(stored.getData());
+				}
+				fetch.addAll(stored.getMissing());
+			}
+		}
+
+		for (TimeRange missing : fetch) {
+			GetObservationRequest partial = 
+					(GetObservationRequest) request.clone();
+			partial.clearIntervals();
+			partial.addTimeInterval(missing.toInterval());
+
+			SensorData data = getObservationData(service, partial,
+					timeoutConnection, timeoutRead);
+			if (data == null)
+				return null;
+
+			cache.put(key, missing, data, null);
+			if (store != null)
+				store.append(key, missing, data, null);
+			parts.add(data);
+		}
+
+		// the fetched intervals include their ends
+		return ObservationCache.merge(parts, range, null);
+	}
+
+	/*
+	 * The parts of the range that are not in the given (ordered, disjoint)
+	 * sub-ranges of it
+	 */
+	private static List<TimeRange> subtract(TimeRange range,
+			List<TimeRange> ranges)
+	{
+		List<TimeRange> result = new ArrayList<TimeRange>();
+		long start = range.getStart();
+		for (TimeRange part : ranges) {
+			if (part.getStart() > start)
+				result.add(new TimeRange(start, part.getStart()));
+			start = Math.max(start, part.getEnd());
+		}
+		if (start < range.getEnd())
+			result.add(new TimeRange(start, range.getEnd()));
+		return result;
 	}
 
 	/**
@@ -174,6 +334,22 @@ public class SosUtil {
 	 */
 	public static SensorData parseObservationDataFromResponse(GetObservationRequest request,
 			String doc) throws ExceptionReportException
+	{
+		return parseObservationDataFromResponse(request, doc, null);
+	}
+
+	/**
+	 * Handles the parsing of sensor data from a given response format,
+	 * only keeping the fields requested by the given parse options
+	 *
+	 * @param request
+	 * @param doc
+	 * @param options
+	 * @return
+	 * @throws ExceptionReportException
+	 */
+	public static SensorData parseObservationDataFromResponse(GetObservationRequest request,
+			String doc, ParseOptions options) throws ExceptionReportException
 	{
 		String responseFormat = request.getResponseFormat();
 
@@ -191,17 +367,14 @@ public class SosUtil {
 				 * Handle response
 				 */
 
-				SupportedResponseFormats format =
-					SupportedResponseFormats.parse(responseFormat);
-				switch (format) {
-				case CSV:
-					CSVData csv = CSVData.parse(doc);
-					if (csv != null)
-						return csv;
-					break;
-					
-				// TODO: add support for more data formats 
-				}
+				ResponseDecoder decoder = 
+					ResponseDecoderRegistry.getInstance().getDecoder(responseFormat);
+				if (decoder == null)
+					throw new IllegalArgumentException("No decoder for " + 
+							"response format " + responseFormat);
+				SensorData data = decoder.decode(doc, options);
+				if (data != null)
+					return data;
 
 			}
 		}